@@ -0,0 +1,79 @@
+package com.web2wave;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Full client calls against a loopback HTTP stub, so transport, headers, retries and parsing are
+// all included. Numbers are only comparable between runs on the same machine.
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+    @Param({"1", "100"})
+    public int subscriptions;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private Web2WaveClient client;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] subscriptionBody = Fixtures.bytes("subscriptions_" + subscriptions + ".json");
+        byte[] propertiesBody = Fixtures.bytes("properties_500.json");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/user/subscriptions", exchange -> respond(exchange, subscriptionBody));
+        server.createContext("/api/user/properties", exchange -> respond(exchange, propertiesBody));
+        serverExecutor = Executors.newFixedThreadPool(8);
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        client = Web2WaveClient.builder("benchmark-key")
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort())
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean hasActiveSubscription() {
+        return client.hasActiveSubscription("user_4f2a9c");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean hasActiveSubscriptionConcurrent() {
+        return client.hasActiveSubscription("user_4f2a9c");
+    }
+
+    @Benchmark
+    public UserProperties getUserProperties() {
+        return client.getUserProperties("user_4f2a9c");
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
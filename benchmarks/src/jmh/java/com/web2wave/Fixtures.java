@@ -0,0 +1,40 @@
+package com.web2wave;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// Recorded API responses of realistic sizes, under src/jmh/resources/fixtures.
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static byte[] bytes(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) throw new IllegalArgumentException("Missing fixture " + name);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String string(String name) {
+        return new String(bytes(name), StandardCharsets.UTF_8);
+    }
+
+    static String subscriptions(int count) {
+        return string("subscriptions_" + count + ".json");
+    }
+
+    static String properties(int count) {
+        return string("properties_" + count + ".json");
+    }
+}
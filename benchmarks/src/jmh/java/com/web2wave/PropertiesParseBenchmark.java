@@ -0,0 +1,36 @@
+package com.web2wave;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+@State(Scope.Benchmark)
+public class PropertiesParseBenchmark {
+
+    @Param({"10", "500"})
+    public int properties;
+
+    private String json;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        json = Fixtures.properties(properties);
+        bytes = json.getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public UserProperties readFromStream() throws IOException {
+        return UserProperties.read(JsonStreamReader.of(new ByteArrayInputStream(bytes)));
+    }
+
+    @Benchmark
+    public Object readAsMap() throws IOException {
+        return JsonStreamReader.of(json).readValue();
+    }
+}
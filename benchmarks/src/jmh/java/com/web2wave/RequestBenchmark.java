@@ -0,0 +1,47 @@
+package com.web2wave;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+@State(Scope.Benchmark)
+public class RequestBenchmark {
+
+    @Param({"subscriptions_1.json", "subscriptions_100.json", "properties_500.json"})
+    public String fixture;
+
+    private Web2WaveClient client;
+    private Map<String, String> query;
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        client = new Web2WaveClient("benchmark-key");
+        query = Collections.singletonMap("user", "user_4f2a9c");
+        body = Fixtures.bytes(fixture);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    public String buildUrl() {
+        return client.buildUrl(Web2WaveEndpoint.SUBSCRIPTIONS, query);
+    }
+
+    // Buffering the whole body into a String, the path taken when the entitlement snapshot is on.
+    @Benchmark
+    public String readBody() throws IOException {
+        return Web2WaveClient.readBody(new ByteArrayInputStream(body));
+    }
+}
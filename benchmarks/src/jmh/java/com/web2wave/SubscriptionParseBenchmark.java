@@ -0,0 +1,63 @@
+package com.web2wave;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+@State(Scope.Benchmark)
+public class SubscriptionParseBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int subscriptions;
+
+    private String json;
+    private byte[] bytes;
+    private SubscriptionStatus parsed;
+
+    @Setup
+    public void setUp() throws IOException {
+        json = Fixtures.subscriptions(subscriptions);
+        bytes = json.getBytes("UTF-8");
+        parsed = SubscriptionStatus.read(JsonStreamReader.of(json));
+    }
+
+    // Streaming parse straight off the response body, as the client does without a snapshot.
+    @Benchmark
+    public SubscriptionStatus readFromStream() throws IOException {
+        return SubscriptionStatus.read(JsonStreamReader.of(new ByteArrayInputStream(bytes)));
+    }
+
+    @Benchmark
+    public SubscriptionStatus readFromString() throws IOException {
+        return SubscriptionStatus.read(JsonStreamReader.of(json));
+    }
+
+    @Benchmark
+    public boolean hasActiveSubscription() throws IOException {
+        return SubscriptionStatus.read(JsonStreamReader.of(new ByteArrayInputStream(bytes))).hasActiveSubscription();
+    }
+
+    @Benchmark
+    public boolean hasActiveSubscriptionParsed() {
+        return parsed.hasActiveSubscription();
+    }
+
+    // Generic map/list materialization, the replacement for Utils.jsonToMap/jsonToList.
+    @Benchmark
+    public Object readAsMap() throws IOException {
+        return JsonStreamReader.of(json).readValue();
+    }
+
+    // Lazy view of the same document with one nested field read, against readAsMap above.
+    @Benchmark
+    public Object readLazyOneField() throws IOException {
+        Object view = JsonStreamReader.of(json).readLazyValue();
+        return ((Map<?, ?>) view).get(SubscriptionStatus.KEY_SUBSCRIPTION);
+    }
+}
@@ -0,0 +1,5 @@
+package com.web2wave;
+
+public interface BulkLookupListener {
+    void onResult(String userID, Result<SubscriptionStatus> result);
+}
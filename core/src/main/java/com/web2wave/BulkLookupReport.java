@@ -0,0 +1,46 @@
+package com.web2wave;
+
+import java.util.Collections;
+import java.util.Map;
+
+public final class BulkLookupReport {
+    private final int requestedCount;
+    private final int succeededCount;
+    private final Map<String, Exception> failures;
+    private final boolean canceled;
+    private final long elapsedMillis;
+
+    BulkLookupReport(int requestedCount, int succeededCount, Map<String, Exception> failures,
+                     boolean canceled, long elapsedMillis) {
+        this.requestedCount = requestedCount;
+        this.succeededCount = succeededCount;
+        this.failures = Collections.unmodifiableMap(failures);
+        this.canceled = canceled;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public int getRequestedCount() {
+        return requestedCount;
+    }
+
+    public int getSucceededCount() {
+        return succeededCount;
+    }
+
+    public int getFailedCount() {
+        return failures.size();
+    }
+
+    // Users that were never looked up because the lookup was cancelled are in neither count.
+    public Map<String, Exception> getFailures() {
+        return failures;
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+}
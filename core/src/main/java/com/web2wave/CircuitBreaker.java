@@ -0,0 +1,149 @@
+package com.web2wave;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+class CircuitBreaker {
+
+    private final Web2WaveEndpoint endpoint;
+    private final CircuitBreakerPolicy policy;
+    private final CircuitBreakerListener listener;
+
+    // CLOSED is the hot path: it is read and recorded without taking the monitor. Only state
+    // transitions, which are rare, synchronize.
+    private volatile Window window;
+    private volatile CircuitState state = CircuitState.CLOSED;
+    private long openUntil;
+    private boolean probeInFlight;
+
+    CircuitBreaker(Web2WaveEndpoint endpoint, CircuitBreakerPolicy policy, CircuitBreakerListener listener) {
+        this.endpoint = endpoint;
+        this.policy = policy;
+        this.listener = listener;
+        this.window = new Window(policy.getWindowSize());
+    }
+
+    void acquire() throws CircuitOpenException {
+        if (state == CircuitState.CLOSED) return;
+        CircuitState from;
+        synchronized (this) {
+            from = state;
+            switch (state) {
+                case CLOSED:
+                    return;
+                case OPEN:
+                    if (System.currentTimeMillis() < openUntil) {
+                        throw new CircuitOpenException(endpoint);
+                    }
+                    state = CircuitState.HALF_OPEN;
+                    probeInFlight = true;
+                    break;
+                default:
+                    if (probeInFlight) {
+                        throw new CircuitOpenException(endpoint);
+                    }
+                    probeInFlight = true;
+                    return;
+            }
+        }
+        notifyListener(from, CircuitState.HALF_OPEN);
+    }
+
+    void onSuccess() {
+        record(false);
+    }
+
+    void onFailure() {
+        record(true);
+    }
+
+    // Gives back a half-open probe whose call ended without an outcome, e.g. because it was
+    // cancelled, so the next caller can probe instead of the breaker staying half-open forever.
+    void release() {
+        if (state == CircuitState.CLOSED) return;
+        synchronized (this) {
+            if (state == CircuitState.HALF_OPEN) probeInFlight = false;
+        }
+    }
+
+    CircuitState getState() {
+        return state;
+    }
+
+    private void record(boolean failed) {
+        if (state == CircuitState.CLOSED) {
+            Window current = window;
+            if (!current.record(failed, policy)) return;
+            synchronized (this) {
+                // Another thread may already have tripped or reset the breaker.
+                if (state != CircuitState.CLOSED || window != current) return;
+                open();
+            }
+            notifyListener(CircuitState.CLOSED, CircuitState.OPEN);
+            return;
+        }
+
+        CircuitState from;
+        CircuitState to;
+        synchronized (this) {
+            from = state;
+            if (state == CircuitState.HALF_OPEN) {
+                probeInFlight = false;
+                if (failed) {
+                    open();
+                } else {
+                    window = new Window(policy.getWindowSize());
+                    state = CircuitState.CLOSED;
+                }
+            }
+            to = state;
+        }
+        if (from != to) notifyListener(from, to);
+    }
+
+    private void open() {
+        openUntil = System.currentTimeMillis() + policy.getOpenDurationMillis();
+        state = CircuitState.OPEN;
+    }
+
+    private void notifyListener(CircuitState from, CircuitState to) {
+        if (listener == null) return;
+        try {
+            listener.onStateChange(endpoint, from, to);
+        } catch (RuntimeException e) {
+            System.err.println("Circuit breaker listener failed: " + e.getMessage());
+        }
+    }
+
+    private static final class Window {
+        private final AtomicIntegerArray outcomes;
+        private final AtomicLong cursor = new AtomicLong();
+        private final AtomicInteger failures = new AtomicInteger();
+
+        Window(int size) {
+            outcomes = new AtomicIntegerArray(size);
+        }
+
+        // Returns true when this outcome pushes the failure rate over the threshold.
+        boolean record(boolean failed, CircuitBreakerPolicy policy) {
+            int size = outcomes.length();
+            long position = cursor.getAndIncrement();
+            int previous = outcomes.getAndSet((int) (position % size), failed ? 1 : 0);
+            int delta = (failed ? 1 : 0) - previous;
+            int failureCount = delta != 0 ? failures.addAndGet(delta) : failures.get();
+            long calls = Math.min(position + 1, size);
+            return calls >= policy.getMinimumCalls()
+                    && failureCount >= policy.getFailureRateThreshold() * calls;
+        }
+    }
+
+    static final class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException(Web2WaveEndpoint endpoint) {
+            super("Circuit open for " + endpoint);
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package com.web2wave;
+
+public interface CircuitBreakerListener {
+    void onStateChange(Web2WaveEndpoint endpoint, CircuitState from, CircuitState to);
+}
@@ -0,0 +1,45 @@
+package com.web2wave;
+
+public final class CircuitBreakerPolicy {
+
+    private final double failureRateThreshold;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final long openDurationMillis;
+
+    public CircuitBreakerPolicy(double failureRateThreshold, int windowSize, int minimumCalls, long openDurationMillis) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("failureRateThreshold must be in (0, 1]");
+        }
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("minimumCalls must be in [1, windowSize]");
+        }
+        if (openDurationMillis < 0) {
+            throw new IllegalArgumentException("openDurationMillis must be >= 0");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.openDurationMillis = openDurationMillis;
+    }
+
+    public static CircuitBreakerPolicy defaults() {
+        return new CircuitBreakerPolicy(0.5, 20, 10, 30_000);
+    }
+
+    double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    int getWindowSize() {
+        return windowSize;
+    }
+
+    int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    long getOpenDurationMillis() {
+        return openDurationMillis;
+    }
+}
@@ -0,0 +1,5 @@
+package com.web2wave;
+
+public enum CircuitState {
+    CLOSED, OPEN, HALF_OPEN
+}
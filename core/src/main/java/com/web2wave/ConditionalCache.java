@@ -0,0 +1,67 @@
+package com.web2wave;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Validators (ETag / Last-Modified) and the parsed result of the response they describe, keyed by
+// URL, which already carries the user. A 304 lets the client hand back the stored result without
+// downloading or parsing the body again.
+class ConditionalCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private final LruMap<String, Entry> entries;
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong parsedBytesSaved = new AtomicLong();
+
+    ConditionalCache(int maxEntries) {
+        entries = new LruMap<>(maxEntries);
+    }
+
+    // Only entries stored by the same parser match, so the cached value has the expected type.
+    Entry get(String url, Object parser) {
+        Entry entry = entries.get(url);
+        if (entry == null || entry.parser != parser) return null;
+        return entry;
+    }
+
+    void put(String url, String etag, String lastModified, Object parser, Object value, long bodyBytes) {
+        if (etag == null && lastModified == null) {
+            entries.remove(url);
+            return;
+        }
+        entries.put(url, new Entry(etag, lastModified, parser, value, bodyBytes));
+    }
+
+    void onNotModified(Entry entry) {
+        notModified.incrementAndGet();
+        parsedBytesSaved.addAndGet(entry.bodyBytes);
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    long getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    long getParsedBytesSaved() {
+        return parsedBytesSaved.get();
+    }
+
+    static final class Entry {
+        final String etag;
+        final String lastModified;
+        final Object parser;
+        final Object value;
+        final long bodyBytes;
+
+        Entry(String etag, String lastModified, Object parser, Object value, long bodyBytes) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.parser = parser;
+            this.value = value;
+            this.bodyBytes = bodyBytes;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package com.web2wave;
+
+public interface EntitlementListener {
+    // status is never null; a failed poll is not reported as a change.
+    void onEntitlementChanged(String userID, SubscriptionStatus status);
+}
@@ -0,0 +1,248 @@
+package com.web2wave;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One poller per observed user, shared by all of that user's listeners. Polls run fast for a
+// while after boost() (a purchase or finished quiz), then back off while nothing changes, and stop
+// entirely while paused. Listeners hear the first known state and after that only real changes.
+final class EntitlementPoller {
+
+    static final long DEFAULT_FAST_INTERVAL_MILLIS = 2_000;
+    static final long DEFAULT_BOOST_WINDOW_MILLIS = 60_000;
+    static final long DEFAULT_MIN_IDLE_INTERVAL_MILLIS = 30_000;
+    static final long DEFAULT_MAX_IDLE_INTERVAL_MILLIS = 300_000;
+
+    interface Loader {
+        // Returns null when the status could not be fetched.
+        SubscriptionStatus load(String userID);
+    }
+
+    private final Loader loader;
+    private final Executor pollExecutor;
+    private final ScheduledExecutorService timer;
+    private final Executor callbackExecutor;
+    private final long fastIntervalMillis;
+    private final long boostWindowMillis;
+    private final long minIdleIntervalMillis;
+    private final long maxIdleIntervalMillis;
+
+    private final Map<String, Watch> watches = new HashMap<>();
+    private boolean paused;
+    private boolean closed;
+    private final AtomicLong polls = new AtomicLong();
+
+    EntitlementPoller(Loader loader, Executor pollExecutor, ScheduledExecutorService timer, Executor callbackExecutor,
+                      long fastIntervalMillis, long boostWindowMillis, long minIdleIntervalMillis, long maxIdleIntervalMillis) {
+        this.loader = loader;
+        this.pollExecutor = pollExecutor;
+        this.timer = timer;
+        this.callbackExecutor = callbackExecutor;
+        this.fastIntervalMillis = fastIntervalMillis;
+        this.boostWindowMillis = boostWindowMillis;
+        this.minIdleIntervalMillis = minIdleIntervalMillis;
+        this.maxIdleIntervalMillis = maxIdleIntervalMillis;
+    }
+
+    void observe(String userID, EntitlementListener listener) {
+        SubscriptionStatus known;
+        synchronized (this) {
+            if (closed) return;
+            Watch watch = watches.get(userID);
+            if (watch == null) {
+                watch = new Watch(userID);
+                watches.put(userID, watch);
+                pollSoon(watch);
+            }
+            if (watch.listeners.contains(listener)) return;
+            watch.listeners.add(listener);
+            known = watch.last;
+        }
+        if (known != null) notify(userID, known, listener);
+    }
+
+    void stopObserving(String userID, EntitlementListener listener) {
+        synchronized (this) {
+            Watch watch = watches.get(userID);
+            if (watch == null) return;
+            watch.listeners.remove(listener);
+            if (watch.listeners.isEmpty()) {
+                watches.remove(userID);
+                cancel(watch);
+            }
+        }
+    }
+
+    // Polls every observed user now and keeps polling fast for the boost window.
+    synchronized void boost() {
+        long until = System.currentTimeMillis() + boostWindowMillis;
+        for (Watch watch : watches.values()) {
+            watch.boostUntil = until;
+            watch.idleIntervalMillis = minIdleIntervalMillis;
+            pollSoon(watch);
+        }
+    }
+
+    synchronized void setPaused(boolean paused) {
+        if (this.paused == paused) return;
+        this.paused = paused;
+        for (Watch watch : watches.values()) {
+            if (paused) {
+                cancel(watch);
+            } else {
+                pollSoon(watch);
+            }
+        }
+    }
+
+    synchronized void close() {
+        closed = true;
+        for (Watch watch : watches.values()) cancel(watch);
+        watches.clear();
+    }
+
+    synchronized int getObservedUserCount() {
+        return watches.size();
+    }
+
+    long getPollCount() {
+        return polls.get();
+    }
+
+    // Caller holds the lock. A poll already in flight is told to go again as soon as it finishes
+    // rather than starting a second chain of polls for the same user.
+    private void pollSoon(Watch watch) {
+        if (paused) return;
+        if (watch.inFlight) {
+            watch.pollAgain = true;
+            return;
+        }
+        cancel(watch);
+        schedule(watch, 0);
+    }
+
+    private void cancel(Watch watch) {
+        if (watch.next != null) {
+            watch.next.cancel(false);
+            watch.next = null;
+        }
+    }
+
+    private void schedule(Watch watch, long delayMillis) {
+        try {
+            watch.next = timer.schedule(() -> start(watch), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The client is closing.
+            watch.next = null;
+        }
+    }
+
+    private void start(Watch watch) {
+        synchronized (this) {
+            if (paused || watches.get(watch.userID) != watch) return;
+            watch.next = null;
+            watch.inFlight = true;
+            watch.pollAgain = false;
+        }
+        try {
+            pollExecutor.execute(() -> poll(watch));
+        } catch (RejectedExecutionException e) {
+            finish(watch, null);
+        }
+    }
+
+    private void poll(Watch watch) {
+        polls.incrementAndGet();
+        SubscriptionStatus status = null;
+        try {
+            status = loader.load(watch.userID);
+        } catch (RuntimeException e) {
+            System.err.println("Entitlement poll failed: " + e.getMessage());
+        }
+        finish(watch, status);
+    }
+
+    private void finish(Watch watch, SubscriptionStatus status) {
+        List<EntitlementListener> listeners = null;
+        synchronized (this) {
+            watch.inFlight = false;
+            if (watches.get(watch.userID) != watch) return;
+
+            Set<String> fingerprint = status != null ? fingerprint(status) : null;
+            if (fingerprint != null && !fingerprint.equals(watch.fingerprint)) {
+                watch.fingerprint = fingerprint;
+                watch.last = status;
+                watch.idleIntervalMillis = minIdleIntervalMillis;
+                listeners = new ArrayList<>(watch.listeners);
+            } else {
+                // Unchanged or failed: back off, up to the idle ceiling.
+                watch.idleIntervalMillis = Math.min(watch.idleIntervalMillis * 2, maxIdleIntervalMillis);
+            }
+
+            if (!paused && !closed) {
+                long delay;
+                if (watch.pollAgain) {
+                    delay = 0;
+                } else if (System.currentTimeMillis() < watch.boostUntil) {
+                    delay = fastIntervalMillis;
+                } else {
+                    delay = watch.idleIntervalMillis;
+                }
+                schedule(watch, delay);
+            }
+        }
+        if (listeners != null) {
+            for (EntitlementListener listener : listeners) notify(watch.userID, status, listener);
+        }
+    }
+
+    private void notify(String userID, SubscriptionStatus status, EntitlementListener listener) {
+        try {
+            callbackExecutor.execute(() -> {
+                try {
+                    listener.onEntitlementChanged(userID, status);
+                } catch (RuntimeException e) {
+                    System.err.println("Entitlement listener failed: " + e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            System.err.println("Entitlement notification rejected: " + e.getMessage());
+        }
+    }
+
+    // What observers care about: each subscription's identity and status. Other fields, such as
+    // timestamps the server refreshes, do not count as a change.
+    static Set<String> fingerprint(SubscriptionStatus status) {
+        Set<String> fingerprint = new HashSet<>();
+        for (Subscription subscription : status.getSubscriptions()) {
+            fingerprint.add(subscription.getPaySystemId() + "|" + subscription.getStatus());
+        }
+        return fingerprint;
+    }
+
+    private final class Watch {
+        final String userID;
+        final List<EntitlementListener> listeners = new ArrayList<>();
+        Set<String> fingerprint;
+        SubscriptionStatus last;
+        long idleIntervalMillis = minIdleIntervalMillis;
+        long boostUntil;
+        ScheduledFuture<?> next;
+        boolean inFlight;
+        boolean pollAgain;
+
+        Watch(String userID) {
+            this.userID = userID;
+        }
+    }
+}
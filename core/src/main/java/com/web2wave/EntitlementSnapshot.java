@@ -0,0 +1,207 @@
+package com.web2wave;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Last known subscription and property responses, persisted for cold-start lookups. One instance
+// can back several clients in turn, so a rebuilt client neither rereads the file nor hands out a
+// record an earlier client already used.
+public final class EntitlementSnapshot {
+
+    static final byte KIND_SUBSCRIPTIONS = 1;
+    static final byte KIND_PROPERTIES = 2;
+
+    private static final String FILE_NAME = "web2wave_entitlements.bin";
+    private static final int MAGIC = 0x57325753;
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final long maxAgeMillis;
+    private final ConcurrentHashMap<String, Record> records = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicBoolean loadStarted = new AtomicBoolean();
+    private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+
+    public EntitlementSnapshot(File directory, long maxAgeMillis) {
+        if (maxAgeMillis <= 0) {
+            throw new IllegalArgumentException("maxAgeMillis must be > 0");
+        }
+        this.file = new File(directory, FILE_NAME);
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    // Reads the file on a background thread. Lookups and writes made before it finishes wait for it.
+    public CompletableFuture<Void> loadAsync() {
+        if (!loadStarted.get()) {
+            new Web2WaveExecutors.NamedThreadFactory("web2wave-snapshot").newThread(this::load).start();
+        }
+        return loaded;
+    }
+
+    // Reads the file once; later calls wait for that read instead of repeating it.
+    void load() {
+        if (!loadStarted.compareAndSet(false, true)) {
+            loaded.join();
+            return;
+        }
+        try {
+            read();
+        } finally {
+            loaded.complete(null);
+        }
+    }
+
+    private void awaitLoad() {
+        if (!loaded.isDone()) load();
+    }
+
+    private void read() {
+        if (!file.exists()) return;
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String userID = in.readUTF();
+                byte kind = in.readByte();
+                long savedAt = in.readLong();
+                byte[] body = new byte[in.readInt()];
+                in.readFully(body);
+                if (now - savedAt <= maxAgeMillis) {
+                    records.put(key(userID, kind), new Record(userID, kind, savedAt, new String(body, StandardCharsets.UTF_8)));
+                }
+            }
+        } catch (EOFException e) {
+            // Truncated file: keep the records that were readable.
+        } catch (IOException e) {
+            System.err.println("Failed to read entitlement snapshot: " + e.getMessage());
+        }
+    }
+
+    // Returns the record only for the first lookup after load, which is what makes the
+    // snapshot a cold-start answer rather than a second cache layer.
+    Record takeFresh(String userID, byte kind) {
+        awaitLoad();
+        Record record = records.get(key(userID, kind));
+        if (record == null || System.currentTimeMillis() - record.savedAt > maxAgeMillis) {
+            return null;
+        }
+        return record.consumed.compareAndSet(false, true) ? record : null;
+    }
+
+    void put(String userID, byte kind, String body) {
+        awaitLoad();
+        Record record = new Record(userID, kind, System.currentTimeMillis(), body);
+        record.consumed.set(true);
+        records.put(key(userID, kind), record);
+        dirty.set(true);
+    }
+
+    void remove(String userID, byte kind) {
+        awaitLoad();
+        if (records.remove(key(userID, kind)) != null) dirty.set(true);
+    }
+
+    void removeUser(String userID) {
+        remove(userID, KIND_SUBSCRIPTIONS);
+        remove(userID, KIND_PROPERTIES);
+    }
+
+    void removeAll(byte kind) {
+        awaitLoad();
+        Iterator<Record> it = records.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().kind == kind) {
+                it.remove();
+                dirty.set(true);
+            }
+        }
+    }
+
+    void writeIfDirty() {
+        if (!dirty.compareAndSet(true, false)) return;
+        try {
+            write();
+        } catch (IOException e) {
+            dirty.set(true);
+            System.err.println("Failed to write entitlement snapshot: " + e.getMessage());
+        }
+    }
+
+    private synchronized void write() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        long now = System.currentTimeMillis();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            Record[] snapshot = records.values().toArray(new Record[0]);
+            int count = 0;
+            for (Record record : snapshot) {
+                if (now - record.savedAt <= maxAgeMillis) count++;
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            for (Record record : snapshot) {
+                if (now - record.savedAt > maxAgeMillis) continue;
+                byte[] body = record.body.getBytes(StandardCharsets.UTF_8);
+                out.writeUTF(record.userID);
+                out.writeByte(record.kind);
+                out.writeLong(record.savedAt);
+                out.writeInt(body.length);
+                out.write(body);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    void deleteFile() {
+        awaitLoad();
+        records.clear();
+        dirty.set(false);
+        synchronized (this) {
+            file.delete();
+        }
+    }
+
+    private static String key(String userID, byte kind) {
+        return kind + ":" + userID;
+    }
+
+    static final class Record {
+        final String userID;
+        final byte kind;
+        final long savedAt;
+        final String body;
+        final AtomicBoolean consumed = new AtomicBoolean();
+
+        Record(String userID, byte kind, long savedAt, String body) {
+            this.userID = userID;
+            this.kind = kind;
+            this.savedAt = savedAt;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.web2wave;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+public class HttpUrlConnectionTransport implements Web2WaveTransport {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 15_000;
+
+    // Leftover bytes beyond this are not worth reading just to keep the socket pooled.
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    public HttpUrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    public HttpUrlConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        if (connectTimeoutMillis < 0 || readTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeouts must be >= 0");
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Call newCall(Web2WaveRequest request) {
+        return new UrlConnectionCall(request);
+    }
+
+    private final class UrlConnectionCall implements Call {
+        private final Web2WaveRequest request;
+        private volatile HttpURLConnection connection;
+        private volatile boolean canceled;
+
+        UrlConnectionCall(Web2WaveRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public Web2WaveResponse execute() throws IOException {
+            if (canceled) throw new IOException("Canceled");
+            HttpURLConnection connection = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+            this.connection = connection;
+            if (canceled) {
+                connection.disconnect();
+                throw new IOException("Canceled");
+            }
+
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setRequestMethod(request.getMethod());
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            try {
+                byte[] body = request.getBody();
+                if (body != null) {
+                    connection.setDoOutput(true);
+                    connection.setFixedLengthStreamingMode(body.length);
+                }
+                // Connecting explicitly splits DNS + TCP/TLS setup from time to first byte.
+                long start = System.nanoTime();
+                connection.connect();
+                long connectNanos = System.nanoTime() - start;
+                if (body != null) {
+                    try (OutputStream os = connection.getOutputStream()) {
+                        os.write(body);
+                    }
+                }
+
+                int code = connection.getResponseCode();
+                long firstByteNanos = System.nanoTime() - start;
+                InputStream stream = code >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? connection.getErrorStream()
+                        : connection.getInputStream();
+                if (stream != null && "gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                    stream = new GZIPInputStream(stream);
+                }
+                Web2WaveResponse response = new Web2WaveResponse(code, headersOf(connection), new DrainingInputStream(stream));
+                response.setTimings(connectNanos, firstByteNanos);
+                return response;
+            } catch (IOException e) {
+                drain(connection.getErrorStream());
+                throw canceled ? new IOException("Canceled", e) : e;
+            }
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            HttpURLConnection connection = this.connection;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static Map<String, String> headersOf(HttpURLConnection connection) {
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : connection.getHeaderFields().entrySet()) {
+            List<String> values = entry.getValue();
+            if (entry.getKey() != null && values != null && !values.isEmpty()) {
+                headers.put(entry.getKey(), values.get(values.size() - 1));
+            }
+        }
+        return headers;
+    }
+
+    private static void drain(InputStream stream) {
+        if (stream == null) return;
+        try {
+            byte[] buffer = new byte[4096];
+            int total = 0;
+            int read;
+            while (total < MAX_DRAIN_BYTES && (read = stream.read(buffer)) != -1) {
+                total += read;
+            }
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Reads whatever the caller left unread on close so HttpURLConnection can return the
+    // socket to its keep-alive pool instead of tearing it down.
+    private static final class DrainingInputStream extends FilterInputStream {
+        private boolean closed;
+
+        DrainingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in != null ? super.read() : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in != null ? super.read(b, off, len) : -1;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            drain(in);
+        }
+    }
+}
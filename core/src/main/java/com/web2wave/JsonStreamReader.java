@@ -0,0 +1,403 @@
+package com.web2wave;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+final class JsonStreamReader implements Closeable {
+
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[2048];
+    private int pos;
+    private int limit;
+
+    private int[] stack = new int[16];
+    private int depth = 1;
+
+    private Token peeked;
+    private String peekedLiteral;
+    private final StringBuilder scratch = new StringBuilder();
+
+    // Set while readRawValue copies source text; fill() flushes the buffer into it before reuse.
+    private StringBuilder capture;
+    private int captureStart;
+
+    JsonStreamReader(Reader in) {
+        this.in = in;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    static JsonStreamReader of(InputStream in) {
+        return new JsonStreamReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    static JsonStreamReader of(String json) {
+        return new JsonStreamReader(new StringReader(json));
+    }
+
+    Token peek() throws IOException {
+        if (peeked != null) return peeked;
+        int scope = stack[depth - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') return peeked = Token.END_ARRAY;
+                return peekValue(c);
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') return peeked = Token.END_ARRAY;
+                if (c != ',') throw syntaxError("Expected ',' or ']'");
+                return peekValue(nextNonWhitespace());
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') return peeked = Token.END_OBJECT;
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') throw syntaxError("Expected ',' or '}'");
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') throw syntaxError("Expected name");
+                stack[depth - 1] = DANGLING_NAME;
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') throw syntaxError("Expected ':'");
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                return peekValue(nextNonWhitespace());
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                return peekValue(nextNonWhitespace());
+            default:
+                if (nextNonWhitespace() != -1) throw syntaxError("Trailing content");
+                return peeked = Token.END_DOCUMENT;
+        }
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    // Numbers and booleans are returned as their literal text, matching org.json's optString.
+    String nextString() throws IOException {
+        Token token = peek();
+        switch (token) {
+            case STRING:
+                peeked = null;
+                return readString();
+            case NUMBER:
+            case BOOLEAN:
+                peeked = null;
+                return peekedLiteral;
+            default:
+                throw syntaxError("Expected a string but was " + token);
+        }
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return "true".equals(peekedLiteral);
+    }
+
+    void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    void skipValue() throws IOException {
+        int nesting = 0;
+        do {
+            Token token = peek();
+            peeked = null;
+            switch (token) {
+                case BEGIN_OBJECT:
+                    push(EMPTY_OBJECT);
+                    nesting++;
+                    break;
+                case BEGIN_ARRAY:
+                    push(EMPTY_ARRAY);
+                    nesting++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    nesting--;
+                    break;
+                case NAME:
+                case STRING:
+                    skipString();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of document");
+                default:
+                    break;
+            }
+        } while (nesting > 0);
+    }
+
+    Object readValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT: {
+                Map<String, Object> map = new LinkedHashMap<>();
+                beginObject();
+                while (hasNext()) {
+                    String name = nextName();
+                    map.put(name, readValue());
+                }
+                endObject();
+                return map;
+            }
+            case BEGIN_ARRAY: {
+                List<Object> list = new ArrayList<>();
+                beginArray();
+                while (hasNext()) {
+                    list.add(readValue());
+                }
+                endArray();
+                return list;
+            }
+            case STRING:
+                return nextString();
+            case NUMBER:
+                return parseNumber(nextString());
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return null;
+            default:
+                throw syntaxError("Unexpected " + peek());
+        }
+    }
+
+    // Objects and arrays come back as JsonView wrappers over their source text, so nested content
+    // is validated here but only materialized when someone reads it.
+    Object readLazyValue() throws IOException {
+        Token token = peek();
+        if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY) {
+            return JsonView.of(readRawValue());
+        }
+        return readValue();
+    }
+
+    String readRawValue() throws IOException {
+        Token token = peek();
+        if (token != Token.BEGIN_OBJECT && token != Token.BEGIN_ARRAY) {
+            throw syntaxError("Expected an object or array but was " + token);
+        }
+        // peek() has consumed the opening bracket, which is still in the buffer.
+        capture = new StringBuilder();
+        captureStart = pos - 1;
+        try {
+            skipValue();
+            capture.append(buffer, captureStart, pos - captureStart);
+            return capture.toString();
+        } finally {
+            capture = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    static Number parseNumber(String literal) {
+        boolean integral = literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0;
+        if (integral) {
+            try {
+                long value = Long.parseLong(literal);
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return (int) value;
+                }
+                return value;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return Double.parseDouble(literal);
+    }
+
+    private Token peekValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                return peeked = Token.BEGIN_OBJECT;
+            case '[':
+                return peeked = Token.BEGIN_ARRAY;
+            case '"':
+                return peeked = Token.STRING;
+            case -1:
+                throw syntaxError("Unexpected end of document");
+            default:
+                pos--;
+                peekedLiteral = readLiteral();
+                if ("true".equals(peekedLiteral) || "false".equals(peekedLiteral)) return peeked = Token.BOOLEAN;
+                if ("null".equals(peekedLiteral)) return peeked = Token.NULL;
+                char first = peekedLiteral.isEmpty() ? 0 : peekedLiteral.charAt(0);
+                if (first == '-' || (first >= '0' && first <= '9')) return peeked = Token.NUMBER;
+                throw syntaxError("Unexpected value '" + peekedLiteral + "'");
+        }
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            int[] grown = new int[depth * 2];
+            System.arraycopy(stack, 0, grown, 0, depth);
+            stack = grown;
+        }
+        stack[depth++] = scope;
+    }
+
+    private boolean fill() throws IOException {
+        if (capture != null) {
+            capture.append(buffer, captureStart, limit - captureStart);
+            captureStart = 0;
+        }
+        pos = 0;
+        limit = in.read(buffer, 0, buffer.length);
+        if (limit <= 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buffer[pos++];
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+        }
+    }
+
+    private String readLiteral() throws IOException {
+        scratch.setLength(0);
+        while (true) {
+            if (pos == limit && !fill()) break;
+            char c = buffer[pos];
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\n' || c == '\r' || c == '\t') break;
+            scratch.append(c);
+            pos++;
+        }
+        return scratch.toString();
+    }
+
+    private String readString() throws IOException {
+        scratch.setLength(0);
+        while (true) {
+            if (pos == limit && !fill()) throw syntaxError("Unterminated string");
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"') {
+                    scratch.append(buffer, start, pos - 1 - start);
+                    return scratch.toString();
+                }
+                if (c == '\\') {
+                    scratch.append(buffer, start, pos - 1 - start);
+                    scratch.append(readEscape());
+                    start = pos;
+                }
+            }
+            scratch.append(buffer, start, pos - start);
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == -1) throw syntaxError("Unterminated string");
+            if (c == '"') return;
+            if (c == '\\') readEscape();
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'u': {
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) throw syntaxError("Invalid unicode escape");
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            }
+            case -1:
+                throw syntaxError("Unterminated escape");
+            default:
+                return (char) c;
+        }
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+}
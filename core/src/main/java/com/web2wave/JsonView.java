@@ -0,0 +1,296 @@
+package com.web2wave;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+// Read-only Map and List views over JSON text that JsonStreamReader has already validated.
+// A view indexes its own level on first access; child values are converted when read and then
+// cached. Nested views share the source string and only hold offsets into it.
+final class JsonView {
+
+    private static final Object UNSET = new Object();
+
+    private JsonView() {
+    }
+
+    static Object of(String json) {
+        return view(json, skipWhitespace(json, 0));
+    }
+
+    private static Object view(String source, int start) {
+        return source.charAt(start) == '{' ? new ObjectView(source, start) : new ArrayView(source, start);
+    }
+
+    // Index of one level; published through a volatile field so it is seen fully built. The
+    // values array is filled racily, which is harmless because every value is immutable or
+    // safely published through final fields.
+    private static final class Index {
+        final String[] keys;
+        final int[] starts;
+        final Object[] values;
+        final Map<String, Integer> slots;
+
+        Index(String[] keys, int[] starts, Map<String, Integer> slots) {
+            this.keys = keys;
+            this.starts = starts;
+            this.values = new Object[starts.length];
+            Arrays.fill(values, UNSET);
+            this.slots = slots;
+        }
+
+        Object value(String source, int slot) {
+            Object value = values[slot];
+            if (value == UNSET) {
+                value = convert(source, starts[slot]);
+                values[slot] = value;
+            }
+            return value;
+        }
+    }
+
+    static final class ObjectView extends AbstractMap<String, Object> {
+        private final String source;
+        private final int start;
+        private volatile Index index;
+
+        ObjectView(String source, int start) {
+            this.source = source;
+            this.start = start;
+        }
+
+        private Index index() {
+            Index current = index;
+            if (current != null) return current;
+
+            List<String> keys = new ArrayList<>();
+            List<Integer> starts = new ArrayList<>();
+            Map<String, Integer> slots = new HashMap<>();
+            int i = skipWhitespace(source, start + 1);
+            while (source.charAt(i) != '}') {
+                int keyEnd = skipString(source, i + 1);
+                String key = unescape(source, i + 1, keyEnd - 1);
+                i = skipWhitespace(source, keyEnd) + 1;
+                int valueStart = skipWhitespace(source, i);
+                Integer existing = slots.get(key);
+                if (existing != null) {
+                    // Duplicate names: the last one wins, as with a map built by put().
+                    starts.set(existing, valueStart);
+                } else {
+                    slots.put(key, keys.size());
+                    keys.add(key);
+                    starts.add(valueStart);
+                }
+                i = skipWhitespace(source, skipValue(source, valueStart));
+                if (source.charAt(i) == ',') i = skipWhitespace(source, i + 1);
+            }
+            int[] offsets = new int[starts.size()];
+            for (int k = 0; k < offsets.length; k++) offsets[k] = starts.get(k);
+            current = new Index(keys.toArray(new String[0]), offsets, slots);
+            index = current;
+            return current;
+        }
+
+        @Override
+        public Object get(Object key) {
+            Index index = index();
+            Integer slot = index.slots.get(key);
+            return slot != null ? index.value(source, slot) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return index().slots.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return index().keys.length;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            Index index = index();
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int slot;
+
+                        @Override
+                        public boolean hasNext() {
+                            return slot < index.keys.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            int current = slot++;
+                            return new SimpleImmutableEntry<>(index.keys[current], index.value(source, current));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return index.keys.length;
+                }
+            };
+        }
+    }
+
+    static final class ArrayView extends AbstractList<Object> implements RandomAccess {
+        private final String source;
+        private final int start;
+        private volatile Index index;
+
+        ArrayView(String source, int start) {
+            this.source = source;
+            this.start = start;
+        }
+
+        private Index index() {
+            Index current = index;
+            if (current != null) return current;
+
+            List<Integer> starts = new ArrayList<>();
+            int i = skipWhitespace(source, start + 1);
+            while (source.charAt(i) != ']') {
+                starts.add(i);
+                i = skipWhitespace(source, skipValue(source, i));
+                if (source.charAt(i) == ',') i = skipWhitespace(source, i + 1);
+            }
+            int[] offsets = new int[starts.size()];
+            for (int k = 0; k < offsets.length; k++) offsets[k] = starts.get(k);
+            current = new Index(new String[0], offsets, null);
+            index = current;
+            return current;
+        }
+
+        @Override
+        public Object get(int position) {
+            Index index = index();
+            if (position < 0 || position >= index.starts.length) {
+                throw new IndexOutOfBoundsException("Index " + position + ", size " + index.starts.length);
+            }
+            return index.value(source, position);
+        }
+
+        @Override
+        public int size() {
+            return index().starts.length;
+        }
+    }
+
+    private static Object convert(String source, int start) {
+        char c = source.charAt(start);
+        switch (c) {
+            case '{':
+            case '[':
+                return view(source, start);
+            case '"':
+                return unescape(source, start + 1, skipString(source, start + 1) - 1);
+            default:
+                String literal = source.substring(start, skipValue(source, start));
+                if ("true".equals(literal)) return Boolean.TRUE;
+                if ("false".equals(literal)) return Boolean.FALSE;
+                if ("null".equals(literal)) return null;
+                return JsonStreamReader.parseNumber(literal);
+        }
+    }
+
+    // Returns the index just past the value starting at i.
+    private static int skipValue(String source, int i) {
+        char c = source.charAt(i);
+        if (c == '"') return skipString(source, i + 1);
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            while (true) {
+                c = source.charAt(i++);
+                if (c == '"') {
+                    i = skipString(source, i);
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    return i;
+                }
+            }
+        }
+        while (i < source.length()) {
+            c = source.charAt(i);
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') break;
+            i++;
+        }
+        return i;
+    }
+
+    // i is just past the opening quote; returns the index just past the closing quote.
+    private static int skipString(String source, int i) {
+        while (true) {
+            char c = source.charAt(i++);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i;
+            }
+        }
+    }
+
+    private static int skipWhitespace(String source, int i) {
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') break;
+            i++;
+        }
+        return i;
+    }
+
+    private static String unescape(String source, int start, int end) {
+        int escape = source.indexOf('\\', start);
+        if (escape < 0 || escape >= end) return source.substring(start, end);
+
+        StringBuilder out = new StringBuilder(end - start);
+        int i = start;
+        while (i < end) {
+            char c = source.charAt(i++);
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            c = source.charAt(i++);
+            switch (c) {
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case 'u':
+                    out.append((char) Integer.parseInt(source.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package com.web2wave;
+
+public final class LatencySnapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sumMicros;
+    private final long maxMicros;
+
+    LatencySnapshot(long[] counts, long count, long sumMicros, long maxMicros) {
+        this.counts = counts;
+        this.count = count;
+        this.sumMicros = sumMicros;
+        this.maxMicros = maxMicros;
+    }
+
+    static LatencySnapshot empty() {
+        return new LatencySnapshot(new long[LatencyHistogram.BUCKET_COUNT], 0, 0, 0);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public double getMeanMicros() {
+        return count == 0 ? 0 : (double) sumMicros / count;
+    }
+
+    // Upper bound of the bucket holding the requested percentile, capped at the observed max.
+    public long getPercentileMicros(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in [0, 100]");
+        }
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.upperBoundOf(i), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySnapshot{count=" + count + " p50=" + getPercentileMicros(50) + "us p99="
+                + getPercentileMicros(99) + "us max=" + maxMicros + "us}";
+    }
+}
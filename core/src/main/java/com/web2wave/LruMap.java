@@ -0,0 +1,127 @@
+package com.web2wave;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+// Bounded map that evicts approximately the least recently used entries. Reads take no lock and
+// leave the map untouched: they only stamp the node with the current clock, which every write
+// advances, so entries read between two writes count as equally recent. When a write pushes the
+// map past its bound, one writer evicts the oldest-stamped entries in a batch of about 1/16 of the
+// capacity, which keeps the cost of finding them amortized across the writes that follow.
+final class LruMap<K, V> {
+
+    private final ConcurrentHashMap<K, Node<V>> map = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final Object evictionLock = new Object();
+    private final int maxEntries;
+    private final int evictionSlack;
+
+    LruMap(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be > 0");
+        }
+        this.maxEntries = maxEntries;
+        this.evictionSlack = maxEntries / 16;
+    }
+
+    V get(K key) {
+        Node<V> node = map.get(key);
+        if (node == null) return null;
+        long now = clock.get();
+        if (node.accessed != now) node.accessed = now;
+        return node.value;
+    }
+
+    void put(K key, V value) {
+        map.put(key, new Node<>(value, clock.getAndIncrement()));
+        evictIfFull();
+    }
+
+    V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping) {
+        Node<V> node = map.compute(key, (k, current) -> {
+            V value = remapping.apply(k, current != null ? current.value : null);
+            return value != null ? new Node<>(value, clock.getAndIncrement()) : null;
+        });
+        evictIfFull();
+        return node != null ? node.value : null;
+    }
+
+    void remove(K key) {
+        map.remove(key);
+    }
+
+    boolean remove(K key, V value) {
+        boolean[] removed = new boolean[1];
+        map.computeIfPresent(key, (k, current) -> {
+            if (!current.value.equals(value)) return current;
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    // Copy of the entries, taken without touching their recency.
+    List<Map.Entry<K, V>> entries() {
+        List<Map.Entry<K, V>> copy = new ArrayList<>(map.size());
+        for (Map.Entry<K, Node<V>> entry : map.entrySet()) {
+            copy.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().value));
+        }
+        return copy;
+    }
+
+    void clear() {
+        map.clear();
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    private void evictIfFull() {
+        if (map.size() <= maxEntries) return;
+        synchronized (evictionLock) {
+            int excess = map.size() - maxEntries;
+            if (excess <= 0) return;
+            int count = excess + evictionSlack;
+            // Max-heap on the stamp holding the count oldest nodes seen so far. Stamps are copied
+            // because reads keep moving them while the scan runs.
+            PriorityQueue<Candidate<K, V>> oldest = new PriorityQueue<>(count + 1,
+                    (a, b) -> Long.compare(b.accessed, a.accessed));
+            for (Map.Entry<K, Node<V>> entry : map.entrySet()) {
+                oldest.add(new Candidate<>(entry.getKey(), entry.getValue()));
+                if (oldest.size() > count) oldest.poll();
+            }
+            for (Candidate<K, V> candidate : oldest) {
+                map.remove(candidate.key, candidate.node);
+            }
+        }
+    }
+
+    private static final class Candidate<K, V> {
+        final K key;
+        final Node<V> node;
+        final long accessed;
+
+        Candidate(K key, Node<V> node) {
+            this.key = key;
+            this.node = node;
+            this.accessed = node.accessed;
+        }
+    }
+
+    private static final class Node<V> {
+        final V value;
+        volatile long accessed;
+
+        Node(V value, long accessed) {
+            this.value = value;
+            this.accessed = accessed;
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package com.web2wave;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+class MutationOutbox {
+
+    enum Outcome {
+        ACCEPTED, REJECTED, RETRY
+    }
+
+    interface Sender {
+        Outcome send(Entry entry);
+    }
+
+    static final String OP_PROPERTY = "property";
+    static final String OP_CANCEL = "cancel";
+    static final String OP_REFUND = "refund";
+    static final String OP_CHARGE = "charge";
+
+    private static final String FILE_NAME = "web2wave_outbox.log";
+    private static final byte RECORD_ENQUEUE = 1;
+    private static final byte RECORD_ACK = 2;
+    // Attempts made so far, so maxAttempts holds across restarts.
+    private static final byte RECORD_ATTEMPTS = 3;
+    private static final long SYNC_DELAY_MILLIS = 20;
+    private static final long MIN_BACKOFF_MILLIS = 1_000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60_000;
+    private static final int COMPACT_THRESHOLD = 64;
+
+    private final File file;
+    private final Sender sender;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private final int maxAttempts;
+
+    private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<>();
+    private DataOutputStream out;
+    private FileOutputStream fileOut;
+    private boolean unsynced;
+    private boolean syncScheduled;
+    // Records the next rewrite drops: acks and superseded attempt counts.
+    private int staleRecords;
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean waitingForRetry;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long lastReplayLatencyMillis;
+
+    MutationOutbox(File directory, Sender sender, Executor executor, ScheduledExecutorService scheduler, int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be > 0");
+        }
+        this.file = new File(directory, FILE_NAME);
+        this.sender = sender;
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.maxAttempts = maxAttempts;
+    }
+
+    synchronized void open() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        load();
+        // Rewrite on open so a torn tail from a crash never sits in front of new appends.
+        rewrite();
+    }
+
+    CompletableFuture<Result<Boolean>> enqueue(String operation, String subject, String method, String url,
+                                               String body, String successKey) throws IOException {
+        Entry entry = new Entry(UUID.randomUUID().toString(), System.currentTimeMillis(),
+                operation, subject, method, url, body, successKey);
+        entry.future = new CompletableFuture<>();
+        synchronized (this) {
+            writeEnqueue(out, entry);
+            pending.put(entry.id, entry);
+            unsynced = true;
+            scheduleSync();
+        }
+        drain();
+        return entry.future;
+    }
+
+    // Logs the mutation and sends it on the calling thread. One the server could not be reached
+    // for stays queued and is replayed like an enqueued one; the result then reports it as queued.
+    Result<Boolean> send(String operation, String subject, String method, String url,
+                         String body, String successKey) throws IOException {
+        Entry entry = new Entry(UUID.randomUUID().toString(), System.currentTimeMillis(),
+                operation, subject, method, url, body, successKey);
+        entry.future = new CompletableFuture<>();
+        // Held until the send below is done, so the drain loop never sends the entry concurrently.
+        entry.inFlight = true;
+        synchronized (this) {
+            writeEnqueue(out, entry);
+            pending.put(entry.id, entry);
+            unsynced = true;
+            syncNow();
+        }
+
+        Outcome outcome;
+        try {
+            outcome = sender.send(entry);
+        } catch (Exception e) {
+            outcome = Outcome.RETRY;
+        }
+        if (outcome == Outcome.RETRY && ++entry.attempts < maxAttempts) {
+            recordAttempts(entry);
+            synchronized (this) {
+                entry.inFlight = false;
+            }
+            scheduleRetry(backoffMillis(entry.attempts));
+            return Result.failure(new Exception("Queued for retry: "
+                    + (entry.lastError != null ? entry.lastError : "request failed")));
+        }
+        complete(entry, outcome);
+        if (getDepth() > 0) drain();
+        return entry.future.join();
+    }
+
+    void drain() {
+        if (!draining.compareAndSet(false, true)) return;
+        waitingForRetry = false;
+        try {
+            executor.execute(this::drainLoop);
+        } catch (RejectedExecutionException e) {
+            draining.set(false);
+            scheduleRetry(MIN_BACKOFF_MILLIS);
+        }
+    }
+
+    void onNetworkAvailable() {
+        if (waitingForRetry) drain();
+    }
+
+    synchronized int getDepth() {
+        return pending.size();
+    }
+
+    long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    long getLastReplayLatencyMillis() {
+        return lastReplayLatencyMillis;
+    }
+
+    synchronized void close() {
+        try {
+            if (out != null) {
+                syncNow();
+                out.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to close outbox: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    private void drainLoop() {
+        long retryDelay = -1;
+        try {
+            while (true) {
+                Entry head;
+                synchronized (this) {
+                    if (out == null || pending.isEmpty()) break;
+                    head = pending.values().iterator().next();
+                    // A blocking send owns it; that call drains again once it is done.
+                    if (head.inFlight) break;
+                    syncNow();
+                }
+
+                Outcome outcome;
+                try {
+                    outcome = sender.send(head);
+                } catch (Exception e) {
+                    outcome = Outcome.RETRY;
+                }
+
+                if (outcome == Outcome.RETRY && ++head.attempts < maxAttempts) {
+                    recordAttempts(head);
+                    retryDelay = backoffMillis(head.attempts);
+                    break;
+                }
+                complete(head, outcome);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Outbox write failed: " + e.getMessage());
+            retryDelay = MAX_BACKOFF_MILLIS;
+        } finally {
+            draining.set(false);
+        }
+
+        if (retryDelay >= 0) {
+            scheduleRetry(retryDelay);
+        } else if (getDepth() > 0) {
+            drain();
+        }
+    }
+
+    private static long backoffMillis(int attempts) {
+        return Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(attempts - 1, 20));
+    }
+
+    private synchronized void recordAttempts(Entry entry) throws IOException {
+        if (out == null) return;
+        writeAttempts(out, entry);
+        unsynced = true;
+        staleRecords++;
+        compactOrScheduleSync();
+    }
+
+    private void complete(Entry entry, Outcome outcome) throws IOException {
+        synchronized (this) {
+            pending.remove(entry.id);
+            // After close() the ack is not logged; the entry is replayed on the next open and the
+            // Idempotency-Key keeps the server from applying it twice.
+            if (out != null) {
+                out.writeByte(RECORD_ACK);
+                out.writeUTF(entry.id);
+                unsynced = true;
+                staleRecords++;
+                compactOrScheduleSync();
+            }
+        }
+
+        if (outcome == Outcome.ACCEPTED) {
+            accepted.incrementAndGet();
+            lastReplayLatencyMillis = System.currentTimeMillis() - entry.createdAt;
+        } else {
+            dropped.incrementAndGet();
+        }
+        if (entry.future != null) {
+            entry.future.complete(outcome == Outcome.ACCEPTED
+                    ? Result.success(true)
+                    : Result.failure(new Exception(entry.lastError != null ? entry.lastError : "Mutation was not accepted")));
+        }
+    }
+
+    private void compactOrScheduleSync() throws IOException {
+        if (staleRecords >= COMPACT_THRESHOLD && staleRecords > pending.size()) {
+            rewrite();
+        } else {
+            scheduleSync();
+        }
+    }
+
+    private void scheduleRetry(long delayMillis) {
+        waitingForRetry = true;
+        scheduler.schedule(this::drain, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleSync() {
+        if (syncScheduled) return;
+        syncScheduled = true;
+        scheduler.schedule(() -> {
+            synchronized (MutationOutbox.this) {
+                syncScheduled = false;
+                try {
+                    syncNow();
+                } catch (IOException e) {
+                    System.err.println("Outbox sync failed: " + e.getMessage());
+                }
+            }
+        }, SYNC_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void syncNow() throws IOException {
+        if (!unsynced || out == null) return;
+        out.flush();
+        fileOut.getFD().sync();
+        unsynced = false;
+    }
+
+    private void load() throws IOException {
+        pending.clear();
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (type == RECORD_ENQUEUE) {
+                    Entry entry = readEnqueue(in);
+                    pending.put(entry.id, entry);
+                } else if (type == RECORD_ACK) {
+                    pending.remove(in.readUTF());
+                } else if (type == RECORD_ATTEMPTS) {
+                    Entry entry = pending.get(in.readUTF());
+                    int attempts = in.readInt();
+                    if (entry != null) entry.attempts = attempts;
+                } else {
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            // Torn final record from a crash mid-append; everything before it is intact.
+        }
+    }
+
+    private void rewrite() throws IOException {
+        if (out != null) out.close();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(fos));
+            for (Entry entry : pending.values()) {
+                writeEnqueue(tmpOut, entry);
+                if (entry.attempts > 0) writeAttempts(tmpOut, entry);
+            }
+            tmpOut.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+        fileOut = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        unsynced = false;
+        staleRecords = 0;
+    }
+
+    private static void writeEnqueue(DataOutputStream out, Entry entry) throws IOException {
+        if (out == null) throw new IOException("Outbox is closed");
+        out.writeByte(RECORD_ENQUEUE);
+        out.writeUTF(entry.id);
+        out.writeLong(entry.createdAt);
+        out.writeUTF(entry.operation);
+        out.writeUTF(entry.subject != null ? entry.subject : "");
+        out.writeUTF(entry.method);
+        out.writeUTF(entry.url);
+        byte[] body = entry.body != null ? entry.body.getBytes("UTF-8") : new byte[0];
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeUTF(entry.successKey);
+    }
+
+    private static void writeAttempts(DataOutputStream out, Entry entry) throws IOException {
+        out.writeByte(RECORD_ATTEMPTS);
+        out.writeUTF(entry.id);
+        out.writeInt(entry.attempts);
+    }
+
+    private static Entry readEnqueue(DataInputStream in) throws IOException {
+        String id = in.readUTF();
+        long createdAt = in.readLong();
+        String operation = in.readUTF();
+        String subject = in.readUTF();
+        String method = in.readUTF();
+        String url = in.readUTF();
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        String successKey = in.readUTF();
+        return new Entry(id, createdAt, operation, subject.isEmpty() ? null : subject, method, url,
+                body.length > 0 ? new String(body, "UTF-8") : null, successKey);
+    }
+
+    static final class Entry {
+        final String id;
+        final long createdAt;
+        final String operation;
+        final String subject;
+        final String method;
+        final String url;
+        final String body;
+        final String successKey;
+        int attempts;
+        boolean inFlight;
+        volatile String lastError;
+        CompletableFuture<Result<Boolean>> future;
+
+        Entry(String id, long createdAt, String operation, String subject, String method, String url,
+              String body, String successKey) {
+            this.id = id;
+            this.createdAt = createdAt;
+            this.operation = operation;
+            this.subject = subject;
+            this.method = method;
+            this.url = url;
+            this.body = body;
+            this.successKey = successKey;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.web2wave;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-user property lists, filled by reads and patched by successful writes so a read right after
+// a write sees it without a round trip. A user known only from writes has a partial entry that
+// answers single-key lookups for the keys written; a full read still goes to the server.
+class PropertyStore {
+
+    private final LruMap<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong();
+    private final long ttlMillis;
+
+    PropertyStore(long ttlMillis, int maxEntries) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis must be >= 0");
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be > 0");
+        }
+        this.ttlMillis = ttlMillis;
+        this.entries = new LruMap<>(maxEntries);
+    }
+
+    // Returns the entry if it can answer the lookup: any complete entry, or one holding the
+    // property when a single property is asked for (property != null).
+    Entry get(String userID, String property) {
+        Entry entry = entries.get(userID);
+        if (entry == null || !(entry.complete || (property != null && entry.value.contains(property)))) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    long generation() {
+        return generation.get();
+    }
+
+    void put(String userID, UserProperties value, long storedAt) {
+        entries.put(userID, new Entry(value, true, storedAt));
+    }
+
+    // Drops a server read that started before a local write or invalidation; storing it would
+    // undo the write until the next refresh.
+    boolean putIfUnchanged(String userID, UserProperties value, long expectedGeneration) {
+        if (generation.get() != expectedGeneration) {
+            return false;
+        }
+        put(userID, value, System.currentTimeMillis());
+        return true;
+    }
+
+    // Write-through after the server accepted the values.
+    void apply(String userID, Map<String, String> written) {
+        generation.incrementAndGet();
+        entries.compute(userID, (key, current) -> {
+            Map<String, String> values = current != null ? new HashMap<>(current.value.asMap()) : new HashMap<>();
+            values.putAll(written);
+            return current != null
+                    ? new Entry(new UserProperties(values), current.complete, current.storedAt)
+                    : new Entry(new UserProperties(values), false, System.currentTimeMillis());
+        });
+    }
+
+    void invalidate(String userID) {
+        generation.incrementAndGet();
+        entries.remove(userID);
+    }
+
+    void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.storedAt >= ttlMillis;
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    static final class Entry {
+        final UserProperties value;
+        final boolean complete;
+        final long storedAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(UserProperties value, boolean complete, long storedAt) {
+            this.value = value;
+            this.complete = complete;
+            this.storedAt = storedAt;
+        }
+
+        boolean beginRefresh() {
+            return refreshing.compareAndSet(false, true);
+        }
+
+        void endRefresh() {
+            refreshing.set(false);
+        }
+    }
+}
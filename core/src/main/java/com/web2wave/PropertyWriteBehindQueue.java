@@ -0,0 +1,141 @@
+package com.web2wave;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class PropertyWriteBehindQueue {
+
+    interface Sink {
+        Result<Boolean> write(String userID, Map<String, String> properties);
+    }
+
+    private final Sink sink;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private final long delayMillis;
+    private final int maxPending;
+
+    private final Object lock = new Object();
+    private Map<String, Map<String, Pending>> pending = new LinkedHashMap<>();
+    private int pendingCount;
+    private ScheduledFuture<?> scheduledFlush;
+    private final AtomicLong merged = new AtomicLong();
+
+    PropertyWriteBehindQueue(Sink sink, Executor executor, ScheduledExecutorService scheduler,
+                             long delayMillis, int maxPending) {
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("delayMillis must be >= 0");
+        }
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending must be > 0");
+        }
+        this.sink = sink;
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.delayMillis = delayMillis;
+        this.maxPending = maxPending;
+    }
+
+    CompletableFuture<Result<Boolean>> enqueue(String userID, String property, String value) {
+        CompletableFuture<Result<Boolean>> future = new CompletableFuture<>();
+        boolean flushNow;
+        synchronized (lock) {
+            Map<String, Pending> userPending = pending.get(userID);
+            if (userPending == null) {
+                userPending = new LinkedHashMap<>();
+                pending.put(userID, userPending);
+            }
+            Pending entry = userPending.get(property);
+            if (entry == null) {
+                entry = new Pending();
+                userPending.put(property, entry);
+                pendingCount++;
+            } else {
+                merged.incrementAndGet();
+            }
+            entry.value = value;
+            entry.waiters.add(future);
+
+            flushNow = pendingCount >= maxPending;
+            if (!flushNow && scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) flush();
+        return future;
+    }
+
+    CompletableFuture<Void> flush() {
+        Map<String, Map<String, Pending>> batch;
+        synchronized (lock) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (pending.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+            pendingCount = 0;
+        }
+
+        List<CompletableFuture<Void>> writes = new ArrayList<>(batch.size());
+        for (Map.Entry<String, Map<String, Pending>> user : batch.entrySet()) {
+            writes.add(write(user.getKey(), user.getValue()));
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]));
+    }
+
+    long getMergedCount() {
+        return merged.get();
+    }
+
+    int getPendingCount() {
+        synchronized (lock) {
+            return pendingCount;
+        }
+    }
+
+    private CompletableFuture<Void> write(String userID, Map<String, Pending> entries) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Pending> entry : entries.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().value);
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Runnable task = () -> {
+            Result<Boolean> result;
+            try {
+                result = sink.write(userID, values);
+            } catch (Exception e) {
+                result = Result.failure(e);
+            }
+            for (Pending entry : entries.values()) {
+                for (CompletableFuture<Result<Boolean>> waiter : entry.waiters) {
+                    waiter.complete(result);
+                }
+            }
+            done.complete(null);
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+        return done;
+    }
+
+    private static final class Pending {
+        String value;
+        final List<CompletableFuture<Result<Boolean>>> waiters = new ArrayList<>(1);
+    }
+}
@@ -0,0 +1,38 @@
+package com.web2wave;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hands out evenly spaced start slots; callers sleep until their slot instead of queueing on a lock.
+class RateLimiter {
+
+    private final long intervalNanos;
+    private final AtomicLong nextSlot;
+
+    RateLimiter(double permitsPerSecond) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("permitsPerSecond must be > 0");
+        }
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.nextSlot = new AtomicLong(System.nanoTime());
+    }
+
+    void acquire() throws InterruptedIOException {
+        long now = System.nanoTime();
+        long slot;
+        while (true) {
+            long next = nextSlot.get();
+            slot = Math.max(next, now);
+            if (nextSlot.compareAndSet(next, slot + intervalNanos)) break;
+        }
+        long waitNanos = slot - now;
+        if (waitNanos <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rate limited");
+        }
+    }
+}
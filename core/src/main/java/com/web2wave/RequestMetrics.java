@@ -0,0 +1,75 @@
+package com.web2wave;
+
+public final class RequestMetrics {
+    private final Web2WaveEndpoint endpoint;
+    private final String method;
+    private final int statusCode;
+    private final long connectNanos;
+    private final long timeToFirstByteNanos;
+    private final long totalNanos;
+    private final long responseBytes;
+    private final long parseNanos;
+    private final Exception error;
+
+    RequestMetrics(Web2WaveEndpoint endpoint, String method, int statusCode, long connectNanos,
+                   long timeToFirstByteNanos, long totalNanos, long responseBytes, long parseNanos,
+                   Exception error) {
+        this.endpoint = endpoint;
+        this.method = method;
+        this.statusCode = statusCode;
+        this.connectNanos = connectNanos;
+        this.timeToFirstByteNanos = timeToFirstByteNanos;
+        this.totalNanos = totalNanos;
+        this.responseBytes = responseBytes;
+        this.parseNanos = parseNanos;
+        this.error = error;
+    }
+
+    public Web2WaveEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    // -1 when no HTTP response was received.
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    // DNS lookup plus TCP/TLS connect; -1 when the transport doesn't report it.
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    // -1 when the transport doesn't report it.
+    public long getTimeToFirstByteNanos() {
+        return timeToFirstByteNanos;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    // Responses are parsed while streaming, so this includes reading the body.
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestMetrics{" + endpoint + " " + method + " status=" + statusCode
+                + " connect=" + connectNanos / 1_000 + "us ttfb=" + timeToFirstByteNanos / 1_000
+                + "us total=" + totalNanos / 1_000 + "us bytes=" + responseBytes
+                + " parse=" + parseNanos / 1_000 + "us}";
+    }
+}
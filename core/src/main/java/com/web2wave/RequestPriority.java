@@ -0,0 +1,5 @@
+package com.web2wave;
+
+public enum RequestPriority {
+    INTERACTIVE, NORMAL, BACKGROUND
+}
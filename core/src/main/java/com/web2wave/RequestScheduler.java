@@ -0,0 +1,158 @@
+package com.web2wave;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Splits SDK work into priority lanes over one executor. Each lane caps how many of its tasks
+// run at once and queues the rest in its own bounded queue, so a backlog of background writes
+// never holds a thread an interactive lookup could use. Keyed tasks coalesce with a queued task
+// of the same key; unkeyed tasks are rejected when the lane's queue is full.
+final class RequestScheduler {
+
+    static final int[] DEFAULT_MAX_CONCURRENCY = {2, 2, 2};
+    static final int[] DEFAULT_QUEUE_CAPACITY = {64, 128, 256};
+
+    private final Executor executor;
+    private final Lane[] lanes;
+
+    RequestScheduler(Executor executor, int[] maxConcurrency, int[] queueCapacity) {
+        this.executor = executor;
+        RequestPriority[] priorities = RequestPriority.values();
+        lanes = new Lane[priorities.length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(priorities[i], maxConcurrency[i], queueCapacity[i]);
+        }
+    }
+
+    // Threads the executor needs so that no lane ever waits on another lane's tasks.
+    static int threadsNeeded(int[] maxConcurrency) {
+        int total = 0;
+        for (int concurrency : maxConcurrency) total += concurrency;
+        return total;
+    }
+
+    void execute(RequestPriority priority, Runnable task) {
+        lanes[priority.ordinal()].submit(null, task);
+    }
+
+    // Returns false when an identical task was already queued and this one was dropped.
+    boolean execute(RequestPriority priority, String key, Runnable task) {
+        return lanes[priority.ordinal()].submit(key, task);
+    }
+
+    LatencySnapshot queueWaitSnapshot(RequestPriority priority) {
+        return lanes[priority.ordinal()].queueWait.snapshot();
+    }
+
+    long rejectedCount(RequestPriority priority) {
+        return lanes[priority.ordinal()].rejected.get();
+    }
+
+    long coalescedCount(RequestPriority priority) {
+        return lanes[priority.ordinal()].coalesced.get();
+    }
+
+    int queueDepth(RequestPriority priority) {
+        Lane lane = lanes[priority.ordinal()];
+        synchronized (lane) {
+            return lane.queue.size();
+        }
+    }
+
+    private final class Lane {
+        final RequestPriority priority;
+        final int maxConcurrency;
+        final int capacity;
+        final ArrayDeque<Task> queue = new ArrayDeque<>();
+        final Map<String, Task> queuedByKey = new HashMap<>();
+        final LatencyHistogram queueWait = new LatencyHistogram();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong coalesced = new AtomicLong();
+        int running;
+
+        Lane(RequestPriority priority, int maxConcurrency, int capacity) {
+            this.priority = priority;
+            this.maxConcurrency = maxConcurrency;
+            this.capacity = capacity;
+        }
+
+        boolean submit(String key, Runnable runnable) {
+            Task task = new Task(key, runnable, System.nanoTime());
+            synchronized (this) {
+                // Only queued tasks absorb duplicates: one that is already running may have read
+                // state from before the caller's change.
+                if (key != null && queuedByKey.containsKey(key)) {
+                    coalesced.incrementAndGet();
+                    return false;
+                }
+                if (running >= maxConcurrency) {
+                    if (queue.size() >= capacity) {
+                        rejected.incrementAndGet();
+                        throw new RejectedExecutionException(priority + " lane is full (" + capacity + " queued)");
+                    }
+                    queue.addLast(task);
+                    if (key != null) queuedByKey.put(key, task);
+                    return true;
+                }
+                running++;
+            }
+            try {
+                executor.execute(() -> drain(task));
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    running--;
+                }
+                rejected.incrementAndGet();
+                throw e;
+            }
+            return true;
+        }
+
+        // Runs the given task, then keeps taking from the lane's queue on the same thread until it
+        // is empty, which is what bounds the lane to maxConcurrency threads.
+        private void drain(Task task) {
+            boolean finished = false;
+            try {
+                while (task != null) {
+                    queueWait.recordNanos(System.nanoTime() - task.enqueuedAt);
+                    try {
+                        task.runnable.run();
+                    } catch (RuntimeException e) {
+                        System.err.println(priority + " task failed: " + e);
+                    }
+                    synchronized (this) {
+                        task = queue.pollFirst();
+                        if (task == null) {
+                            running--;
+                        } else if (task.key != null) {
+                            queuedByKey.remove(task.key);
+                        }
+                    }
+                }
+                finished = true;
+            } finally {
+                if (!finished) {
+                    synchronized (this) {
+                        running--;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Task {
+        final String key;
+        final Runnable runnable;
+        final long enqueuedAt;
+
+        Task(String key, Runnable runnable, long enqueuedAt) {
+            this.key = key;
+            this.runnable = runnable;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.web2wave;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+
+public final class RetryPolicy {
+
+    private static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0);
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long maxRetryAfterMillis;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long maxRetryAfterMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be >= 1");
+        }
+        if (baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis || maxRetryAfterMillis < 0) {
+            throw new IllegalArgumentException("Invalid retry delays");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxRetryAfterMillis = maxRetryAfterMillis;
+    }
+
+    public static RetryPolicy defaults() {
+        return new RetryPolicy(3, 200, 5_000, 30_000);
+    }
+
+    public static RetryPolicy none() {
+        return NONE;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    // Full jitter: a random delay up to the exponential cap, so clients that failed together
+    // don't come back together.
+    long backoffMillis(int attempt) {
+        long cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        return cap > 0 ? ThreadLocalRandom.current().nextLong(cap + 1) : 0;
+    }
+
+    boolean honorsRetryAfter(long retryAfterMillis) {
+        return retryAfterMillis <= maxRetryAfterMillis;
+    }
+
+    // Retry-After is either delta-seconds or an HTTP-date; -1 when absent or unparseable.
+    static long parseRetryAfter(String value) {
+        if (value == null || value.trim().isEmpty()) return -1;
+        String trimmed = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(trimmed) * 1000);
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return Math.max(0, format.parse(trimmed).getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.web2wave;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class Subscription {
+
+    static final String FIELD_STATUS = "status";
+    static final String FIELD_PAY_SYSTEM_ID = "pay_system_id";
+
+    private static final String STATUS_ACTIVE = "active";
+    private static final String STATUS_TRIAL = "trialing";
+
+    private final Map<String, Object> fields;
+
+    Subscription(Map<String, Object> fields) {
+        this.fields = Collections.unmodifiableMap(fields);
+    }
+
+    public String getStatus() {
+        Object status = fields.get(FIELD_STATUS);
+        return status instanceof String ? (String) status : null;
+    }
+
+    public String getPaySystemId() {
+        Object id = fields.get(FIELD_PAY_SYSTEM_ID);
+        return id != null ? id.toString() : null;
+    }
+
+    public boolean isActive() {
+        String status = getStatus();
+        return STATUS_ACTIVE.equals(status) || STATUS_TRIAL.equals(status);
+    }
+
+    public Object get(String field) {
+        return fields.get(field);
+    }
+
+    public Map<String, Object> asMap() {
+        return fields;
+    }
+
+    static Subscription read(JsonStreamReader reader) throws IOException {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            fields.put(name, reader.readLazyValue());
+        }
+        reader.endObject();
+        return new Subscription(fields);
+    }
+}
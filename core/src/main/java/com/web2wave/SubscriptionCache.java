@@ -0,0 +1,123 @@
+package com.web2wave;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+class SubscriptionCache {
+
+    private final LruMap<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong();
+    private final long ttlMillis;
+
+    SubscriptionCache(long ttlMillis, int maxEntries) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis must be >= 0");
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be > 0");
+        }
+        this.ttlMillis = ttlMillis;
+        this.entries = new LruMap<>(maxEntries);
+    }
+
+    Entry get(String userID) {
+        Entry entry = entries.get(userID);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    long generation() {
+        return generation.get();
+    }
+
+    void put(String userID, SubscriptionStatus value) {
+        put(userID, value, System.currentTimeMillis());
+    }
+
+    void put(String userID, SubscriptionStatus value, long storedAt) {
+        entries.put(userID, new Entry(value, storedAt));
+    }
+
+    // Drops the write if an invalidation happened after the caller read the generation,
+    // so a refresh that raced with a mutation can't resurrect pre-mutation state.
+    boolean putIfUnchanged(String userID, SubscriptionStatus value, long expectedGeneration) {
+        if (generation.get() != expectedGeneration) {
+            return false;
+        }
+        put(userID, value);
+        return true;
+    }
+
+    void invalidate(String userID) {
+        generation.incrementAndGet();
+        entries.remove(userID);
+    }
+
+    void invalidateByPaySystemId(String paySystemId) {
+        generation.incrementAndGet();
+        // An id no cached status references has nothing stale to drop; bumping the generation
+        // still discards refreshes that were in flight during the mutation.
+        for (Map.Entry<String, Entry> e : entries.entries()) {
+            if (references(e.getValue().value, paySystemId)) {
+                entries.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.storedAt >= ttlMillis;
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static boolean references(SubscriptionStatus status, String paySystemId) {
+        if (status == null || paySystemId == null) return false;
+        for (Subscription subscription : status.getSubscriptions()) {
+            if (paySystemId.equals(subscription.getPaySystemId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static final class Entry {
+        final SubscriptionStatus value;
+        final long storedAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(SubscriptionStatus value, long storedAt) {
+            this.value = value;
+            this.storedAt = storedAt;
+        }
+
+        boolean beginRefresh() {
+            return refreshing.compareAndSet(false, true);
+        }
+
+        void endRefresh() {
+            refreshing.set(false);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.web2wave;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class SubscriptionStatus {
+
+    static final String KEY_SUBSCRIPTION = "subscription";
+
+    private final List<Subscription> subscriptions;
+    private final Map<String, Object> map;
+
+    private SubscriptionStatus(List<Subscription> subscriptions, Map<String, Object> map) {
+        this.subscriptions = Collections.unmodifiableList(subscriptions);
+        this.map = Collections.unmodifiableMap(map);
+    }
+
+    public List<Subscription> getSubscriptions() {
+        return subscriptions;
+    }
+
+    public boolean hasActiveSubscription() {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.isActive()) return true;
+        }
+        return false;
+    }
+
+    public Map<String, Object> asMap() {
+        return map;
+    }
+
+    // The subscription field maps double as the entries of asMap()'s list, so the map
+    // adapter shares storage with the typed models instead of holding a second copy. Nested
+    // objects and arrays stay unparsed JsonView text until read.
+    static SubscriptionStatus read(JsonStreamReader reader) throws IOException {
+        List<Subscription> subscriptions = new ArrayList<>();
+        Map<String, Object> map = new LinkedHashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (KEY_SUBSCRIPTION.equals(name) && reader.peek() == JsonStreamReader.Token.BEGIN_ARRAY) {
+                List<Object> maps = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                        Subscription subscription = Subscription.read(reader);
+                        subscriptions.add(subscription);
+                        maps.add(subscription.asMap());
+                    } else {
+                        maps.add(reader.readLazyValue());
+                    }
+                }
+                reader.endArray();
+                map.put(name, Collections.unmodifiableList(maps));
+            } else {
+                map.put(name, reader.readLazyValue());
+            }
+        }
+        reader.endObject();
+        return new SubscriptionStatus(subscriptions, map);
+    }
+}
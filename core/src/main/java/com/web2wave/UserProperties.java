@@ -0,0 +1,87 @@
+package com.web2wave;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class UserProperties {
+
+    static final String KEY_PROPERTIES = "properties";
+    static final String KEY_PROPERTY = "property";
+    static final String KEY_VALUE = "value";
+
+    private final Map<String, String> values;
+
+    UserProperties(Map<String, String> values) {
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    public String get(String property) {
+        return values.get(property);
+    }
+
+    public boolean contains(String property) {
+        return values.containsKey(property);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public Map<String, String> asMap() {
+        return values;
+    }
+
+    static UserProperties read(JsonStreamReader reader) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!KEY_PROPERTIES.equals(reader.nextName()) || reader.peek() != JsonStreamReader.Token.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readProperty(reader, values);
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        return new UserProperties(values);
+    }
+
+    private static void readProperty(JsonStreamReader reader, Map<String, String> values) throws IOException {
+        String key = "";
+        String value = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (KEY_PROPERTY.equals(name)) {
+                key = readScalar(reader);
+            } else if (KEY_VALUE.equals(name)) {
+                value = readScalar(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        values.put(key, value);
+    }
+
+    // Renders values the way the org.json based parser did: a JSON null becomes "null", and nested
+    // objects and arrays are returned as their JSON text.
+    private static String readScalar(JsonStreamReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+            case BOOLEAN:
+                return reader.nextString();
+            case NULL:
+                reader.nextNull();
+                return "null";
+            default:
+                return reader.readRawValue();
+        }
+    }
+}
@@ -0,0 +1,1637 @@
+package com.web2wave;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Web2WaveClient {
+
+    public static final String DEFAULT_BASE_URL = "https://api.web2wave.com";
+    public static final int DEFAULT_BULK_CONCURRENCY = 8;
+
+    private static final String PROFILE_ID_REVENUECAT = "revenuecat_profile_id";
+    private static final String PROFILE_ID_ADAPTY = "adapty_profile_id";
+    private static final String PROFILE_ID_QONVERSION = "qonversion_profile_id";
+
+    private static final String KEY_USER = "user";
+    private static final String KEY_USER_ID = "user_id";
+    private static final String KEY_PRICE_ID = "price_id";
+    private static final String KEY_COMMENT = "comment";
+    private static final String KEY_SUBSCRIPTION = "subscription";
+    private static final String KEY_PROPERTY = "property";
+    private static final String KEY_VALUE = "value";
+    private static final String KEY_RESULT = "result";
+    private static final String KEY_SUCCESS = "success";
+    private static final String KEY_PAY_SYSTEM = "pay_system_id";
+    private static final String KEY_INVOICE_ID = "invoice_id";
+
+    private static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    private static final String METHOD_TYPE_POST = "POST";
+    private static final String METHOD_TYPE_GET = "GET";
+    private static final String METHOD_TYPE_PUT = "PUT";
+
+    private final String apiKey;
+    private final String baseUrl;
+    private final Web2WaveTransport transport;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final RequestScheduler requestScheduler;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService bulkExecutor;
+    private final Executor callbackExecutor;
+    private final SubscriptionCache subscriptionCache;
+    private final PropertyStore propertyStore;
+    private final EntitlementSnapshot entitlementSnapshot;
+    private final PropertyWriteBehindQueue propertyWriteQueue;
+    private final MutationOutbox mutationOutbox;
+    private final RetryPolicy retryPolicy;
+    private final Map<Web2WaveEndpoint, CircuitBreaker> circuitBreakers;
+    private final Web2WaveMetrics metrics;
+    private final ConditionalCache conditionalCache;
+    private final EntitlementPoller entitlementPoller;
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    private static final ThreadLocal<CallScope> CURRENT_SCOPE = new ThreadLocal<>();
+
+    public Web2WaveClient(String apiKey) {
+        this(new Builder(apiKey));
+    }
+
+    private Web2WaveClient(Builder builder) {
+        apiKey = builder.apiKey;
+        baseUrl = builder.baseUrl;
+        transport = builder.transport != null ? builder.transport : new HttpUrlConnectionTransport();
+        ownsExecutor = builder.executor == null;
+        executor = ownsExecutor
+                ? Web2WaveExecutors.newDefaultExecutor(RequestScheduler.threadsNeeded(builder.laneMaxConcurrency))
+                : builder.executor;
+        requestScheduler = new RequestScheduler(executor, builder.laneMaxConcurrency, builder.laneQueueCapacity);
+        scheduler = Web2WaveExecutors.newScheduler();
+        bulkExecutor = Web2WaveExecutors.newBulkExecutor();
+        callbackExecutor = builder.callbackExecutor;
+        retryPolicy = builder.retryPolicy;
+        circuitBreakers = createCircuitBreakers(builder.circuitBreakerPolicy, builder.circuitBreakerListener);
+        if (builder.metricsEnabled) {
+            metrics = new Web2WaveMetrics();
+            metrics.setListener(builder.metricsListener);
+        } else {
+            metrics = null;
+        }
+        conditionalCache = builder.conditionalMaxEntries > 0
+                ? new ConditionalCache(builder.conditionalMaxEntries)
+                : null;
+        subscriptionCache = builder.cacheMaxEntries > 0
+                ? new SubscriptionCache(builder.cacheTtlMillis, builder.cacheMaxEntries)
+                : null;
+        propertyStore = builder.propertyMaxEntries > 0
+                ? new PropertyStore(builder.propertyTtlMillis, builder.propertyMaxEntries)
+                : null;
+        entitlementPoller = new EntitlementPoller(this::pollSubscriptionStatus,
+                task -> requestScheduler.execute(RequestPriority.NORMAL, task), scheduler, callbackExecutor,
+                builder.pollFastIntervalMillis, EntitlementPoller.DEFAULT_BOOST_WINDOW_MILLIS,
+                builder.pollMinIdleIntervalMillis, builder.pollMaxIdleIntervalMillis);
+        if (builder.snapshot != null) {
+            entitlementSnapshot = builder.snapshot;
+        } else if (builder.snapshotDirectory != null) {
+            entitlementSnapshot = new EntitlementSnapshot(builder.snapshotDirectory, builder.snapshotMaxAgeMillis);
+            entitlementSnapshot.load();
+        } else {
+            entitlementSnapshot = null;
+        }
+        propertyWriteQueue = builder.writeBehindMaxPending > 0
+                ? new PropertyWriteBehindQueue(this::updateUserProperties, this::runWritesOrCallerRuns, scheduler,
+                        builder.writeBehindDelayMillis, builder.writeBehindMaxPending)
+                : null;
+        if (builder.outboxDirectory != null) {
+            mutationOutbox = new MutationOutbox(builder.outboxDirectory, this::sendQueuedMutation,
+                    this::runWritesOrCallerRuns, scheduler, builder.outboxMaxAttempts);
+            try {
+                mutationOutbox.open();
+            } catch (IOException e) {
+                shutdownExecutors();
+                throw new UncheckedIOException(e);
+            }
+            mutationOutbox.drain();
+        } else {
+            mutationOutbox = null;
+        }
+    }
+
+    public static Builder builder(String apiKey) {
+        return new Builder(apiKey);
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    // Sends queued property writes, persists pending state and stops the threads this client created.
+    // Executors passed to the builder are left running.
+    public void close() {
+        closeAsync().join();
+    }
+
+    // Like close, but only the local state is written on the calling thread; the returned future
+    // completes once queued property writes are sent and the threads are stopped.
+    public CompletableFuture<Void> closeAsync() {
+        entitlementPoller.close();
+        if (mutationOutbox != null) mutationOutbox.close();
+        if (entitlementSnapshot != null) entitlementSnapshot.writeIfDirty();
+        PropertyWriteBehindQueue queue = propertyWriteQueue;
+        CompletableFuture<Void> flushed = queue != null ? queue.flush() : CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        flushed.whenComplete((value, error) -> {
+            shutdownExecutors();
+            closed.complete(null);
+        });
+        return closed;
+    }
+
+    private void shutdownExecutors() {
+        scheduler.shutdown();
+        bulkExecutor.shutdown();
+        if (ownsExecutor) executor.shutdown();
+    }
+
+    public void clearEntitlementSnapshot(String userID) {
+        EntitlementSnapshot snapshot = entitlementSnapshot;
+        if (snapshot != null) {
+            snapshot.removeUser(userID);
+            scheduleSnapshotWrite(snapshot);
+        }
+        invalidateSubscriptionCache(userID);
+        invalidateUserProperties(userID);
+    }
+
+    public void clearEntitlementSnapshot() {
+        EntitlementSnapshot snapshot = entitlementSnapshot;
+        if (snapshot != null) snapshot.deleteFile();
+        ConditionalCache validators = conditionalCache;
+        if (validators != null) validators.clear();
+        SubscriptionCache cache = subscriptionCache;
+        if (cache != null) cache.clear();
+        PropertyStore store = propertyStore;
+        if (store != null) store.clear();
+    }
+
+    public void invalidateSubscriptionCache(String userID) {
+        SubscriptionCache cache = subscriptionCache;
+        if (cache != null) cache.invalidate(userID);
+    }
+
+    public long getSubscriptionCacheHits() {
+        SubscriptionCache cache = subscriptionCache;
+        return cache != null ? cache.getHitCount() : 0;
+    }
+
+    public long getSubscriptionCacheMisses() {
+        SubscriptionCache cache = subscriptionCache;
+        return cache != null ? cache.getMissCount() : 0;
+    }
+
+    public void invalidateUserProperties(String userID) {
+        PropertyStore store = propertyStore;
+        if (store != null) store.invalidate(userID);
+    }
+
+    public long getPropertyStoreHits() {
+        PropertyStore store = propertyStore;
+        return store != null ? store.getHitCount() : 0;
+    }
+
+    public long getPropertyStoreMisses() {
+        PropertyStore store = propertyStore;
+        return store != null ? store.getMissCount() : 0;
+    }
+
+    public long getCoalescedRequestCount() {
+        return singleFlight.getCoalescedCount();
+    }
+
+    public long getNotModifiedCount() {
+        ConditionalCache validators = conditionalCache;
+        return validators != null ? validators.getNotModifiedCount() : 0;
+    }
+
+    // Response bytes that did not have to be downloaded or parsed because the server answered 304.
+    public long getParsedBytesSaved() {
+        ConditionalCache validators = conditionalCache;
+        return validators != null ? validators.getParsedBytesSaved() : 0;
+    }
+
+    public LatencySnapshot getQueueWaitSnapshot(RequestPriority priority) {
+        return requestScheduler.queueWaitSnapshot(priority);
+    }
+
+    public long getRejectedTaskCount(RequestPriority priority) {
+        return requestScheduler.rejectedCount(priority);
+    }
+
+    public long getCoalescedTaskCount(RequestPriority priority) {
+        return requestScheduler.coalescedCount(priority);
+    }
+
+    public int getQueuedTaskCount(RequestPriority priority) {
+        return requestScheduler.queueDepth(priority);
+    }
+
+    // The listener hears the current status once it is known, then only changes to the set of
+    // subscriptions or their statuses. All listeners for a user share one poller.
+    public void observeEntitlement(String userID, EntitlementListener listener) {
+        if (userID == null || listener == null) {
+            throw new IllegalArgumentException("userID and listener must not be null");
+        }
+        entitlementPoller.observe(userID, listener);
+    }
+
+    public void stopObservingEntitlement(String userID, EntitlementListener listener) {
+        entitlementPoller.stopObserving(userID, listener);
+    }
+
+    // Polls observed users right away and then at the fast interval for a while. Charges, cancels
+    // and refunds made through this client do this on their own; call it for changes made elsewhere.
+    public void boostEntitlementPolling() {
+        entitlementPoller.boost();
+    }
+
+    // Pausing stops polling without dropping observers; resuming polls once straight away.
+    public void setEntitlementPollingPaused(boolean paused) {
+        entitlementPoller.setPaused(paused);
+    }
+
+    public long getEntitlementPollCount() {
+        return entitlementPoller.getPollCount();
+    }
+
+    private SubscriptionStatus pollSubscriptionStatus(String userID) {
+        SubscriptionCache cache = subscriptionCache;
+        long generation = cache != null ? cache.generation() : 0;
+        SubscriptionStatus status = loadSubscriptionStatus(userID);
+        if (status != null && cache != null) {
+            cache.putIfUnchanged(userID, status, generation);
+        }
+        return status;
+    }
+
+    private boolean runInBackground(RequestPriority priority, Runnable task) {
+        return runInBackground(priority, null, task);
+    }
+
+    // A task coalesced with an identical queued one counts as scheduled.
+    private boolean runInBackground(RequestPriority priority, String key, Runnable task) {
+        try {
+            requestScheduler.execute(priority, key, task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            System.err.println("Background task rejected: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(RequestPriority priority, Callable<T> task) {
+        return supplyAsync(runnable -> requestScheduler.execute(priority, runnable), task);
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Executor executor, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CallScope scope = new CallScope();
+        future.whenComplete((value, error) -> {
+            if (future.isCancelled()) scope.cancel();
+        });
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) return;
+                CURRENT_SCOPE.set(scope);
+                try {
+                    future.complete(task.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    CURRENT_SCOPE.remove();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private <T> void deliver(CompletableFuture<T> future, Web2WaveCallback<T> callback) {
+        Executor executor = callbackExecutor;
+        future.whenComplete((value, error) -> executor.execute(() -> {
+            if (error == null) {
+                callback.onComplete(Result.success(value));
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                callback.onComplete(Result.failure(cause instanceof Exception ? (Exception) cause : new Exception(cause)));
+            }
+        }));
+    }
+
+    public CompletableFuture<Map<String, Object>> fetchSubscriptionStatusAsync(String userID) {
+        return supplyAsync(RequestPriority.INTERACTIVE, () -> fetchSubscriptionStatus(userID));
+    }
+
+    public void fetchSubscriptionStatusAsync(String userID, Web2WaveCallback<Map<String, Object>> callback) {
+        deliver(fetchSubscriptionStatusAsync(userID), callback);
+    }
+
+    public CompletableFuture<List<Map<String, Object>>> fetchSubscriptionsAsync(String userID) {
+        return supplyAsync(RequestPriority.INTERACTIVE, () -> fetchSubscriptions(userID));
+    }
+
+    public void fetchSubscriptionsAsync(String userID, Web2WaveCallback<List<Map<String, Object>>> callback) {
+        deliver(fetchSubscriptionsAsync(userID), callback);
+    }
+
+    public CompletableFuture<Boolean> hasActiveSubscriptionAsync(String userID) {
+        return supplyAsync(RequestPriority.INTERACTIVE, () -> hasActiveSubscription(userID));
+    }
+
+    public void hasActiveSubscriptionAsync(String userID, Web2WaveCallback<Boolean> callback) {
+        deliver(hasActiveSubscriptionAsync(userID), callback);
+    }
+
+    public CompletableFuture<Map<String, String>> fetchUserPropertiesAsync(String userID) {
+        return supplyAsync(RequestPriority.NORMAL, () -> fetchUserProperties(userID));
+    }
+
+    public void fetchUserPropertiesAsync(String userID, Web2WaveCallback<Map<String, String>> callback) {
+        deliver(fetchUserPropertiesAsync(userID), callback);
+    }
+
+    public CompletableFuture<Result<Boolean>> updateUserPropertyAsync(String userID, String property, String value) {
+        if (mutationOutbox != null) {
+            return enqueueMutation(MutationOutbox.OP_PROPERTY, userID, METHOD_TYPE_POST,
+                    buildUrl(Web2WaveEndpoint.PROPERTIES, Collections.singletonMap(KEY_USER, userID)),
+                    propertyBody(property, value), KEY_RESULT);
+        }
+        return supplyAsync(RequestPriority.BACKGROUND, () -> updateUserProperty(userID, property, value));
+    }
+
+    public void updateUserPropertyAsync(String userID, String property, String value, Web2WaveCallback<Result<Boolean>> callback) {
+        deliver(updateUserPropertyAsync(userID, property, value), callback);
+    }
+
+    public CompletableFuture<Result<Boolean>> updateUserPropertiesAsync(String userID, Map<String, String> properties) {
+        return supplyAsync(RequestPriority.BACKGROUND, () -> updateUserProperties(userID, properties));
+    }
+
+    public void updateUserPropertiesAsync(String userID, Map<String, String> properties, Web2WaveCallback<Result<Boolean>> callback) {
+        deliver(updateUserPropertiesAsync(userID, properties), callback);
+    }
+
+    public CompletableFuture<Result<Boolean>> cancelSubscriptionAsync(String paySystemId, String comment) {
+        if (mutationOutbox != null) {
+            return enqueueMutation(MutationOutbox.OP_CANCEL, paySystemId, METHOD_TYPE_PUT,
+                    buildUrl(Web2WaveEndpoint.CANCEL, null), cancelBody(paySystemId, comment), KEY_SUCCESS);
+        }
+        return supplyAsync(RequestPriority.NORMAL, () -> cancelSubscription(paySystemId, comment));
+    }
+
+    public void cancelSubscriptionAsync(String paySystemId, String comment, Web2WaveCallback<Result<Boolean>> callback) {
+        deliver(cancelSubscriptionAsync(paySystemId, comment), callback);
+    }
+
+    public CompletableFuture<Result<Boolean>> refundSubscriptionAsync(String paySystemId, String invoiceId, String comment) {
+        if (mutationOutbox != null) {
+            return enqueueMutation(MutationOutbox.OP_REFUND, paySystemId, METHOD_TYPE_PUT,
+                    buildUrl(Web2WaveEndpoint.REFUND, null), refundBody(paySystemId, invoiceId, comment), KEY_SUCCESS);
+        }
+        return supplyAsync(RequestPriority.NORMAL, () -> refundSubscription(paySystemId, invoiceId, comment));
+    }
+
+    public void refundSubscriptionAsync(String paySystemId, String invoiceId, String comment, Web2WaveCallback<Result<Boolean>> callback) {
+        deliver(refundSubscriptionAsync(paySystemId, invoiceId, comment), callback);
+    }
+
+    public CompletableFuture<Result<Boolean>> chargeUserAsync(String web2waveUserId, int priceId) {
+        if (mutationOutbox != null) {
+            return enqueueMutation(MutationOutbox.OP_CHARGE, web2waveUserId, METHOD_TYPE_PUT,
+                    buildUrl(Web2WaveEndpoint.CHARGE, null), chargeBody(web2waveUserId, priceId), KEY_SUCCESS);
+        }
+        return supplyAsync(RequestPriority.NORMAL, () -> chargeUser(web2waveUserId, priceId));
+    }
+
+    public void chargeUserAsync(String web2waveUserId, int priceId, Web2WaveCallback<Result<Boolean>> callback) {
+        deliver(chargeUserAsync(web2waveUserId, priceId), callback);
+    }
+
+    public LatencySnapshot getLatencySnapshot(Web2WaveEndpoint endpoint) {
+        Web2WaveMetrics current = metrics;
+        return current != null ? current.snapshot(endpoint) : LatencySnapshot.empty();
+    }
+
+    public CircuitState getCircuitState(Web2WaveEndpoint endpoint) {
+        CircuitBreaker breaker = circuitBreakers.get(endpoint);
+        return breaker != null ? breaker.getState() : CircuitState.CLOSED;
+    }
+
+    private static Map<Web2WaveEndpoint, CircuitBreaker> createCircuitBreakers(CircuitBreakerPolicy policy,
+                                                                              CircuitBreakerListener listener) {
+        Map<Web2WaveEndpoint, CircuitBreaker> breakers = new EnumMap<>(Web2WaveEndpoint.class);
+        if (policy != null) {
+            for (Web2WaveEndpoint endpoint : Web2WaveEndpoint.values()) {
+                breakers.put(endpoint, new CircuitBreaker(endpoint, policy, listener));
+            }
+        }
+        return breakers;
+    }
+
+    public int getOutboxDepth() {
+        MutationOutbox outbox = mutationOutbox;
+        return outbox != null ? outbox.getDepth() : 0;
+    }
+
+    public long getOutboxReplayLatencyMillis() {
+        MutationOutbox outbox = mutationOutbox;
+        return outbox != null ? outbox.getLastReplayLatencyMillis() : 0;
+    }
+
+    private CompletableFuture<Result<Boolean>> enqueueMutation(String operation, String subject, String method,
+                                                               String url, String body, String successKey) {
+        MutationOutbox outbox = mutationOutbox;
+        if (outbox == null) {
+            return CompletableFuture.completedFuture(Result.<Boolean>failure(new IllegalStateException("Outbox is disabled")));
+        }
+        try {
+            return outbox.enqueue(operation, subject, method, url, body, successKey);
+        } catch (IOException e) {
+            return CompletableFuture.completedFuture(Result.<Boolean>failure(e));
+        }
+    }
+
+    // Blocking mutations are logged before they are sent, so one that fails offline is replayed.
+    private static Result<Boolean> sendMutation(MutationOutbox outbox, String operation, String subject, String method,
+                                                String url, String body, String successKey) {
+        try {
+            return outbox.send(operation, subject, method, url, body, successKey);
+        } catch (IOException e) {
+            return Result.failure(e);
+        }
+    }
+
+    private MutationOutbox.Outcome sendQueuedMutation(MutationOutbox.Entry entry) {
+        try {
+            String response = exchange(endpointOf(entry), entry.url, entry.method, entry.body,
+                    Collections.singletonMap(HEADER_IDEMPOTENCY_KEY, entry.id), Web2WaveClient::readBody);
+            onQueuedMutationSent(entry);
+            Map<String, Object> json = parseObject(response);
+            if ("1".equals(optString(json, entry.successKey, ""))) {
+                if (MutationOutbox.OP_PROPERTY.equals(entry.operation)) onQueuedPropertyAccepted(entry);
+                return MutationOutbox.Outcome.ACCEPTED;
+            }
+            entry.lastError = optString(json, "message", "Unknown error");
+            return MutationOutbox.Outcome.REJECTED;
+        } catch (HttpStatusException e) {
+            onQueuedMutationSent(entry);
+            entry.lastError = e.getMessage();
+            return isRetryableStatus(e.code) ? MutationOutbox.Outcome.RETRY : MutationOutbox.Outcome.REJECTED;
+        } catch (MalformedResponseException e) {
+            entry.lastError = e.getMessage();
+            return MutationOutbox.Outcome.REJECTED;
+        } catch (IOException e) {
+            entry.lastError = e.getMessage();
+            return MutationOutbox.Outcome.RETRY;
+        }
+    }
+
+    private void onQueuedPropertyAccepted(MutationOutbox.Entry entry) {
+        try {
+            Map<String, Object> body = parseObject(entry.body);
+            Object property = body.get(KEY_PROPERTY);
+            Object value = body.get(KEY_VALUE);
+            if (property instanceof String) {
+                onPropertyWritten(entry.subject, (String) property, value != null ? value.toString() : null, true);
+            }
+        } catch (MalformedResponseException e) {
+            invalidateUserProperties(entry.subject);
+        }
+    }
+
+    private static Web2WaveEndpoint endpointOf(MutationOutbox.Entry entry) {
+        switch (entry.operation) {
+            case MutationOutbox.OP_PROPERTY:
+                return Web2WaveEndpoint.PROPERTIES;
+            case MutationOutbox.OP_CANCEL:
+                return Web2WaveEndpoint.CANCEL;
+            case MutationOutbox.OP_REFUND:
+                return Web2WaveEndpoint.REFUND;
+            default:
+                return Web2WaveEndpoint.CHARGE;
+        }
+    }
+
+    private void onQueuedMutationSent(MutationOutbox.Entry entry) {
+        switch (entry.operation) {
+            case MutationOutbox.OP_PROPERTY:
+                EntitlementSnapshot snapshot = entitlementSnapshot;
+                if (snapshot != null) {
+                    snapshot.remove(entry.subject, EntitlementSnapshot.KIND_PROPERTIES);
+                    scheduleSnapshotWrite(snapshot);
+                }
+                break;
+            case MutationOutbox.OP_CHARGE:
+                onSubscriptionMutated(entry.subject, null);
+                break;
+            default:
+                onSubscriptionMutated(null, entry.subject);
+        }
+    }
+
+    String buildUrl(Web2WaveEndpoint endpoint, Map<String, String> queryParams) {
+        StringBuilder url = new StringBuilder(baseUrl).append("/").append(endpoint.getPath());
+        if (queryParams != null && !queryParams.isEmpty()) {
+            url.append("?");
+            for (Map.Entry<String, String> entry : queryParams.entrySet()) {
+                url.append(entry.getKey()).append("=").append(entry.getValue()).append("&");
+            }
+            url.setLength(url.length() - 1);
+        }
+        return url.toString();
+    }
+
+    public SubscriptionStatus getSubscriptionStatus(String userID) {
+        SubscriptionStatus fromSnapshot = subscriptionStatusFromSnapshot(userID);
+        if (fromSnapshot != null) {
+            return fromSnapshot;
+        }
+
+        SubscriptionCache cache = subscriptionCache;
+        if (cache == null) {
+            return loadSubscriptionStatus(userID);
+        }
+
+        SubscriptionCache.Entry entry = cache.get(userID);
+        if (entry != null) {
+            if (cache.isExpired(entry) && entry.beginRefresh()) {
+                refreshInBackground(cache, userID, entry);
+            }
+            return entry.value;
+        }
+
+        long generation = cache.generation();
+        SubscriptionStatus status = loadSubscriptionStatus(userID);
+        if (status != null) {
+            cache.putIfUnchanged(userID, status, generation);
+        }
+        return status;
+    }
+
+    public Map<String, Object> fetchSubscriptionStatus(String userID) {
+        SubscriptionStatus status = getSubscriptionStatus(userID);
+        return status != null ? status.asMap() : null;
+    }
+
+    private void refreshInBackground(SubscriptionCache cache, String userID, SubscriptionCache.Entry entry) {
+        long generation = cache.generation();
+        boolean scheduled = runInBackground(RequestPriority.NORMAL, () -> {
+            try {
+                SubscriptionStatus status = loadSubscriptionStatus(userID);
+                if (status != null) {
+                    cache.putIfUnchanged(userID, status, generation);
+                }
+            } finally {
+                entry.endRefresh();
+            }
+        });
+        if (!scheduled) entry.endRefresh();
+    }
+
+    private SubscriptionStatus subscriptionStatusFromSnapshot(String userID) {
+        EntitlementSnapshot snapshot = entitlementSnapshot;
+        if (snapshot == null) return null;
+        EntitlementSnapshot.Record record = snapshot.takeFresh(userID, EntitlementSnapshot.KIND_SUBSCRIPTIONS);
+        if (record == null) return null;
+
+        SubscriptionStatus status = parseSubscriptionStatus(record.body);
+        if (status == null) return null;
+
+        SubscriptionCache cache = subscriptionCache;
+        if (cache != null) {
+            cache.put(userID, status, record.savedAt);
+        }
+        runInBackground(RequestPriority.NORMAL, "subscriptions:" + userID, () -> {
+            long generation = cache != null ? cache.generation() : 0;
+            SubscriptionStatus fresh = loadSubscriptionStatus(userID);
+            if (fresh != null && cache != null) {
+                cache.putIfUnchanged(userID, fresh, generation);
+            }
+        });
+        return status;
+    }
+
+    private SubscriptionStatus loadSubscriptionStatus(String userID) {
+        String url = buildUrl(Web2WaveEndpoint.SUBSCRIPTIONS, Collections.singletonMap(KEY_USER, userID));
+        return singleFlight.execute(METHOD_TYPE_GET + " " + url, () -> {
+            if (entitlementSnapshot == null) {
+                return conditionalGet(Web2WaveEndpoint.SUBSCRIPTIONS, url, SUBSCRIPTION_STATUS_PARSER);
+            }
+            ParsedBody<SubscriptionStatus> response =
+                    conditionalGet(Web2WaveEndpoint.SUBSCRIPTIONS, url, SUBSCRIPTION_STATUS_BODY_PARSER);
+            if (response == null) return null;
+            saveSnapshot(userID, EntitlementSnapshot.KIND_SUBSCRIPTIONS, response.raw);
+            return response.value;
+        });
+    }
+
+    private SubscriptionStatus parseSubscriptionStatus(String response) {
+        if (response != null) {
+            try {
+                return SubscriptionStatus.read(JsonStreamReader.of(response));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    private void saveSnapshot(String userID, byte kind, String response) {
+        EntitlementSnapshot snapshot = entitlementSnapshot;
+        if (snapshot == null) return;
+        snapshot.put(userID, kind, response);
+        scheduleSnapshotWrite(snapshot);
+    }
+
+    private void scheduleSnapshotWrite(EntitlementSnapshot snapshot) {
+        runInBackground(RequestPriority.BACKGROUND, "snapshot", snapshot::writeIfDirty);
+    }
+
+    public boolean hasActiveSubscription(String userID) {
+        SubscriptionStatus status = getSubscriptionStatus(userID);
+        return status != null && status.hasActiveSubscription();
+    }
+
+    public List<Subscription> getSubscriptions(String userID) {
+        SubscriptionStatus status = getSubscriptionStatus(userID);
+        return status != null ? status.getSubscriptions() : Collections.<Subscription>emptyList();
+    }
+
+    public List<Map<String, Object>> fetchSubscriptions(String userID) {
+        Map<String, Object> response = fetchSubscriptionStatus(userID);
+        if (response != null && response.containsKey(KEY_SUBSCRIPTION)) {
+            Object subscriptions = response.get(KEY_SUBSCRIPTION);
+            if (subscriptions instanceof List<?>) {
+                // JsonStreamReader only builds objects with String keys.
+                @SuppressWarnings("unchecked")
+                List<Map<String, Object>> list = (List<Map<String, Object>>) subscriptions;
+                return list;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+
+    public BulkLookupReport fetchSubscriptionStatuses(Collection<String> userIDs, BulkLookupListener listener) {
+        return fetchSubscriptionStatuses(userIDs, DEFAULT_BULK_CONCURRENCY, 0, listener);
+    }
+
+    // Blocks until every user has been looked up. Results reach the listener one at a time in
+    // completion order and are not retained, so memory stays flat however many users are passed.
+    // maxRequestsPerSecond <= 0 means no rate cap.
+    public BulkLookupReport fetchSubscriptionStatuses(Collection<String> userIDs, int maxConcurrency,
+                                                      double maxRequestsPerSecond, BulkLookupListener listener) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be > 0");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        String[] users = userIDs.toArray(new String[0]);
+        for (String userID : users) {
+            if (userID == null) throw new IllegalArgumentException("userIDs must not contain null");
+        }
+
+        long start = System.currentTimeMillis();
+        RateLimiter limiter = maxRequestsPerSecond > 0 ? new RateLimiter(maxRequestsPerSecond) : null;
+        CallScope scope = CURRENT_SCOPE.get();
+        AtomicBoolean stopped = new AtomicBoolean();
+        AtomicInteger nextIndex = new AtomicInteger();
+        AtomicInteger succeeded = new AtomicInteger();
+        Map<String, Exception> failures = new ConcurrentHashMap<>();
+        Object deliveryLock = new Object();
+
+        // One request per user: the API has no batch lookup. A batch endpoint would slot in here by
+        // having each worker claim a chunk of indexes instead of one.
+        Runnable worker = () -> {
+            int index;
+            while ((index = nextIndex.getAndIncrement()) < users.length) {
+                if (stopped.get() || (scope != null && scope.isCanceled())) {
+                    stopped.set(true);
+                    return;
+                }
+                String userID = users[index];
+                Result<SubscriptionStatus> result;
+                try {
+                    if (limiter != null) limiter.acquire();
+                    result = Result.success(lookupSubscriptionStatus(userID));
+                    succeeded.incrementAndGet();
+                } catch (Exception e) {
+                    failures.put(userID, e);
+                    result = Result.failure(e);
+                }
+                synchronized (deliveryLock) {
+                    try {
+                        listener.onResult(userID, result);
+                    } catch (RuntimeException e) {
+                        System.err.println("Bulk lookup listener failed: " + e.getMessage());
+                    }
+                }
+            }
+        };
+
+        // Workers run on the client's bulk executor rather than a request lane, so maxConcurrency is
+        // reached whatever the lanes are sized to, and queued background work is not held up.
+        int workers = Math.min(maxConcurrency, users.length);
+        List<CompletableFuture<Void>> running = new ArrayList<>(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                running.add(CompletableFuture.runAsync(worker, bulkExecutor));
+            }
+        } catch (RejectedExecutionException e) {
+            stopped.set(true);
+        }
+        try {
+            CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            stopped.set(true);
+            System.err.println("Bulk lookup failed: " + e.getCause());
+        }
+        boolean canceled = stopped.get() || (scope != null && scope.isCanceled());
+        return new BulkLookupReport(users.length, succeeded.get(), new HashMap<>(failures), canceled,
+                System.currentTimeMillis() - start);
+    }
+
+    public CompletableFuture<BulkLookupReport> fetchSubscriptionStatusesAsync(Collection<String> userIDs, int maxConcurrency,
+                                                                              double maxRequestsPerSecond, BulkLookupListener listener) {
+        return supplyAsync(bulkExecutor, () -> fetchSubscriptionStatuses(userIDs, maxConcurrency, maxRequestsPerSecond, listener));
+    }
+
+    // Bypasses the cache and snapshot: bulk callers want current state, and tens of thousands of
+    // one-off users would only evict the entries interactive lookups depend on.
+    private SubscriptionStatus lookupSubscriptionStatus(String userID) throws IOException {
+        String url = buildUrl(Web2WaveEndpoint.SUBSCRIPTIONS, Collections.singletonMap(KEY_USER, userID));
+        return exchange(Web2WaveEndpoint.SUBSCRIPTIONS, url, METHOD_TYPE_GET, null, null, SUBSCRIPTION_STATUS_PARSER);
+    }
+
+    public Result<Boolean> cancelSubscription(String paySystemId, String comment) {
+        MutationOutbox outbox = mutationOutbox;
+        if (outbox != null) {
+            return sendMutation(outbox, MutationOutbox.OP_CANCEL, paySystemId, METHOD_TYPE_PUT,
+                    buildUrl(Web2WaveEndpoint.CANCEL, null), cancelBody(paySystemId, comment), KEY_SUCCESS);
+        }
+        try {
+            String url = buildUrl(Web2WaveEndpoint.CANCEL, null);
+            String body = cancelBody(paySystemId, comment);
+            String response = makeRequest(Web2WaveEndpoint.CANCEL, url, METHOD_TYPE_PUT, body);
+            onSubscriptionMutated(null, paySystemId);
+            Map<String, Object> json = response != null ? parseObject(response) : null;
+
+            if (json != null && "1".equals(optString(json, KEY_SUCCESS, ""))) {
+                return Result.success(true);
+            } else {
+                return Result.failure(new Exception(json != null ? optString(json, "message", "Unknown error") : "Empty response"));
+            }
+
+        } catch (Exception e) {
+            return Result.failure(e);
+        }
+    }
+
+    public Result<Boolean> chargeUser(String web2waveUserId, int priceId) {
+        MutationOutbox outbox = mutationOutbox;
+        if (outbox != null) {
+            return sendMutation(outbox, MutationOutbox.OP_CHARGE, web2waveUserId, METHOD_TYPE_PUT,
+                    buildUrl(Web2WaveEndpoint.CHARGE, null), chargeBody(web2waveUserId, priceId), KEY_SUCCESS);
+        }
+        try {
+            String url = buildUrl(Web2WaveEndpoint.CHARGE, null);
+            String body = chargeBody(web2waveUserId, priceId);
+            String response = makeRequest(Web2WaveEndpoint.CHARGE, url, METHOD_TYPE_PUT, body);
+            onSubscriptionMutated(web2waveUserId, null);
+            Map<String, Object> json = response != null ? parseObject(response) : null;
+
+            if (json != null && "1".equals(optString(json, KEY_SUCCESS, ""))) {
+                return Result.success(true);
+            } else {
+                return Result.failure(new Exception(json != null ? optString(json, "message", "Unknown error") : "Empty response"));
+            }
+
+        } catch (Exception e) {
+            return Result.failure(e);
+        }
+    }
+
+    public Result<Boolean> refundSubscription(String paySystemId, String invoiceId, String comment) {
+        MutationOutbox outbox = mutationOutbox;
+        if (outbox != null) {
+            return sendMutation(outbox, MutationOutbox.OP_REFUND, paySystemId, METHOD_TYPE_PUT,
+                    buildUrl(Web2WaveEndpoint.REFUND, null), refundBody(paySystemId, invoiceId, comment), KEY_SUCCESS);
+        }
+        try {
+            String url = buildUrl(Web2WaveEndpoint.REFUND, null);
+            String body = refundBody(paySystemId, invoiceId, comment);
+            String response = makeRequest(Web2WaveEndpoint.REFUND, url, METHOD_TYPE_PUT, body);
+            onSubscriptionMutated(null, paySystemId);
+            Map<String, Object> json = response != null ? parseObject(response) : null;
+
+            if (json != null && "1".equals(optString(json, KEY_SUCCESS, ""))) {
+                return Result.success(true);
+            } else {
+                return Result.failure(new Exception(json != null ? optString(json, "message", "Unknown error") : "Empty response"));
+            }
+
+        } catch (Exception e) {
+            return Result.failure(e);
+        }
+    }
+
+
+    public UserProperties getUserProperties(String userID) {
+        PropertyStore store = propertyStore;
+        if (store == null) {
+            return readUserProperties(userID);
+        }
+        PropertyStore.Entry entry = store.get(userID, null);
+        if (entry != null) {
+            refreshIfExpired(store, userID, entry);
+            return entry.value;
+        }
+        return readAndStoreUserProperties(userID);
+    }
+
+    // Served from memory when the property store holds the user's list or has seen this property
+    // written; otherwise the whole list is fetched.
+    public String getUserProperty(String userID, String property) {
+        PropertyStore store = propertyStore;
+        PropertyStore.Entry entry = store != null ? store.get(userID, property) : null;
+        if (entry != null) {
+            refreshIfExpired(store, userID, entry);
+            return entry.value.get(property);
+        }
+        UserProperties properties = store != null ? readAndStoreUserProperties(userID) : readUserProperties(userID);
+        return properties != null ? properties.get(property) : null;
+    }
+
+    private void refreshIfExpired(PropertyStore store, String userID, PropertyStore.Entry entry) {
+        if (!store.isExpired(entry) || !entry.beginRefresh()) return;
+        long generation = store.generation();
+        boolean scheduled = runInBackground(RequestPriority.NORMAL, () -> {
+            try {
+                storeUserProperties(userID, loadUserProperties(userID), generation);
+            } finally {
+                entry.endRefresh();
+            }
+        });
+        if (!scheduled) entry.endRefresh();
+    }
+
+    private UserProperties readAndStoreUserProperties(String userID) {
+        PropertyStore store = propertyStore;
+        long generation = store != null ? store.generation() : 0;
+        UserProperties properties = readUserProperties(userID);
+        storeUserProperties(userID, properties, generation);
+        return properties;
+    }
+
+    private void storeUserProperties(String userID, UserProperties properties, long generation) {
+        PropertyStore store = propertyStore;
+        if (store != null && properties != null) {
+            store.putIfUnchanged(userID, properties, generation);
+        }
+    }
+
+    private UserProperties readUserProperties(String userID) {
+        EntitlementSnapshot snapshot = entitlementSnapshot;
+        if (snapshot != null) {
+            EntitlementSnapshot.Record record = snapshot.takeFresh(userID, EntitlementSnapshot.KIND_PROPERTIES);
+            UserProperties properties = record != null ? parseUserProperties(record.body) : null;
+            if (properties != null) {
+                PropertyStore store = propertyStore;
+                if (store != null) store.put(userID, properties, record.savedAt);
+                runInBackground(RequestPriority.BACKGROUND, "properties:" + userID, () -> {
+                    long generation = store != null ? store.generation() : 0;
+                    storeUserProperties(userID, loadUserProperties(userID), generation);
+                });
+                return properties;
+            }
+        }
+        return loadUserProperties(userID);
+    }
+
+    public Map<String, String> fetchUserProperties(String userID) {
+        UserProperties properties = getUserProperties(userID);
+        return properties != null ? properties.asMap() : null;
+    }
+
+    private UserProperties loadUserProperties(String userID) {
+        String url = buildUrl(Web2WaveEndpoint.PROPERTIES, Collections.singletonMap(KEY_USER, userID));
+        return singleFlight.execute(METHOD_TYPE_GET + " " + url, () -> {
+            if (entitlementSnapshot == null) {
+                return conditionalGet(Web2WaveEndpoint.PROPERTIES, url, USER_PROPERTIES_PARSER);
+            }
+            ParsedBody<UserProperties> response =
+                    conditionalGet(Web2WaveEndpoint.PROPERTIES, url, USER_PROPERTIES_BODY_PARSER);
+            if (response == null) return null;
+            saveSnapshot(userID, EntitlementSnapshot.KIND_PROPERTIES, response.raw);
+            return response.value;
+        });
+    }
+
+    private UserProperties parseUserProperties(String response) {
+        if (response != null) {
+            try {
+                return UserProperties.read(JsonStreamReader.of(response));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    public Result<Boolean> updateUserProperty(String userID, String property, String value) {
+        String url = buildUrl(Web2WaveEndpoint.PROPERTIES, Collections.singletonMap(KEY_USER, userID));
+        String body = propertyBody(property, value);
+        MutationOutbox outbox = mutationOutbox;
+        if (outbox != null) {
+            return sendMutation(outbox, MutationOutbox.OP_PROPERTY, userID, METHOD_TYPE_POST, url, body, KEY_RESULT);
+        }
+
+        String response = makeRequest(Web2WaveEndpoint.PROPERTIES, url, METHOD_TYPE_POST, body);
+        EntitlementSnapshot snapshot = entitlementSnapshot;
+        if (snapshot != null) {
+            snapshot.remove(userID, EntitlementSnapshot.KIND_PROPERTIES);
+            scheduleSnapshotWrite(snapshot);
+        }
+        Result<Boolean> result;
+        if (response != null) {
+            try {
+                Map<String, Object> jsonResponse = parseObject(response);
+                Boolean isSuccessful = optString(jsonResponse, KEY_RESULT, "").equals("1");
+                result = Result.success(isSuccessful);
+            } catch (MalformedResponseException e) {
+                result = Result.failure(e);
+            }
+        } else {
+            result = Result.failure(new Exception("Failed to update properties"));
+        }
+        onPropertyWritten(userID, property, value, result.isSuccess() && Boolean.TRUE.equals(result.getValue()));
+        return result;
+    }
+
+    // An accepted write patches the store; anything else leaves the server state unknown.
+    private void onPropertyWritten(String userID, String property, String value, boolean accepted) {
+        PropertyStore store = propertyStore;
+        if (store == null) return;
+        if (accepted) {
+            store.apply(userID, Collections.singletonMap(property, value));
+        } else {
+            store.invalidate(userID);
+        }
+    }
+
+    private static String cancelBody(String paySystemId, String comment) {
+        Map<String, String> bodyMap = new HashMap<>();
+        bodyMap.put(KEY_PAY_SYSTEM, paySystemId);
+        if (comment != null && !comment.trim().isEmpty()) {
+            bodyMap.put(KEY_COMMENT, comment);
+        }
+        return JsonWriter.write(bodyMap);
+    }
+
+    private static String chargeBody(String web2waveUserId, int priceId) {
+        Map<String, String> bodyMap = new HashMap<>();
+        bodyMap.put(KEY_USER_ID, web2waveUserId);
+        bodyMap.put(KEY_PRICE_ID, Integer.toString(priceId));
+        return JsonWriter.write(bodyMap);
+    }
+
+    private static String refundBody(String paySystemId, String invoiceId, String comment) {
+        Map<String, String> bodyMap = new HashMap<>();
+        bodyMap.put(KEY_PAY_SYSTEM, paySystemId);
+        bodyMap.put(KEY_INVOICE_ID, invoiceId);
+        if (comment != null && !comment.trim().isEmpty()) {
+            bodyMap.put(KEY_COMMENT, comment);
+        }
+        return JsonWriter.write(bodyMap);
+    }
+
+    private static String propertyBody(String property, String value) {
+        Map<String, String> bodyMap = new LinkedHashMap<>();
+        bodyMap.put(KEY_PROPERTY, property);
+        bodyMap.put(KEY_VALUE, value);
+        return JsonWriter.write(bodyMap);
+    }
+
+    private static Map<String, Object> parseObject(String response) throws MalformedResponseException {
+        try {
+            Object value = JsonStreamReader.of(response).readValue();
+            if (value instanceof Map<?, ?>) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> object = (Map<String, Object>) value;
+                return object;
+            }
+            throw new MalformedResponseException("Expected a JSON object");
+        } catch (MalformedResponseException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new MalformedResponseException(e.getMessage());
+        }
+    }
+
+    private static String optString(Map<String, Object> json, String key, String fallback) {
+        Object value = json.get(key);
+        return value != null ? value.toString() : fallback;
+    }
+
+    public Result<Boolean> updateUserProperties(String userID, Map<String, String> properties) {
+        if (properties == null || properties.isEmpty()) {
+            return Result.success(true);
+        }
+        if (properties.size() == 1) {
+            Map.Entry<String, String> entry = properties.entrySet().iterator().next();
+            return updateUserProperty(userID, entry.getKey(), entry.getValue());
+        }
+
+        // The properties endpoint takes one property per request, so the writes are issued
+        // concurrently rather than back to back.
+        List<String> keys = new ArrayList<>(properties.keySet());
+        List<Callable<Result<Boolean>>> writes = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            String value = properties.get(key);
+            writes.add(() -> updateUserProperty(userID, key, value));
+        }
+        List<Result<Boolean>> results = runConcurrently(RequestPriority.BACKGROUND, writes);
+
+        boolean allSuccessful = true;
+        List<String> failed = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            Result<Boolean> result = results.get(i);
+            if (result.isFailure()) {
+                failed.add(keys.get(i));
+            } else if (!Boolean.TRUE.equals(result.getValue())) {
+                allSuccessful = false;
+            }
+        }
+        if (!failed.isEmpty()) {
+            return Result.failure(new Exception("Failed to update properties: " + failed));
+        }
+        return Result.success(allSuccessful);
+    }
+
+    // Tasks that no pool thread has picked up yet are run on the calling thread, so a caller
+    // that is itself on the SDK executor can't deadlock waiting for a saturated pool.
+    private <T> List<T> runConcurrently(RequestPriority priority, List<Callable<T>> tasks) {
+        List<AtomicBoolean> claims = new ArrayList<>(tasks.size());
+        List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            AtomicBoolean claim = new AtomicBoolean();
+            CompletableFuture<T> future = new CompletableFuture<>();
+            claims.add(claim);
+            futures.add(future);
+            runInBackground(priority, () -> {
+                if (claim.compareAndSet(false, true)) complete(future, task);
+            });
+        }
+
+        List<T> results = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            if (claims.get(i).compareAndSet(false, true)) {
+                complete(futures.get(i), tasks.get(i));
+            }
+            results.add(futures.get(i).join());
+        }
+        return results;
+    }
+
+    private static <T> void complete(CompletableFuture<T> future, Callable<T> task) {
+        try {
+            future.complete(task.call());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+    }
+
+    public CompletableFuture<Result<Boolean>> enqueueUserProperty(String userID, String property, String value) {
+        PropertyWriteBehindQueue queue = propertyWriteQueue;
+        if (queue == null) {
+            return updateUserPropertyAsync(userID, property, value);
+        }
+        return queue.enqueue(userID, property, value);
+    }
+
+    public CompletableFuture<Void> flush() {
+        PropertyWriteBehindQueue queue = propertyWriteQueue;
+        return queue != null ? queue.flush() : CompletableFuture.<Void>completedFuture(null);
+    }
+
+    public long getMergedPropertyWriteCount() {
+        PropertyWriteBehindQueue queue = propertyWriteQueue;
+        return queue != null ? queue.getMergedCount() : 0;
+    }
+
+    private void runWritesOrCallerRuns(Runnable task) {
+        if (!runInBackground(RequestPriority.BACKGROUND, task)) task.run();
+    }
+
+    public Result<Boolean> setRevenuecatProfileID(String appUserID, String revenueCatProfileID) {
+        return updateUserProperty(appUserID, PROFILE_ID_REVENUECAT, revenueCatProfileID);
+    }
+
+    public Result<Boolean> setAdaptyProfileID(String appUserID, String adaptyProfileID) {
+        return updateUserProperty(appUserID, PROFILE_ID_ADAPTY, adaptyProfileID);
+    }
+
+    public Result<Boolean> setQonversionProfileID(String appUserID, String qonversionProfileID) {
+        return updateUserProperty(appUserID, PROFILE_ID_QONVERSION, qonversionProfileID);
+    }
+
+    public CompletableFuture<Result<Boolean>> setRevenuecatProfileIDAsync(String appUserID, String revenueCatProfileID) {
+        return updateUserPropertyAsync(appUserID, PROFILE_ID_REVENUECAT, revenueCatProfileID);
+    }
+
+    public CompletableFuture<Result<Boolean>> setAdaptyProfileIDAsync(String appUserID, String adaptyProfileID) {
+        return updateUserPropertyAsync(appUserID, PROFILE_ID_ADAPTY, adaptyProfileID);
+    }
+
+    public CompletableFuture<Result<Boolean>> setQonversionProfileIDAsync(String appUserID, String qonversionProfileID) {
+        return updateUserPropertyAsync(appUserID, PROFILE_ID_QONVERSION, qonversionProfileID);
+    }
+
+    private void onSubscriptionMutated(String userID, String paySystemId) {
+        entitlementPoller.boost();
+        EntitlementSnapshot snapshot = entitlementSnapshot;
+        if (snapshot != null) {
+            if (userID != null) {
+                snapshot.remove(userID, EntitlementSnapshot.KIND_SUBSCRIPTIONS);
+            } else {
+                snapshot.removeAll(EntitlementSnapshot.KIND_SUBSCRIPTIONS);
+            }
+            scheduleSnapshotWrite(snapshot);
+        }
+
+        SubscriptionCache cache = subscriptionCache;
+        if (cache == null) return;
+        if (userID != null) {
+            cache.invalidate(userID);
+        } else {
+            cache.invalidateByPaySystemId(paySystemId);
+        }
+    }
+
+    private String makeRequest(Web2WaveEndpoint endpoint, String url, String method, String body) {
+        return executeRequest(endpoint, url, method, body, RAW_BODY_PARSER, false);
+    }
+
+    // Sends the stored validators, if any, and reuses the previously parsed result on 304. The
+    // parser is part of the match, so a cached String is never handed to a caller expecting a model.
+    private <T> T conditionalGet(Web2WaveEndpoint endpoint, String url, BodyParser<T> parser) {
+        return executeRequest(endpoint, url, METHOD_TYPE_GET, null, parser, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T executeRequest(Web2WaveEndpoint endpoint, String url, String method, String body,
+                                 BodyParser<T> parser, boolean conditional) {
+        try {
+            return exchange(endpoint, url, method, body, null, parser, conditional);
+        } catch (CircuitBreaker.CircuitOpenException e) {
+            // Fail fast without a request, but answer a lookup from the last response seen for it.
+            Web2WaveMetrics metrics = this.metrics;
+            if (metrics != null) metrics.recordRejected(endpoint, method, e);
+            ConditionalCache validators = conditional ? conditionalCache : null;
+            ConditionalCache.Entry cached = validators != null ? validators.get(url, parser) : null;
+            return cached != null ? (T) cached.value : null;
+        } catch (HttpStatusException e) {
+            System.err.println("Unexpected response code: " + e.code);
+        } catch (Exception e) {
+            System.err.println("Request failed: " + e.getMessage());
+        }
+        return null;
+    }
+
+    private <T> T exchange(Web2WaveEndpoint endpoint, String url, String method, String body,
+                           Map<String, String> extraHeaders, BodyParser<T> parser) throws IOException {
+        return exchange(endpoint, url, method, body, extraHeaders, parser, false);
+    }
+
+    private <T> T exchange(Web2WaveEndpoint endpoint, String url, String method, String body,
+                           Map<String, String> extraHeaders, BodyParser<T> parser, boolean conditional) throws IOException {
+        RetryPolicy retry = METHOD_TYPE_GET.equals(method) ? retryPolicy : RetryPolicy.none();
+        CircuitBreaker breaker = circuitBreakers.get(endpoint);
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            if (breaker != null) breaker.acquire();
+            // Every acquired attempt either records an outcome or releases its probe below.
+            boolean recorded = breaker == null;
+            long retryAfterMillis = -1;
+            try {
+                T result = exchangeOnce(endpoint, url, method, body, extraHeaders, parser, conditional);
+                if (breaker != null) breaker.onSuccess();
+                recorded = true;
+                return result;
+            } catch (HttpStatusException e) {
+                boolean serverFailure = isRetryableStatus(e.code);
+                if (breaker != null) {
+                    if (serverFailure) breaker.onFailure();
+                    else breaker.onSuccess();
+                }
+                recorded = true;
+                if (!serverFailure || attempt >= retry.getMaxAttempts()) throw e;
+                if (e.retryAfterMillis >= 0) {
+                    if (!retry.honorsRetryAfter(e.retryAfterMillis)) throw e;
+                    retryAfterMillis = e.retryAfterMillis;
+                }
+            } catch (IOException e) {
+                CallScope scope = CURRENT_SCOPE.get();
+                if (scope != null && scope.isCanceled()) throw e;
+                if (breaker != null) breaker.onFailure();
+                recorded = true;
+                if (attempt >= retry.getMaxAttempts()) throw e;
+            } catch (RuntimeException e) {
+                // A body the parser rejects is the server's fault as much as a 5xx.
+                if (breaker != null) breaker.onFailure();
+                recorded = true;
+                throw e;
+            } finally {
+                if (!recorded) breaker.release();
+            }
+
+            long delay = retryAfterMillis >= 0 ? retryAfterMillis : retry.backoffMillis(attempt);
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry");
+            }
+        }
+    }
+
+    private static boolean isRetryableStatus(int code) {
+        return code >= 500 || code == 429 || code == HttpURLConnection.HTTP_CLIENT_TIMEOUT;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T exchangeOnce(Web2WaveEndpoint endpoint, String url, String method, String body,
+                               Map<String, String> extraHeaders, BodyParser<T> parser, boolean conditional) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("api-key", apiKey);
+        if (extraHeaders != null) headers.putAll(extraHeaders);
+        ConditionalCache validators = conditional ? conditionalCache : null;
+        ConditionalCache.Entry cached = validators != null ? validators.get(url, parser) : null;
+        if (cached != null) {
+            if (cached.etag != null) headers.put("If-None-Match", cached.etag);
+            if (cached.lastModified != null) headers.put("If-Modified-Since", cached.lastModified);
+        }
+        byte[] bytes = null;
+        if (body != null) {
+            headers.put("Content-Type", "application/json");
+            bytes = body.getBytes(StandardCharsets.UTF_8);
+        }
+
+        Web2WaveMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+        int code = -1;
+        long connectNanos = -1;
+        long firstByteNanos = -1;
+        long parseNanos = 0;
+        Web2WaveMetrics.CountingInputStream counted = null;
+        Exception error = null;
+
+        Web2WaveTransport.Call call = transport.newCall(new Web2WaveRequest(method, url, headers, bytes));
+        CallScope scope = CURRENT_SCOPE.get();
+        if (scope != null) scope.bind(call);
+        try (Web2WaveResponse response = call.execute()) {
+            code = response.getCode();
+            MutationOutbox outbox = mutationOutbox;
+            if (outbox != null) outbox.onNetworkAvailable();
+            if (metrics != null) {
+                connectNanos = response.getConnectNanos();
+                firstByteNanos = response.getFirstByteNanos();
+            }
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                validators.onNotModified(cached);
+                return (T) cached.value;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(code, RetryPolicy.parseRetryAfter(response.getHeader("Retry-After")));
+            }
+            if (metrics == null && validators == null) {
+                return parser.parse(response.getBody());
+            }
+            counted = new Web2WaveMetrics.CountingInputStream(response.getBody());
+            long parseStart = System.nanoTime();
+            T result = parser.parse(counted);
+            parseNanos = System.nanoTime() - parseStart;
+            if (validators != null && result != null) {
+                validators.put(url, response.getHeader("ETag"), response.getHeader("Last-Modified"),
+                        parser, result, counted.count);
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            if (scope != null) scope.unbind(call);
+            if (metrics != null) {
+                metrics.record(endpoint, method, code, connectNanos, firstByteNanos, System.nanoTime() - start,
+                        counted != null ? counted.count : 0, parseNanos, error);
+            }
+        }
+    }
+
+    private static final class MalformedResponseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        MalformedResponseException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+        final long retryAfterMillis;
+
+        HttpStatusException(int code, long retryAfterMillis) {
+            super("Unexpected response code: " + code);
+            this.code = code;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+
+    static String readBody(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private interface BodyParser<T> {
+        T parse(InputStream body) throws IOException;
+    }
+
+    private static final BodyParser<String> RAW_BODY_PARSER = Web2WaveClient::readBody;
+    private static final BodyParser<SubscriptionStatus> SUBSCRIPTION_STATUS_PARSER =
+            body -> SubscriptionStatus.read(JsonStreamReader.of(body));
+    private static final BodyParser<UserProperties> USER_PROPERTIES_PARSER =
+            body -> UserProperties.read(JsonStreamReader.of(body));
+    // For responses that are also written to the snapshot: the conditional cache keeps the body
+    // next to its model, so a 304 refreshes the snapshot without parsing the body again.
+    private static final BodyParser<ParsedBody<SubscriptionStatus>> SUBSCRIPTION_STATUS_BODY_PARSER = body -> {
+        String raw = readBody(body);
+        return new ParsedBody<>(raw, SubscriptionStatus.read(JsonStreamReader.of(raw)));
+    };
+    private static final BodyParser<ParsedBody<UserProperties>> USER_PROPERTIES_BODY_PARSER = body -> {
+        String raw = readBody(body);
+        return new ParsedBody<>(raw, UserProperties.read(JsonStreamReader.of(raw)));
+    };
+
+    private static final class ParsedBody<T> {
+        final String raw;
+        final T value;
+
+        ParsedBody(String raw, T value) {
+            this.raw = raw;
+            this.value = value;
+        }
+    }
+
+    // Lets a cancelled async future abort the transport call its worker is blocked on.
+    private static final class CallScope {
+        private Web2WaveTransport.Call call;
+        private boolean canceled;
+
+        synchronized void bind(Web2WaveTransport.Call call) {
+            this.call = call;
+            if (canceled) call.cancel();
+        }
+
+        synchronized void unbind(Web2WaveTransport.Call call) {
+            if (this.call == call) this.call = null;
+        }
+
+        synchronized void cancel() {
+            canceled = true;
+            if (call != null) call.cancel();
+        }
+
+        synchronized boolean isCanceled() {
+            return canceled;
+        }
+    }
+
+    public static final class Builder {
+        private final String apiKey;
+        private String baseUrl = DEFAULT_BASE_URL;
+        private Web2WaveTransport transport;
+        private ExecutorService executor;
+        private Executor callbackExecutor = Runnable::run;
+        private long cacheTtlMillis;
+        private int cacheMaxEntries;
+        private File snapshotDirectory;
+        private long snapshotMaxAgeMillis;
+        private EntitlementSnapshot snapshot;
+        private long writeBehindDelayMillis;
+        private int writeBehindMaxPending;
+        private File outboxDirectory;
+        private int outboxMaxAttempts;
+        private RetryPolicy retryPolicy = RetryPolicy.defaults();
+        private CircuitBreakerPolicy circuitBreakerPolicy = CircuitBreakerPolicy.defaults();
+        private CircuitBreakerListener circuitBreakerListener;
+        private boolean metricsEnabled;
+        private Web2WaveMetricsListener metricsListener;
+        private int conditionalMaxEntries = ConditionalCache.DEFAULT_MAX_ENTRIES;
+        private final int[] laneMaxConcurrency = RequestScheduler.DEFAULT_MAX_CONCURRENCY.clone();
+        private final int[] laneQueueCapacity = RequestScheduler.DEFAULT_QUEUE_CAPACITY.clone();
+        private long propertyTtlMillis;
+        private int propertyMaxEntries;
+        private long pollFastIntervalMillis = EntitlementPoller.DEFAULT_FAST_INTERVAL_MILLIS;
+        private long pollMinIdleIntervalMillis = EntitlementPoller.DEFAULT_MIN_IDLE_INTERVAL_MILLIS;
+        private long pollMaxIdleIntervalMillis = EntitlementPoller.DEFAULT_MAX_IDLE_INTERVAL_MILLIS;
+
+        public Builder(String apiKey) {
+            if (apiKey == null) {
+                throw new IllegalArgumentException("apiKey must not be null");
+            }
+            this.apiKey = apiKey;
+        }
+
+        public Builder baseUrl(String baseUrl) {
+            if (baseUrl == null || !(baseUrl.startsWith("http://") || baseUrl.startsWith("https://"))) {
+                throw new IllegalArgumentException("baseUrl must be an http(s) URL");
+            }
+            this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+            return this;
+        }
+
+        public Builder transport(Web2WaveTransport transport) {
+            if (transport == null) {
+                throw new IllegalArgumentException("transport must not be null");
+            }
+            this.transport = transport;
+            return this;
+        }
+
+        // Not shut down by close(); the caller owns it. Lanes only stay independent if it has at
+        // least as many threads as the lanes' combined maxConcurrency.
+        public Builder executor(ExecutorService executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("executor must not be null");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder callbackExecutor(Executor callbackExecutor) {
+            if (callbackExecutor == null) {
+                throw new IllegalArgumentException("callbackExecutor must not be null");
+            }
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        public Builder subscriptionCache(long ttlMillis, int maxEntries) {
+            if (ttlMillis < 0 || maxEntries <= 0) {
+                throw new IllegalArgumentException("ttlMillis must be >= 0 and maxEntries > 0");
+            }
+            this.cacheTtlMillis = ttlMillis;
+            this.cacheMaxEntries = maxEntries;
+            return this;
+        }
+
+        // Users whose properties are kept in memory. Reads older than ttlMillis are still served
+        // and refreshed in the background.
+        public Builder propertyStore(long ttlMillis, int maxEntries) {
+            if (ttlMillis < 0 || maxEntries <= 0) {
+                throw new IllegalArgumentException("ttlMillis must be >= 0 and maxEntries > 0");
+            }
+            this.propertyTtlMillis = ttlMillis;
+            this.propertyMaxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder entitlementSnapshot(File directory, long maxAgeMillis) {
+            if (maxAgeMillis <= 0) {
+                throw new IllegalArgumentException("maxAgeMillis must be > 0");
+            }
+            this.snapshotDirectory = directory;
+            this.snapshotMaxAgeMillis = maxAgeMillis;
+            this.snapshot = null;
+            return this;
+        }
+
+        // Uses a snapshot that outlives this client, e.g. one already loading via loadAsync(). It is
+        // not reread on build, and records it handed out before are not handed out again.
+        public Builder entitlementSnapshot(EntitlementSnapshot snapshot) {
+            if (snapshot == null) {
+                throw new IllegalArgumentException("snapshot must not be null");
+            }
+            this.snapshot = snapshot;
+            this.snapshotDirectory = null;
+            return this;
+        }
+
+        public Builder propertyWriteBehind(long delayMillis, int maxPending) {
+            if (delayMillis < 0 || maxPending <= 0) {
+                throw new IllegalArgumentException("delayMillis must be >= 0 and maxPending > 0");
+            }
+            this.writeBehindDelayMillis = delayMillis;
+            this.writeBehindMaxPending = maxPending;
+            return this;
+        }
+
+        public Builder outbox(File directory, int maxAttempts) {
+            if (maxAttempts <= 0) {
+                throw new IllegalArgumentException("maxAttempts must be > 0");
+            }
+            this.outboxDirectory = directory;
+            this.outboxMaxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy != null ? retryPolicy : RetryPolicy.none();
+            return this;
+        }
+
+        // null disables the circuit breakers.
+        public Builder circuitBreakerPolicy(CircuitBreakerPolicy policy) {
+            this.circuitBreakerPolicy = policy;
+            return this;
+        }
+
+        public Builder circuitBreakerListener(CircuitBreakerListener listener) {
+            this.circuitBreakerListener = listener;
+            return this;
+        }
+
+        public Builder metrics(boolean enabled) {
+            this.metricsEnabled = enabled;
+            return this;
+        }
+
+        public Builder metricsListener(Web2WaveMetricsListener listener) {
+            this.metricsEnabled = true;
+            this.metricsListener = listener;
+            return this;
+        }
+
+        // Validators and parsed results kept for conditional GETs; 0 disables conditional requests.
+        public Builder conditionalRequests(int maxEntries) {
+            if (maxEntries < 0) {
+                throw new IllegalArgumentException("maxEntries must be >= 0");
+            }
+            this.conditionalMaxEntries = maxEntries;
+            return this;
+        }
+
+        // Tasks beyond maxConcurrency wait in the lane's own queue; when that is full new tasks
+        // are rejected, except repeat background refreshes, which coalesce with the queued one.
+        public Builder requestLane(RequestPriority priority, int maxConcurrency, int queueCapacity) {
+            if (priority == null) {
+                throw new IllegalArgumentException("priority must not be null");
+            }
+            if (maxConcurrency <= 0 || queueCapacity < 0) {
+                throw new IllegalArgumentException("maxConcurrency must be > 0 and queueCapacity >= 0");
+            }
+            laneMaxConcurrency[priority.ordinal()] = maxConcurrency;
+            laneQueueCapacity[priority.ordinal()] = queueCapacity;
+            return this;
+        }
+
+        // fastIntervalMillis applies for a minute after a purchase; otherwise polls start at
+        // minIdleIntervalMillis and double while nothing changes, up to maxIdleIntervalMillis.
+        public Builder entitlementPolling(long fastIntervalMillis, long minIdleIntervalMillis, long maxIdleIntervalMillis) {
+            if (fastIntervalMillis <= 0 || minIdleIntervalMillis <= 0 || maxIdleIntervalMillis < minIdleIntervalMillis) {
+                throw new IllegalArgumentException(
+                        "intervals must be > 0 and maxIdleIntervalMillis >= minIdleIntervalMillis");
+            }
+            this.pollFastIntervalMillis = fastIntervalMillis;
+            this.pollMinIdleIntervalMillis = minIdleIntervalMillis;
+            this.pollMaxIdleIntervalMillis = maxIdleIntervalMillis;
+            return this;
+        }
+
+        // Opens the outbox and loads the entitlement snapshot, so this touches disk when those are configured.
+        public Web2WaveClient build() {
+            return new Web2WaveClient(this);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.web2wave;
+
+public enum Web2WaveEndpoint {
+    SUBSCRIPTIONS("api/user/subscriptions"),
+    PROPERTIES("api/user/properties"),
+    CANCEL("api/subscription/cancel"),
+    REFUND("api/subscription/refund"),
+    CHARGE("api/subscription/user/charge");
+
+    private final String path;
+
+    Web2WaveEndpoint(String path) {
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+}
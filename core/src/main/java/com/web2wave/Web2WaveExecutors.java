@@ -0,0 +1,66 @@
+package com.web2wave;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class Web2WaveExecutors {
+
+    static final int DEFAULT_QUEUE_CAPACITY = 128;
+
+    private Web2WaveExecutors() {
+    }
+
+    // Sized by the caller to the sum of the request lanes' concurrency, so lanes never queue here.
+    static ExecutorService newDefaultExecutor(int poolSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(DEFAULT_QUEUE_CAPACITY),
+                new NamedThreadFactory("web2wave-io"),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // Bulk lookup workers. Each lookup starts at most its maxConcurrency workers here, so the
+    // fan-out is bounded per call. Idle threads are kept briefly so back-to-back lookups reuse them.
+    static ExecutorService newBulkExecutor() {
+        return new ThreadPoolExecutor(
+                0,
+                Integer.MAX_VALUE,
+                30, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                new NamedThreadFactory("web2wave-bulk"));
+    }
+
+    // Timers only; anything that does I/O is handed off to the main SDK executor.
+    static ScheduledExecutorService newScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("web2wave-timer"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.web2wave;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+
+class Web2WaveMetrics {
+
+    private volatile Web2WaveMetricsListener listener;
+    private final Map<Web2WaveEndpoint, LatencyHistogram> histograms = new EnumMap<>(Web2WaveEndpoint.class);
+
+    Web2WaveMetrics() {
+        for (Web2WaveEndpoint endpoint : Web2WaveEndpoint.values()) {
+            histograms.put(endpoint, new LatencyHistogram());
+        }
+    }
+
+    void setListener(Web2WaveMetricsListener listener) {
+        this.listener = listener;
+    }
+
+    void record(Web2WaveEndpoint endpoint, String method, int statusCode, long connectNanos,
+                long timeToFirstByteNanos, long totalNanos, long responseBytes, long parseNanos,
+                Exception error) {
+        histograms.get(endpoint).recordNanos(totalNanos);
+        Web2WaveMetricsListener listener = this.listener;
+        if (listener == null) return;
+        try {
+            listener.onRequestCompleted(new RequestMetrics(endpoint, method, statusCode, connectNanos,
+                    timeToFirstByteNanos, totalNanos, responseBytes, parseNanos, error));
+        } catch (RuntimeException e) {
+            System.err.println("Metrics listener failed: " + e.getMessage());
+        }
+    }
+
+    // A call refused before any request was made, e.g. by an open circuit. The listener hears about
+    // it, but it stays out of the latency histogram.
+    void recordRejected(Web2WaveEndpoint endpoint, String method, Exception error) {
+        Web2WaveMetricsListener listener = this.listener;
+        if (listener == null) return;
+        try {
+            listener.onRequestCompleted(new RequestMetrics(endpoint, method, -1, -1, -1, 0, 0, 0, error));
+        } catch (RuntimeException e) {
+            System.err.println("Metrics listener failed: " + e.getMessage());
+        }
+    }
+
+    LatencySnapshot snapshot(Web2WaveEndpoint endpoint) {
+        return histograms.get(endpoint).snapshot();
+    }
+
+    static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
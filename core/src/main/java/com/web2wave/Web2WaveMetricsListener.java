@@ -0,0 +1,5 @@
+package com.web2wave;
+
+public interface Web2WaveMetricsListener {
+    void onRequestCompleted(RequestMetrics metrics);
+}
@@ -0,0 +1,37 @@
+package com.web2wave;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class Web2WaveRequest {
+    private final String method;
+    private final String url;
+    private final Map<String, String> headers;
+    private final byte[] body;
+
+    public Web2WaveRequest(String method, String url, Map<String, String> headers, byte[] body) {
+        this.method = method;
+        this.url = url;
+        this.headers = headers != null
+                ? Collections.unmodifiableMap(new LinkedHashMap<>(headers))
+                : Collections.<String, String>emptyMap();
+        this.body = body;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+}
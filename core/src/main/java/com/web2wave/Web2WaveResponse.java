@@ -0,0 +1,70 @@
+package com.web2wave;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+public final class Web2WaveResponse implements Closeable {
+    private final int code;
+    private final Map<String, String> headers;
+    private final InputStream body;
+    private long connectNanos = -1;
+    private long firstByteNanos = -1;
+
+    public Web2WaveResponse(int code, Map<String, String> headers, InputStream body) {
+        this.code = code;
+        Map<String, String> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                if (entry.getKey() != null) copy.put(entry.getKey(), entry.getValue());
+            }
+        }
+        this.headers = Collections.unmodifiableMap(copy);
+        this.body = body != null ? body : new ByteArrayInputStream(new byte[0]);
+    }
+
+    public static Web2WaveResponse of(int code, String body) {
+        return new Web2WaveResponse(code, null,
+                new ByteArrayInputStream(body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0]));
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    // Filled in by transports that can observe connection setup; -1 otherwise.
+    void setTimings(long connectNanos, long firstByteNanos) {
+        this.connectNanos = connectNanos;
+        this.firstByteNanos = firstByteNanos;
+    }
+
+    long getConnectNanos() {
+        return connectNanos;
+    }
+
+    long getFirstByteNanos() {
+        return firstByteNanos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        body.close();
+    }
+}
@@ -0,0 +1,14 @@
+package com.web2wave;
+
+import java.io.IOException;
+
+public interface Web2WaveTransport {
+
+    Call newCall(Web2WaveRequest request);
+
+    interface Call {
+        Web2WaveResponse execute() throws IOException;
+
+        void cancel();
+    }
+}
@@ -0,0 +1,713 @@
+package com.web2wave;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+// Bounded LRU disk cache for the static assets of funnel pages (scripts, styles, fonts, images).
+// Only responses that are safe to reuse without revalidation are stored: URLs carrying a content
+// hash, and responses marked immutable or with a positive max-age. Other static-looking requests
+// are streamed through with the upstream status and headers, and anything else is left to the
+// WebView.
+public final class WebAssetCache implements Closeable {
+
+    private static final int MAGIC = 0x57324143;
+    private static final int VERSION = 2;
+    private static final String SUFFIX = ".asset";
+    private static final String RETIRED_SUFFIX = ".retired";
+    private static final long NEVER = Long.MAX_VALUE;
+
+    // e.g. main.3f9a2c1b.js, chunk-0a1b2c3d4e.css. The run must contain a letter so dates such as
+    // report-20240101-x.js are not taken for content hashes.
+    private static final Pattern HASHED_NAME =
+            Pattern.compile(".*[._-](?=[0-9a-fA-F]*[a-fA-F])[0-9a-fA-F]{8,}[._-].*");
+
+    private static final Set<String> STATIC_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "js", "mjs", "css", "woff", "woff2", "ttf", "otf", "eot",
+            "png", "jpg", "jpeg", "gif", "webp", "avif", "svg", "ico", "mp3", "mp4", "webm"));
+
+    // Stripped before forwarding so the body arrives whole and decoded, and can be stored.
+    private static final Set<String> DROPPED_REQUEST_HEADERS = lowerCaseSet(
+            "Accept-Encoding", "If-None-Match", "If-Modified-Since");
+    // Describe the upstream connection rather than the body that is handed to the WebView.
+    private static final Set<String> DROPPED_RESPONSE_HEADERS = lowerCaseSet(
+            "Content-Encoding", "Content-Length", "Transfer-Encoding", "Connection", "Set-Cookie");
+
+    private final File directory;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final Web2WaveTransport transport;
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final ThreadPoolExecutor prefetchExecutor;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+    private boolean loaded;
+    private long retiredSequence;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public WebAssetCache(File directory, long maxBytes) {
+        this(directory, maxBytes, new HttpUrlConnectionTransport());
+    }
+
+    public WebAssetCache(File directory, long maxBytes, Web2WaveTransport transport) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory must not be null");
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be > 0");
+        }
+        if (transport == null) {
+            throw new IllegalArgumentException("transport must not be null");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.max(1, maxBytes / 4);
+        this.transport = transport;
+        this.prefetchExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new Web2WaveExecutors.NamedThreadFactory("web2wave-prefetch"));
+        this.prefetchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Returns the asset from disk, or fetches it when the URL looks like a static asset (storing
+    // it when cacheable). Returns null when the caller should load the URL itself: other URLs,
+    // ranged requests and I/O errors. A fetched response that is not stored is streamed through
+    // once, whatever its status, so the URL is never requested twice.
+    public Asset get(String url, Map<String, String> requestHeaders) {
+        if (requestHeaders != null && containsIgnoreCase(requestHeaders, "Range")) return null;
+
+        Asset cached = lookup(url);
+        if (cached != null) {
+            hits.incrementAndGet();
+            bytesSaved.addAndGet(cached.getLength());
+            return cached;
+        }
+        if (!isStaticAsset(url)) return null;
+        misses.incrementAndGet();
+        return singleFlight.execute(url, () -> fetch(url, requestHeaders));
+    }
+
+    static boolean isStaticAsset(String url) {
+        String name = fileName(url);
+        if (HASHED_NAME.matcher(name).matches()) return true;
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && STATIC_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.US));
+    }
+
+    // Manifest: a JSON array of URLs, or an object with an "assets" array. Relative URLs are
+    // resolved against the manifest URL. Returns the number of assets newly stored; a manifest
+    // that cannot be fetched or read is reported as an IOException. Assets that fail to download
+    // are skipped and counted by getFailureCount().
+    public int prefetch(String manifestUrl) throws IOException {
+        List<String> urls = new ArrayList<>();
+        try (Web2WaveResponse response = transport.newCall(new Web2WaveRequest("GET", manifestUrl, null, null)).execute()) {
+            if (response.getCode() != 200) {
+                throw new IOException("Failed to fetch asset manifest: HTTP " + response.getCode());
+            }
+            Object manifest;
+            try (JsonStreamReader reader = JsonStreamReader.of(response.getBody())) {
+                manifest = reader.readValue();
+            }
+            if (manifest instanceof Map) manifest = ((Map<?, ?>) manifest).get("assets");
+            if (!(manifest instanceof List)) {
+                throw new IOException("Asset manifest has no asset list");
+            }
+            URI base = URI.create(manifestUrl);
+            for (Object item : (List<?>) manifest) {
+                if (item instanceof String) urls.add(base.resolve((String) item).toString());
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid asset manifest URL: " + e.getMessage(), e);
+        }
+        return prefetch(urls);
+    }
+
+    public int prefetch(Collection<String> urls) {
+        int stored = 0;
+        for (String url : urls) {
+            Asset cached = lookup(url);
+            if (cached != null) {
+                cached.close();
+                continue;
+            }
+            Asset asset = singleFlight.execute(url, () -> fetch(url, null));
+            if (asset == null) continue;
+            if (asset.isStored()) stored++;
+            asset.close();
+        }
+        return stored;
+    }
+
+    // Completes exceptionally with the IOException when the manifest cannot be fetched or read.
+    public CompletableFuture<Integer> prefetchAsync(String manifestUrl) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        try {
+            prefetchExecutor.execute(() -> {
+                try {
+                    future.complete(prefetch(manifestUrl));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // Stops the prefetch thread once queued prefetches finish. Lookups keep working, and the
+    // stored assets stay on disk for the next instance.
+    @Override
+    public void close() {
+        prefetchExecutor.shutdown();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    // Bytes served from disk instead of the network.
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    // Assets that could not be fetched or stored because of an I/O error. A failed fetch is left
+    // to the WebView; a failed store is still served once from memory.
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public synchronized long getSizeBytes() {
+        ensureLoaded();
+        return sizeBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        ensureLoaded();
+        List<Entry> removed = new ArrayList<>(entries.values());
+        entries.clear();
+        sizeBytes = 0;
+        for (Entry entry : removed) retire(entry);
+    }
+
+    private Asset lookup(String url) {
+        Entry entry;
+        synchronized (this) {
+            ensureLoaded();
+            entry = entries.get(key(url));
+            if (entry == null) return null;
+            if (entry.expiresAt <= System.currentTimeMillis()) {
+                remove(entry);
+                return null;
+            }
+            entry.readers++;
+        }
+        // Keeps recency across restarts, since the index is rebuilt from modification times.
+        entry.file.setLastModified(System.currentTimeMillis());
+        return new Asset(200, entry.headers, entry.mimeType, entry.charset, this, entry,
+                entry.bodyLength, null, null);
+    }
+
+    private Asset fetch(String url, Map<String, String> requestHeaders) {
+        Web2WaveResponse response = null;
+        try {
+            response = transport.newCall(new Web2WaveRequest("GET", url, forwardable(requestHeaders), null)).execute();
+            Map<String, String> headers = passThrough(response.getHeaders());
+
+            String mimeType = null;
+            String charset = null;
+            String contentType = response.getHeader("Content-Type");
+            if (contentType != null) {
+                String[] parts = contentType.split(";");
+                mimeType = parts[0].trim();
+                for (int i = 1; i < parts.length; i++) {
+                    String part = parts[i].trim();
+                    if (part.regionMatches(true, 0, "charset=", 0, 8)) charset = part.substring(8).replace("\"", "");
+                }
+            }
+            if (mimeType == null || mimeType.isEmpty()) {
+                mimeType = URLConnection.guessContentTypeFromName(fileName(url));
+                if (mimeType == null) mimeType = "application/octet-stream";
+            }
+
+            InputStream body = response.getBody();
+            long expiresAt = response.getCode() == 200
+                    ? expiresAt(url, response.getHeader("Cache-Control"), System.currentTimeMillis())
+                    : -1;
+            if (expiresAt > 0) {
+                byte[] prefix = readAtMost(body, maxEntryBytes);
+                if (prefix.length <= maxEntryBytes) {
+                    response.close();
+                    response = null;
+                    Entry entry = store(url, headers, mimeType, charset, expiresAt, prefix);
+                    if (entry != null) {
+                        return new Asset(200, headers, mimeType, charset, this, entry,
+                                entry.bodyLength, null, null);
+                    }
+                    return new Asset(200, headers, mimeType, charset, null, null, prefix.length, prefix, null);
+                }
+                // Too large to store: hand over what was read followed by the rest of the body.
+                body = new SequenceInputStream(new ByteArrayInputStream(prefix), body);
+            }
+            Asset streamed = new Asset(response.getCode(), headers, mimeType, charset, null, null, -1, null, body);
+            response = null;
+            return streamed;
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            return null;
+        } finally {
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    // Absolute expiry in millis, NEVER for content-addressed assets, or -1 when not cacheable.
+    static long expiresAt(String url, String cacheControl, long now) {
+        boolean immutable = HASHED_NAME.matcher(fileName(url)).matches();
+        long maxAgeSeconds = -1;
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-store") || directive.equals("no-cache")) return -1;
+                if (directive.equals("immutable")) immutable = true;
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        maxAgeSeconds = Long.parseLong(directive.substring(8).replace("\"", ""));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        if (immutable) return NEVER;
+        if (maxAgeSeconds > 0) return now + maxAgeSeconds * 1000;
+        return -1;
+    }
+
+    private Entry store(String url, Map<String, String> headers, String mimeType, String charset,
+                        long expiresAt, byte[] body) {
+        String key = key(url);
+        File file = new File(directory, key + SUFFIX);
+        Entry entry;
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(header);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(url);
+            out.writeUTF(mimeType);
+            out.writeUTF(charset != null ? charset : "");
+            out.writeLong(expiresAt);
+            out.writeInt(headers.size());
+            for (Map.Entry<String, String> field : headers.entrySet()) {
+                out.writeUTF(field.getKey());
+                out.writeUTF(field.getValue());
+            }
+            out.flush();
+
+            File tmp = new File(directory, key + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                DataOutputStream fileOut = new DataOutputStream(fos);
+                fileOut.writeInt(header.size());
+                header.writeTo(fileOut);
+                fileOut.write(body);
+                fileOut.flush();
+            }
+            entry = new Entry(key, file, headers, mimeType, charset, expiresAt, 4 + header.size(), body.length);
+            synchronized (this) {
+                // The previous version is moved aside first if an asset still reads it.
+                Entry previous = entries.remove(key);
+                if (previous != null) {
+                    sizeBytes -= previous.fileLength();
+                    retire(previous);
+                }
+                if (!tmp.renameTo(file)) {
+                    tmp.delete();
+                    throw new IOException("Cannot replace " + file);
+                }
+                entries.put(key, entry);
+                sizeBytes += entry.fileLength();
+                trim();
+                if (!entries.containsKey(key)) return null;
+                entry.readers++;
+            }
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            return null;
+        }
+        return entry;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        File[] retired = directory.listFiles((dir, name) -> name.endsWith(RETIRED_SUFFIX));
+        if (retired != null) {
+            for (File file : retired) file.delete();
+        }
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            Entry entry = readEntry(file);
+            if (entry == null || entry.expiresAt <= now) {
+                file.delete();
+                continue;
+            }
+            entries.put(entry.key, entry);
+            sizeBytes += entry.fileLength();
+        }
+        trim();
+    }
+
+    private static Entry readEntry(File file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            int headerLength = in.readInt();
+            if (headerLength <= 0 || headerLength > file.length()) return null;
+            byte[] header = new byte[headerLength];
+            in.readFully(header);
+            DataInputStream headerIn = new DataInputStream(new ByteArrayInputStream(header));
+            if (headerIn.readInt() != MAGIC || headerIn.readInt() != VERSION) return null;
+            String url = headerIn.readUTF();
+            String mimeType = headerIn.readUTF();
+            String charset = headerIn.readUTF();
+            long expiresAt = headerIn.readLong();
+            int headerCount = headerIn.readInt();
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < headerCount; i++) {
+                headers.put(headerIn.readUTF(), headerIn.readUTF());
+            }
+            long bodyOffset = 4 + headerLength;
+            String key = key(url);
+            if (!file.getName().equals(key + SUFFIX)) return null;
+            return new Entry(key, file, Collections.unmodifiableMap(headers), mimeType,
+                    charset.isEmpty() ? null : charset, expiresAt, bodyOffset, file.length() - bodyOffset);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void trim() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (sizeBytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            sizeBytes -= eldest.fileLength();
+            retire(eldest);
+        }
+    }
+
+    private void remove(Entry entry) {
+        if (entries.remove(entry.key) != null) sizeBytes -= entry.fileLength();
+        retire(entry);
+    }
+
+    // Called with the entry already out of the index. A file that an asset or an open stream still
+    // reads is renamed aside, so a newer version can take its name, and deleted on the last release.
+    private void retire(Entry entry) {
+        entry.removed = true;
+        if (entry.readers == 0) {
+            entry.file.delete();
+            return;
+        }
+        File aside = new File(directory, entry.key + "." + (retiredSequence++) + RETIRED_SUFFIX);
+        if (entry.file.renameTo(aside)) entry.retiredFile = aside;
+    }
+
+    private synchronized InputStream openEntry(Entry entry, boolean pinned) throws IOException {
+        if (!pinned) {
+            if (entry.removed) throw new IOException("Asset was evicted: " + entry.file.getName());
+            entry.readers++;
+        }
+        File file = entry.retiredFile != null ? entry.retiredFile : entry.file;
+        FileInputStream in;
+        try {
+            in = new FileInputStream(file);
+            long remaining = entry.bodyOffset;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    in.close();
+                    throw new IOException("Truncated asset " + file);
+                }
+                remaining -= skipped;
+            }
+        } catch (IOException e) {
+            release(entry);
+            throw e;
+        }
+        return new FilterInputStream(in) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                try {
+                    super.close();
+                } finally {
+                    release(entry);
+                }
+            }
+        };
+    }
+
+    private synchronized void release(Entry entry) {
+        if (--entry.readers > 0 || !entry.removed) return;
+        if (entry.retiredFile != null) {
+            entry.retiredFile.delete();
+        } else if (entries.get(entry.key) == null) {
+            // The rename failed; the file still has its own name, unless a newer version took it.
+            entry.file.delete();
+        }
+    }
+
+    private static String fileName(String url) {
+        String path = url;
+        int end = path.length();
+        int query = path.indexOf('?');
+        if (query >= 0) end = query;
+        int fragment = path.indexOf('#');
+        if (fragment >= 0 && fragment < end) end = fragment;
+        path = path.substring(0, end);
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static Map<String, String> forwardable(Map<String, String> requestHeaders) {
+        if (requestHeaders == null) return null;
+        Map<String, String> forwarded = new LinkedHashMap<>();
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            if (header.getKey() == null
+                    || DROPPED_REQUEST_HEADERS.contains(header.getKey().toLowerCase(Locale.US))) continue;
+            forwarded.put(header.getKey(), header.getValue());
+        }
+        return forwarded;
+    }
+
+    private static Map<String, String> passThrough(Map<String, String> responseHeaders) {
+        Map<String, String> kept = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
+            if (header.getValue() == null
+                    || DROPPED_RESPONSE_HEADERS.contains(header.getKey().toLowerCase(Locale.US))) continue;
+            kept.put(header.getKey(), header.getValue());
+        }
+        return Collections.unmodifiableMap(kept);
+    }
+
+    private static Set<String> lowerCaseSet(String... names) {
+        Set<String> set = new HashSet<>();
+        for (String name : names) set.add(name.toLowerCase(Locale.US));
+        return set;
+    }
+
+    private static boolean containsIgnoreCase(Map<String, String> headers, String name) {
+        for (String key : headers.keySet()) {
+            if (name.equalsIgnoreCase(key)) return true;
+        }
+        return false;
+    }
+
+    private static String key(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Reads until EOF or until more than limit bytes have been read, whichever comes first.
+    private static byte[] readAtMost(InputStream in, long limit) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while (out.size() <= limit && (read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    public static final class Asset implements Closeable {
+        private final int statusCode;
+        private final Map<String, String> headers;
+        private final String mimeType;
+        private final String charset;
+        private final WebAssetCache cache;
+        private final Entry entry;
+        private final long length;
+        private final byte[] bytes;
+        private InputStream stream;
+        private boolean streamed;
+        // A stored asset keeps its file from being deleted until it is opened or closed.
+        private boolean pinned;
+
+        Asset(int statusCode, Map<String, String> headers, String mimeType, String charset, WebAssetCache cache,
+              Entry entry, long length, byte[] bytes, InputStream stream) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.mimeType = mimeType;
+            this.charset = charset;
+            this.cache = cache;
+            this.entry = entry;
+            this.length = length;
+            this.bytes = bytes;
+            this.stream = stream;
+            this.streamed = stream != null;
+            this.pinned = entry != null;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        // Upstream response headers, minus the ones describing the transfer encoding.
+        public Map<String, String> getResponseHeaders() {
+            return headers;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public String getCharset() {
+            return charset;
+        }
+
+        // -1 when the body is streamed from the network.
+        public long getLength() {
+            return length;
+        }
+
+        // False when the response was fetched but not cacheable, so it is streamed through once.
+        public boolean isStored() {
+            return entry != null;
+        }
+
+        // A streamed body can be opened once; requests coalesced onto the same fetch get an
+        // IOException and should load the URL themselves. So does a stored asset opened again
+        // after it was evicted. The stream keeps the file until it is closed.
+        public synchronized InputStream open() throws IOException {
+            if (streamed) {
+                if (stream == null) throw new IOException("Asset body was already consumed");
+                InputStream in = stream;
+                stream = null;
+                return in;
+            }
+            if (bytes != null) return new ByteArrayInputStream(bytes);
+            boolean wasPinned = pinned;
+            pinned = false;
+            return cache.openEntry(entry, wasPinned);
+        }
+
+        // Releases a body that will not be opened.
+        @Override
+        public synchronized void close() {
+            if (pinned) {
+                pinned = false;
+                cache.release(entry);
+            }
+            if (stream == null) return;
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+            stream = null;
+        }
+    }
+
+    private static final class Entry {
+        final String key;
+        final File file;
+        final Map<String, String> headers;
+        final String mimeType;
+        final String charset;
+        final long expiresAt;
+        final long bodyOffset;
+        final long bodyLength;
+        // Guarded by the cache: live assets and open streams, whether the entry has left the
+        // index, and where its file was moved to if it had readers then.
+        int readers;
+        boolean removed;
+        File retiredFile;
+
+        Entry(String key, File file, Map<String, String> headers, String mimeType, String charset,
+              long expiresAt, long bodyOffset, long bodyLength) {
+            this.key = key;
+            this.file = file;
+            this.headers = headers;
+            this.mimeType = mimeType;
+            this.charset = charset;
+            this.expiresAt = expiresAt;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+        }
+
+        long fileLength() {
+            return bodyOffset + bodyLength;
+        }
+    }
+}
@@ -0,0 +1,511 @@
+package com.web2wave;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+// Durable record of web page events for bulk upload. Appends only buffer in memory; a flusher
+// writes the buffer to a fixed-size ring file and syncs once per batch, so a busy funnel costs one
+// fsync per interval rather than one per event. When the ring is full the oldest events are
+// overwritten. Terminal events (quiz finished, close) are flushed straight away.
+//
+// File layout: [magic, version, capacity, head, used, next sequence] then a circular data area of
+// capacity bytes holding records [length, crc, sequence, timestamp, utf-8 json]. A record may wrap
+// around the end of the data area. The header is only advanced after the records it covers are
+// synced, and records are checked against their CRC on load, so a crash loses at most the unsynced
+// batch.
+public final class WebEventLog implements Closeable {
+
+    public interface BatchHandler {
+        // Return true once the batch is safely handled; the events are then removed from the log.
+        boolean onBatch(List<RecordedEvent> events);
+    }
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1_000;
+    public static final long MIN_MAX_BYTES = 4 * 1024;
+
+    static final String FILE_NAME = "web2wave_events.ring";
+    private static final int MAGIC = 0x57325745;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int RECORD_HEADER_SIZE = 24;
+    private static final int FLUSH_THRESHOLD_BYTES = 16 * 1024;
+
+    private final File file;
+    private final long capacity;
+    private final long flushIntervalMillis;
+    private final ScheduledExecutorService flusher;
+
+    private final Object pendingLock = new Object();
+    private List<Pending> pending = new ArrayList<>();
+    private long pendingBytes;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean flushDue;
+    private volatile boolean closed;
+
+    // File state, guarded by this.
+    private RandomAccessFile raf;
+    private long head;
+    private long used;
+    private int count;
+    private long nextSequence;
+
+    private final AtomicBoolean handlerDraining = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+
+    public WebEventLog(File directory, long maxBytes) {
+        this(directory, maxBytes, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    // The file is opened on first flush or read, not here.
+    public WebEventLog(File directory, long maxBytes, long flushIntervalMillis) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory must not be null");
+        }
+        if (maxBytes < MIN_MAX_BYTES) {
+            throw new IllegalArgumentException("maxBytes must be >= " + MIN_MAX_BYTES);
+        }
+        if (flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("flushIntervalMillis must be >= 0");
+        }
+        this.file = new File(directory, FILE_NAME);
+        this.capacity = maxBytes - HEADER_SIZE;
+        this.flushIntervalMillis = flushIntervalMillis;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new Web2WaveExecutors.NamedThreadFactory("web2wave-event-log"));
+        executor.setRemoveOnCancelPolicy(true);
+        this.flusher = executor;
+    }
+
+    // Cheap enough for the bridge thread: no I/O, just a buffer append. Returns false if the event
+    // is too large for the log or the log is closed.
+    public boolean append(String json) {
+        if (json == null) return false;
+        byte[] payload = json.getBytes(StandardCharsets.UTF_8);
+        long size = RECORD_HEADER_SIZE + payload.length;
+        if (size > capacity / 4) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        boolean urgent = json.contains(WebEventPipeline.EVENT_QUIZ_FINISHED)
+                || json.contains(WebEventPipeline.EVENT_CLOSE_WEB_VIEW);
+        synchronized (pendingLock) {
+            if (closed) return false;
+            pending.add(new Pending(System.currentTimeMillis(), payload));
+            pendingBytes += size;
+            // The disk is not keeping up; the ring would overwrite these anyway.
+            while (pendingBytes > capacity) {
+                pendingBytes -= pending.remove(0).size();
+                dropped.incrementAndGet();
+            }
+            if (urgent || pendingBytes >= FLUSH_THRESHOLD_BYTES) {
+                scheduleFlush(0);
+            } else if (scheduledFlush == null) {
+                scheduleFlush(flushIntervalMillis);
+            }
+        }
+        return true;
+    }
+
+    // Writes and syncs buffered events now on the calling thread.
+    public void flush() {
+        synchronized (this) {
+            try {
+                flushLocked();
+            } catch (IOException e) {
+                System.err.println("Failed to write web event log: " + e.getMessage());
+            }
+        }
+    }
+
+    // Asks the flusher to write buffered events soon, without blocking the caller.
+    public void requestFlush() {
+        synchronized (pendingLock) {
+            if (!pending.isEmpty()) scheduleFlush(0);
+        }
+    }
+
+    // Removes and returns up to maxBatch of the oldest events.
+    public List<RecordedEvent> drainEvents(int maxBatch) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("maxBatch must be > 0");
+        }
+        synchronized (this) {
+            try {
+                flushLocked();
+                List<RecordedEvent> events = readLocked(maxBatch);
+                if (!events.isEmpty()) removeThroughLocked(events.get(events.size() - 1).sequence);
+                return events;
+            } catch (IOException e) {
+                System.err.println("Failed to read web event log: " + e.getMessage());
+                return Collections.emptyList();
+            }
+        }
+    }
+
+    // Hands up to maxBatch of the oldest events to the handler, outside the log's lock, and removes
+    // them only if it returns true. Returns the number removed; 0 if another handler drain is running.
+    public int drainEvents(int maxBatch, BatchHandler handler) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("maxBatch must be > 0");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler must not be null");
+        }
+        if (!handlerDraining.compareAndSet(false, true)) return 0;
+        try {
+            List<RecordedEvent> events;
+            synchronized (this) {
+                flushLocked();
+                events = readLocked(maxBatch);
+            }
+            if (events.isEmpty() || !handler.onBatch(Collections.unmodifiableList(events))) return 0;
+            synchronized (this) {
+                // Sequences, not positions: the ring may have overwritten some of the batch meanwhile.
+                return removeThroughLocked(events.get(events.size() - 1).sequence);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read web event log: " + e.getMessage());
+            return 0;
+        } finally {
+            handlerDraining.set(false);
+        }
+    }
+
+    public int getEventCount() {
+        int buffered;
+        synchronized (pendingLock) {
+            buffered = pending.size();
+        }
+        synchronized (this) {
+            try {
+                openLocked();
+            } catch (IOException e) {
+                System.err.println("Failed to open web event log: " + e.getMessage());
+            }
+            return count + buffered;
+        }
+    }
+
+    // Events lost to a full ring, oversized payloads or a stalled disk.
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    long getSyncCount() {
+        return syncs.get();
+    }
+
+    @Override
+    public void close() {
+        synchronized (pendingLock) {
+            closed = true;
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+        }
+        flusher.shutdown();
+        synchronized (this) {
+            try {
+                flushLocked();
+                if (raf != null) raf.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close web event log: " + e.getMessage());
+            }
+            raf = null;
+        }
+    }
+
+    // Caller holds pendingLock. An immediate flush replaces a pending delayed one.
+    private void scheduleFlush(long delayMillis) {
+        if (scheduledFlush != null) {
+            if (delayMillis > 0 || flushDue) return;
+            scheduledFlush.cancel(false);
+        }
+        flushDue = delayMillis == 0;
+        try {
+            scheduledFlush = flusher.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            scheduledFlush = null;
+        }
+    }
+
+    private List<Pending> takePending() {
+        synchronized (pendingLock) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            flushDue = false;
+            if (pending.isEmpty()) return Collections.emptyList();
+            List<Pending> batch = pending;
+            pending = new ArrayList<>();
+            pendingBytes = 0;
+            return batch;
+        }
+    }
+
+    private void flushLocked() throws IOException {
+        List<Pending> batch = takePending();
+        if (batch.isEmpty()) return;
+        openLocked();
+
+        long needed = 0;
+        for (Pending event : batch) needed += event.size();
+
+        long newHead = head;
+        long newUsed = used;
+        int evicted = 0;
+        while (newUsed + needed > capacity) {
+            long size = RECORD_HEADER_SIZE + readIntAt(newHead);
+            newHead = (newHead + size) % capacity;
+            newUsed -= size;
+            evicted++;
+        }
+        if (evicted > 0) {
+            // Commit the eviction before its bytes are overwritten.
+            writeHeader(newHead, newUsed);
+            sync();
+            head = newHead;
+            used = newUsed;
+            count -= evicted;
+            dropped.addAndGet(evicted);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) needed);
+        for (Pending event : batch) {
+            writeRecord(buffer, nextSequence++, event);
+        }
+        writeCircular((head + used) % capacity, buffer.array(), buffer.position());
+        writeHeader(head, used + needed);
+        sync();
+        used += needed;
+        count += batch.size();
+    }
+
+    private List<RecordedEvent> readLocked(int maxBatch) throws IOException {
+        openLocked();
+        List<RecordedEvent> events = new ArrayList<>(Math.min(maxBatch, count));
+        long position = head;
+        for (int i = 0; i < count && events.size() < maxBatch; i++) {
+            byte[] header = readCircular(position, RECORD_HEADER_SIZE);
+            ByteBuffer fields = ByteBuffer.wrap(header);
+            int length = fields.getInt();
+            fields.getInt();
+            long sequence = fields.getLong();
+            long timestamp = fields.getLong();
+            byte[] payload = readCircular((position + RECORD_HEADER_SIZE) % capacity, length);
+            events.add(new RecordedEvent(sequence, timestamp, new String(payload, StandardCharsets.UTF_8)));
+            position = (position + RECORD_HEADER_SIZE + length) % capacity;
+        }
+        return events;
+    }
+
+    private int removeThroughLocked(long sequence) throws IOException {
+        long newHead = head;
+        long newUsed = used;
+        int removed = 0;
+        while (removed < count) {
+            byte[] header = readCircular(newHead, RECORD_HEADER_SIZE);
+            ByteBuffer fields = ByteBuffer.wrap(header);
+            int length = fields.getInt();
+            fields.getInt();
+            if (fields.getLong() > sequence) break;
+            newHead = (newHead + RECORD_HEADER_SIZE + length) % capacity;
+            newUsed -= RECORD_HEADER_SIZE + length;
+            removed++;
+        }
+        if (removed == 0) return 0;
+        writeHeader(newHead, newUsed);
+        sync();
+        head = newHead;
+        used = newUsed;
+        count -= removed;
+        return removed;
+    }
+
+    private void openLocked() throws IOException {
+        if (raf != null) return;
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        raf = new RandomAccessFile(file, "rw");
+        if (!load()) reset();
+    }
+
+    // Walks the records from the stored head and keeps the valid prefix. Returns false when the
+    // file is new, foreign or sized for a different capacity.
+    private boolean load() throws IOException {
+        if (raf.length() < HEADER_SIZE) return false;
+        raf.seek(0);
+        if (raf.readInt() != MAGIC || raf.readInt() != VERSION || raf.readLong() != capacity) return false;
+        long storedHead = raf.readLong();
+        long storedUsed = raf.readLong();
+        long storedSequence = raf.readLong();
+        if (storedHead < 0 || storedHead >= capacity || storedUsed < 0 || storedUsed > capacity
+                || raf.length() < HEADER_SIZE + capacity) {
+            return false;
+        }
+
+        head = storedHead;
+        used = 0;
+        count = 0;
+        nextSequence = storedSequence;
+        long position = storedHead;
+        while (storedUsed - used >= RECORD_HEADER_SIZE) {
+            ByteBuffer fields = ByteBuffer.wrap(readCircular(position, RECORD_HEADER_SIZE));
+            int length = fields.getInt();
+            int crc = fields.getInt();
+            if (length < 0 || RECORD_HEADER_SIZE + (long) length > storedUsed - used) break;
+            byte[] payload = readCircular((position + RECORD_HEADER_SIZE) % capacity, length);
+            if (crc != checksum(fields.array(), payload)) break;
+            nextSequence = Math.max(nextSequence, fields.getLong() + 1);
+            used += RECORD_HEADER_SIZE + length;
+            count++;
+            position = (position + RECORD_HEADER_SIZE + length) % capacity;
+        }
+        if (used != storedUsed) {
+            writeHeader(head, used);
+            sync();
+        }
+        return true;
+    }
+
+    private void reset() throws IOException {
+        raf.setLength(HEADER_SIZE + capacity);
+        head = 0;
+        used = 0;
+        count = 0;
+        writeHeader(0, 0);
+        sync();
+    }
+
+    private void writeHeader(long head, long used) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(capacity).putLong(head).putLong(used).putLong(nextSequence);
+        raf.seek(0);
+        raf.write(header.array());
+    }
+
+    private void sync() throws IOException {
+        raf.getFD().sync();
+        syncs.incrementAndGet();
+    }
+
+    private void writeRecord(ByteBuffer buffer, long sequence, Pending event) {
+        ByteBuffer fields = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        fields.putInt(event.payload.length).putInt(0).putLong(sequence).putLong(event.timestamp);
+        int crc = checksum(fields.array(), event.payload);
+        fields.putInt(4, crc);
+        buffer.put(fields.array()).put(event.payload);
+    }
+
+    // Covers sequence, timestamp and payload; the length is checked against the used size instead.
+    private static int checksum(byte[] header, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(header, 8, RECORD_HEADER_SIZE - 8);
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private int readIntAt(long position) throws IOException {
+        return ByteBuffer.wrap(readCircular(position, 4)).getInt();
+    }
+
+    private byte[] readCircular(long position, int length) throws IOException {
+        byte[] data = new byte[length];
+        int first = (int) Math.min(length, capacity - position);
+        raf.seek(HEADER_SIZE + position);
+        raf.readFully(data, 0, first);
+        if (first < length) {
+            raf.seek(HEADER_SIZE);
+            raf.readFully(data, first, length - first);
+        }
+        return data;
+    }
+
+    private void writeCircular(long position, byte[] data, int length) throws IOException {
+        int first = (int) Math.min(length, capacity - position);
+        raf.seek(HEADER_SIZE + position);
+        raf.write(data, 0, first);
+        if (first < length) {
+            raf.seek(HEADER_SIZE);
+            raf.write(data, first, length - first);
+        }
+    }
+
+    public static final class RecordedEvent {
+        private final long sequence;
+        private final long timestampMillis;
+        private final String json;
+        private WebEventPipeline.Event parsed;
+
+        RecordedEvent(long sequence, long timestampMillis, String json) {
+            this.sequence = sequence;
+            this.timestampMillis = timestampMillis;
+            this.json = json;
+        }
+
+        // Increases by one per recorded event and survives restarts, so uploads can be deduplicated.
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestampMillis() {
+            return timestampMillis;
+        }
+
+        // The message exactly as the page posted it.
+        public String getJson() {
+            return json;
+        }
+
+        // null when the message is not a well-formed event.
+        public String getName() {
+            WebEventPipeline.Event event = parsed();
+            return event != null ? event.name : null;
+        }
+
+        public Map<String, Object> getData() {
+            WebEventPipeline.Event event = parsed();
+            return event != null ? event.data : null;
+        }
+
+        private WebEventPipeline.Event parsed() {
+            if (parsed == null) parsed = WebEventPipeline.parse(json);
+            return parsed;
+        }
+    }
+
+    private static final class Pending {
+        final long timestamp;
+        final byte[] payload;
+
+        Pending(long timestamp, byte[] payload) {
+            this.timestamp = timestamp;
+            this.payload = payload;
+        }
+
+        long size() {
+            return RECORD_HEADER_SIZE + payload.length;
+        }
+    }
+}
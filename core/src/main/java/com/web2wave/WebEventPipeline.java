@@ -0,0 +1,337 @@
+package com.web2wave;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Decouples the page's postMessage calls from the listener. Raw messages are queued on the calling
+// (bridge) thread; a worker parses them and hands them to the dispatch executor in batches.
+// Terminal events (quiz finished, close) bypass the capacity limit and are never dropped.
+// Events parsed while no listener is set are held, within the same capacity, and handed to the
+// next listener that is set.
+public final class WebEventPipeline implements Closeable {
+
+    public enum OverflowPolicy {
+        // Discard the incoming event.
+        DROP_NEWEST,
+        // Discard the oldest queued event to make room.
+        DROP_OLDEST,
+        // Block the posting thread until there is room, which stalls the page's script.
+        BLOCK
+    }
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int DEFAULT_MAX_BATCH = 32;
+
+    static final String EVENT_QUIZ_FINISHED = "Quiz finished";
+    static final String EVENT_CLOSE_WEB_VIEW = "Close webview";
+
+    private final Executor dispatchExecutor;
+    private final int capacity;
+    private final int maxBatch;
+    private final OverflowPolicy overflowPolicy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    private int droppableCount;
+    private boolean closed;
+    private Thread worker;
+    private boolean workerExited;
+    // Set by setListener so the worker, not the caller, delivers held events.
+    private boolean deliverHeldRequested;
+
+    private volatile Web2WaveWebListener listener;
+    // Guarded by itself.
+    private final ArrayDeque<Event> held = new ArrayDeque<>();
+    private int heldDroppableCount;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+
+    // A null dispatch executor delivers events on the pipeline's worker thread.
+    public WebEventPipeline(Executor dispatchExecutor, int capacity, int maxBatch, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("maxBatch must be > 0");
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("overflowPolicy must not be null");
+        }
+        this.dispatchExecutor = dispatchExecutor;
+        this.capacity = capacity;
+        this.maxBatch = maxBatch;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public Web2WaveWebListener getListener() {
+        return listener;
+    }
+
+    public void setListener(Web2WaveWebListener listener) {
+        this.listener = listener;
+        if (listener == null) return;
+        synchronized (held) {
+            if (held.isEmpty()) return;
+        }
+        if (dispatchExecutor == null) {
+            // Held events must reach the listener in the same order as newer ones, so they go
+            // through the worker, which is the only thread delivering while it runs.
+            lock.lock();
+            try {
+                if (!workerExited) {
+                    deliverHeldRequested = true;
+                    notEmpty.signal();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            deliverHeld();
+        } else {
+            try {
+                dispatchExecutor.execute(this::deliverHeld);
+            } catch (RejectedExecutionException e) {
+                System.err.println("Web event dispatch rejected: " + e.getMessage());
+            }
+        }
+    }
+
+    // Returns false when the message was dropped.
+    public boolean offer(String message) {
+        if (message == null) return false;
+        // A substring check keeps the bridge thread cheap; a false positive only means an
+        // ordinary event is exempt from dropping.
+        boolean terminal = message.contains(EVENT_QUIZ_FINISHED) || message.contains(EVENT_CLOSE_WEB_VIEW);
+        lock.lock();
+        try {
+            if (closed) return false;
+            if (!terminal && droppableCount >= capacity) {
+                switch (overflowPolicy) {
+                    case DROP_NEWEST:
+                        dropped.incrementAndGet();
+                        return false;
+                    case DROP_OLDEST:
+                        dropOldest();
+                        break;
+                    case BLOCK:
+                        while (droppableCount >= capacity && !closed) {
+                            notFull.awaitUninterruptibly();
+                        }
+                        if (closed) return false;
+                        break;
+                }
+            }
+            queue.addLast(new Message(message, terminal));
+            if (!terminal) droppableCount++;
+            startWorkerIfNeeded();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    // Events already queued are still delivered; later offers are rejected.
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dropOldest() {
+        Iterator<Message> it = queue.iterator();
+        while (it.hasNext()) {
+            if (!it.next().terminal) {
+                it.remove();
+                droppableCount--;
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void startWorkerIfNeeded() {
+        if (worker != null) return;
+        worker = new Thread(this::runWorker, "web2wave-bridge");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void runWorker() {
+        List<Message> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            boolean deliverHeldNow;
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed && !deliverHeldRequested) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                deliverHeldNow = deliverHeldRequested;
+                deliverHeldRequested = false;
+                if (queue.isEmpty() && !deliverHeldNow) {
+                    workerExited = true;
+                    return;
+                }
+                while (batch.size() < maxBatch && !queue.isEmpty()) {
+                    Message message = queue.pollFirst();
+                    if (!message.terminal) droppableCount--;
+                    batch.add(message);
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            List<Event> events = new ArrayList<>(batch.size());
+            for (Message message : batch) {
+                Event event = parse(message.raw);
+                if (event != null) events.add(event);
+            }
+            batch.clear();
+            if (events.isEmpty()) {
+                if (deliverHeldNow) deliverHeld();
+                continue;
+            }
+
+            if (dispatchExecutor == null) {
+                deliver(events);
+            } else {
+                try {
+                    dispatchExecutor.execute(() -> deliver(events));
+                } catch (RejectedExecutionException e) {
+                    System.err.println("Web event dispatch rejected: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Events go through the held queue so a batch parsed while no listener was set is delivered
+    // before newer ones.
+    private void deliver(List<Event> events) {
+        synchronized (held) {
+            for (Event event : events) {
+                held.addLast(event);
+                if (!event.isTerminal() && ++heldDroppableCount > capacity) dropOldestHeld();
+            }
+        }
+        deliverHeld();
+    }
+
+    private void dropOldestHeld() {
+        Iterator<Event> it = held.iterator();
+        while (it.hasNext()) {
+            if (!it.next().isTerminal()) {
+                it.remove();
+                heldDroppableCount--;
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void deliverHeld() {
+        while (true) {
+            Web2WaveWebListener listener = this.listener;
+            if (listener == null) return;
+            Event event;
+            synchronized (held) {
+                event = held.pollFirst();
+                if (event == null) return;
+                if (!event.isTerminal()) heldDroppableCount--;
+            }
+            try {
+                switch (event.name) {
+                    case EVENT_QUIZ_FINISHED:
+                        listener.onQuizFinished(event.data);
+                        break;
+                    case EVENT_CLOSE_WEB_VIEW:
+                        listener.onClose(event.data);
+                        break;
+                    default:
+                        listener.onEvent(event.name, event.data);
+                }
+                delivered.incrementAndGet();
+            } catch (RuntimeException e) {
+                System.err.println("Web event listener failed: " + e);
+            }
+        }
+    }
+
+    // Only the event name is decoded eagerly; data is a lazy view, so listeners that ignore it
+    // pay for validation only.
+    @SuppressWarnings("unchecked")
+    static Event parse(String raw) {
+        String name = null;
+        Map<String, Object> data = null;
+        try (JsonStreamReader reader = JsonStreamReader.of(raw)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                JsonStreamReader.Token token = reader.peek();
+                if ("event".equals(field) && token == JsonStreamReader.Token.STRING) {
+                    name = reader.nextString();
+                } else if ("data".equals(field) && token == JsonStreamReader.Token.BEGIN_OBJECT) {
+                    data = (Map<String, Object>) reader.readLazyValue();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Malformed web event: " + e.getMessage());
+            return null;
+        }
+        if (name == null || name.isEmpty()) return null;
+        return new Event(name, data);
+    }
+
+    static final class Event {
+        final String name;
+        final Map<String, Object> data;
+
+        Event(String name, Map<String, Object> data) {
+            this.name = name;
+            this.data = data;
+        }
+
+        boolean isTerminal() {
+            return EVENT_QUIZ_FINISHED.equals(name) || EVENT_CLOSE_WEB_VIEW.equals(name);
+        }
+    }
+
+    private static final class Message {
+        final String raw;
+        final boolean terminal;
+
+        Message(String raw, boolean terminal) {
+            this.raw = raw;
+            this.terminal = terminal;
+        }
+    }
+}
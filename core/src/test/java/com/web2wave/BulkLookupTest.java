@@ -0,0 +1,124 @@
+package com.web2wave;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BulkLookupTest {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private Web2WaveClient client() {
+        Web2WaveTransport transport = FakeTransport.of(request -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException ignored) {
+            }
+            inFlight.decrementAndGet();
+            if (request.getUrl().endsWith("=bad")) {
+                return Web2WaveResponse.of(500, "");
+            }
+            return Web2WaveResponse.of(200, "{\"subscription\":[{\"status\":\"active\"}]}");
+        });
+        return Web2WaveClient.builder("key")
+                .transport(transport)
+                .retryPolicy(RetryPolicy.none())
+                .circuitBreakerPolicy(null)
+                .build();
+    }
+
+    @Test
+    public void streamsResultsAndReportsFailuresPerUser() {
+        List<String> users = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            users.add("u" + i);
+        }
+        users.add("bad");
+        Map<String, Boolean> delivered = new ConcurrentHashMap<>();
+
+        Web2WaveClient client = client();
+        BulkLookupReport report = client.fetchSubscriptionStatuses(users, 4, 0,
+                (userID, result) -> delivered.put(userID, result.isSuccess()));
+
+        assertEquals(51, report.getRequestedCount());
+        assertEquals(50, report.getSucceededCount());
+        assertEquals(1, report.getFailedCount());
+        assertTrue(report.getFailures().containsKey("bad"));
+        assertFalse(report.isCanceled());
+        assertEquals(51, delivered.size());
+        assertFalse(delivered.get("bad"));
+        assertTrue(maxInFlight.get() <= 4);
+        client.close();
+    }
+
+    @Test
+    public void rateCapSpacesRequests() {
+        List<String> users = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            users.add("u" + i);
+        }
+        Web2WaveClient client = client();
+        BulkLookupReport report = client.fetchSubscriptionStatuses(users, 6, 20, (userID, result) -> { });
+        assertEquals(6, report.getSucceededCount());
+        assertTrue(report.getElapsedMillis() >= 240);
+        client.close();
+    }
+
+    @Test
+    public void reachesRequestedFanOutWithoutBlockingBackgroundLane() throws Exception {
+        int maxConcurrency = 16;
+        CountDownLatch allStarted = new CountDownLatch(maxConcurrency);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        Web2WaveClient client = Web2WaveClient.builder("key")
+                .transport(FakeTransport.of(request -> {
+                    if (request.getUrl().contains("/properties")) {
+                        return Web2WaveResponse.of(200, "{\"result\":\"1\"}");
+                    }
+                    peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    allStarted.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    active.decrementAndGet();
+                    return Web2WaveResponse.of(200, "{\"subscription\":[]}");
+                }))
+                .retryPolicy(RetryPolicy.none())
+                .circuitBreakerPolicy(null)
+                .build();
+        try {
+            List<String> users = new ArrayList<>();
+            for (int i = 0; i < 2 * maxConcurrency; i++) {
+                users.add("u" + i);
+            }
+            CompletableFuture<BulkLookupReport> report = client.fetchSubscriptionStatusesAsync(users, maxConcurrency, 0,
+                    (userID, result) -> { });
+
+            // The BACKGROUND lane has two threads by default; the bulk run must not depend on them.
+            assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+            Result<Boolean> write = client.updateUserPropertyAsync("u0", "plan", "pro").get(2, TimeUnit.SECONDS);
+            assertTrue(write.getValue());
+
+            release.countDown();
+            assertEquals(2 * maxConcurrency, report.get(5, TimeUnit.SECONDS).getSucceededCount());
+            assertEquals(maxConcurrency, peak.get());
+        } finally {
+            release.countDown();
+            client.close();
+        }
+    }
+}
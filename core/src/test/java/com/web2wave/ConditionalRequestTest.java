@@ -0,0 +1,127 @@
+package com.web2wave;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class ConditionalRequestTest {
+
+    private static final String SUBSCRIPTIONS = "{\"subscription\":[{\"status\":\"active\",\"pay_system_id\":\"sub_1\"}]}";
+
+    private final List<Web2WaveRequest> requests = new CopyOnWriteArrayList<>();
+    private volatile String etag = "\"v1\"";
+
+    private final Web2WaveTransport transport = request -> new Web2WaveTransport.Call() {
+        @Override
+        public Web2WaveResponse execute() {
+            requests.add(request);
+            if (etag.equals(request.getHeaders().get("If-None-Match"))) {
+                return new Web2WaveResponse(304, null, null);
+            }
+            Map<String, String> headers = new HashMap<>();
+            headers.put("ETag", etag);
+            String body = request.getUrl().contains("/properties")
+                    ? "{\"properties\":[{\"property\":\"theme\",\"value\":\"dark\"}]}"
+                    : SUBSCRIPTIONS;
+            return new Web2WaveResponse(200, headers, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private Web2WaveClient client() {
+        return Web2WaveClient.builder("key")
+                .transport(transport)
+                .retryPolicy(RetryPolicy.none())
+                .circuitBreakerPolicy(null)
+                .build();
+    }
+
+    @Test
+    public void notModifiedReusesParsedResult() {
+        Web2WaveClient client = client();
+        SubscriptionStatus first = client.getSubscriptionStatus("u1");
+        SubscriptionStatus second = client.getSubscriptionStatus("u1");
+
+        assertSame(first, second);
+        assertEquals(2, requests.size());
+        assertNull(requests.get(0).getHeaders().get("If-None-Match"));
+        assertEquals("\"v1\"", requests.get(1).getHeaders().get("If-None-Match"));
+        assertFalse(requests.get(0).getHeaders().containsKey("Cache-Control"));
+        assertFalse(requests.get(0).getHeaders().containsKey("Pragma"));
+        assertEquals(1, client.getNotModifiedCount());
+        assertEquals(SUBSCRIPTIONS.length(), client.getParsedBytesSaved());
+
+        etag = "\"v2\"";
+        SubscriptionStatus changed = client.getSubscriptionStatus("u1");
+        assertNotSame(first, changed);
+        assertEquals(1, client.getNotModifiedCount());
+        client.close();
+    }
+
+    @Test
+    public void validatorsAreKeptPerUserAndEndpoint() {
+        Web2WaveClient client = client();
+        client.getSubscriptionStatus("u1");
+        client.getUserProperties("u1");
+        client.getSubscriptionStatus("u2");
+        assertEquals(0, client.getNotModifiedCount());
+
+        assertEquals("dark", client.getUserProperties("u1").get("theme"));
+        assertTrue(client.hasActiveSubscription("u2"));
+        assertEquals(2, client.getNotModifiedCount());
+        client.close();
+    }
+
+    @Test
+    public void bulkLookupsAndDisabledClientsSendNoValidators() {
+        Web2WaveClient client = Web2WaveClient.builder("key")
+                .transport(transport)
+                .retryPolicy(RetryPolicy.none())
+                .conditionalRequests(0)
+                .build();
+        client.getSubscriptionStatus("u1");
+        client.getSubscriptionStatus("u1");
+        client.fetchSubscriptionStatuses(Collections.singletonList("u1"), (userID, result) -> { });
+
+        for (Web2WaveRequest request : requests) {
+            assertNull(request.getHeaders().get("If-None-Match"));
+        }
+        assertEquals(0, client.getParsedBytesSaved());
+        client.close();
+    }
+
+    @Test
+    public void notModifiedReusesParsedResultWithSnapshotEnabled() throws Exception {
+        File directory = TempDirectory.create("web2wave-conditional");
+        Web2WaveClient client = Web2WaveClient.builder("key")
+                .transport(transport)
+                .retryPolicy(RetryPolicy.none())
+                .circuitBreakerPolicy(null)
+                .entitlementSnapshot(directory, 60_000)
+                .build();
+        try {
+            SubscriptionStatus first = client.getSubscriptionStatus("u1");
+            UserProperties properties = client.getUserProperties("u1");
+
+            assertSame(first, client.getSubscriptionStatus("u1"));
+            assertSame(properties, client.getUserProperties("u1"));
+            assertEquals(4, requests.size());
+            assertEquals(2, client.getNotModifiedCount());
+        } finally {
+            client.close();
+            TempDirectory.delete(directory);
+        }
+    }
+}
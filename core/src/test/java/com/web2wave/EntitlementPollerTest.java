@@ -0,0 +1,117 @@
+package com.web2wave;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class EntitlementPollerTest {
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile String status = "active";
+    private Web2WaveClient client;
+
+    // updated_at changes on every response; only the status should count as a change.
+    private final Web2WaveTransport transport = request -> new Web2WaveTransport.Call() {
+        @Override
+        public Web2WaveResponse execute() {
+            int n = requests.incrementAndGet();
+            String body = "{\"subscription\":[{\"status\":\"" + status + "\",\"pay_system_id\":\"sub_1\",\"updated_at\":" + n + "}]}";
+            return new Web2WaveResponse(200, null, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private Web2WaveClient client(long fast, long minIdle, long maxIdle) {
+        client = Web2WaveClient.builder("key")
+                .transport(transport)
+                .retryPolicy(RetryPolicy.none())
+                .circuitBreakerPolicy(null)
+                .conditionalRequests(0)
+                .entitlementPolling(fast, minIdle, maxIdle)
+                .build();
+        return client;
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) client.close();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("condition not met in time");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void observersShareOnePollerAndHearOnlyChanges() throws Exception {
+        Web2WaveClient client = client(10, 10, 10);
+        List<String> first = new CopyOnWriteArrayList<>();
+        List<String> second = new CopyOnWriteArrayList<>();
+        client.observeEntitlement("u1", (userID, s) -> first.add(s.getSubscriptions().get(0).getStatus()));
+        client.observeEntitlement("u1", (userID, s) -> second.add(s.getSubscriptions().get(0).getStatus()));
+
+        await(() -> first.size() == 1 && second.size() == 1);
+        long polls = client.getEntitlementPollCount();
+        await(() -> client.getEntitlementPollCount() >= polls + 5);
+        assertEquals(1, first.size());
+
+        status = "canceled";
+        await(() -> first.size() == 2 && second.size() == 2);
+        assertEquals("canceled", first.get(1));
+        assertFalse(client.hasActiveSubscription("u1"));
+    }
+
+    @Test
+    public void lateObserverGetsKnownStatusImmediately() throws Exception {
+        Web2WaveClient client = client(10, 60_000, 60_000);
+        List<String> early = new CopyOnWriteArrayList<>();
+        client.observeEntitlement("u1", (userID, s) -> early.add(userID));
+        await(() -> early.size() == 1);
+
+        List<String> late = new CopyOnWriteArrayList<>();
+        client.observeEntitlement("u1", (userID, s) -> late.add(userID));
+        await(() -> late.size() == 1);
+        assertEquals(1, client.getEntitlementPollCount());
+    }
+
+    @Test
+    public void pauseStopsPollingAndBoostPollsAtOnce() throws Exception {
+        Web2WaveClient client = client(10, 60_000, 60_000);
+        EntitlementListener listener = (userID, s) -> { };
+        client.observeEntitlement("u1", listener);
+        await(() -> client.getEntitlementPollCount() == 1);
+
+        // Idle interval is a minute, so only a boost produces the next poll.
+        client.boostEntitlementPolling();
+        await(() -> client.getEntitlementPollCount() >= 3);
+
+        client.setEntitlementPollingPaused(true);
+        Thread.sleep(50);
+        long paused = client.getEntitlementPollCount();
+        Thread.sleep(100);
+        assertEquals(paused, client.getEntitlementPollCount());
+
+        client.setEntitlementPollingPaused(false);
+        await(() -> client.getEntitlementPollCount() > paused);
+
+        client.stopObservingEntitlement("u1", listener);
+        Thread.sleep(50);
+        long stopped = client.getEntitlementPollCount();
+        Thread.sleep(100);
+        assertEquals(stopped, client.getEntitlementPollCount());
+    }
+}
@@ -0,0 +1,100 @@
+package com.web2wave;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class EntitlementSnapshotTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("web2wave-snapshot").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void recordsSurviveReload() {
+        EntitlementSnapshot snapshot = new EntitlementSnapshot(directory, 60_000);
+        snapshot.put("u1", EntitlementSnapshot.KIND_SUBSCRIPTIONS, "{\"subscription\":[]}");
+        snapshot.put("u1", EntitlementSnapshot.KIND_PROPERTIES, "{\"properties\":[]}");
+        snapshot.writeIfDirty();
+
+        EntitlementSnapshot reloaded = new EntitlementSnapshot(directory, 60_000);
+        reloaded.load();
+        EntitlementSnapshot.Record record = reloaded.takeFresh("u1", EntitlementSnapshot.KIND_SUBSCRIPTIONS);
+        assertNotNull(record);
+        assertEquals("{\"subscription\":[]}", record.body);
+        assertNull(reloaded.takeFresh("u1", EntitlementSnapshot.KIND_SUBSCRIPTIONS));
+        assertNotNull(reloaded.takeFresh("u1", EntitlementSnapshot.KIND_PROPERTIES));
+    }
+
+    @Test
+    public void removedUserIsNotReloaded() {
+        EntitlementSnapshot snapshot = new EntitlementSnapshot(directory, 60_000);
+        snapshot.put("u1", EntitlementSnapshot.KIND_SUBSCRIPTIONS, "{}");
+        snapshot.put("u2", EntitlementSnapshot.KIND_SUBSCRIPTIONS, "{}");
+        snapshot.writeIfDirty();
+        snapshot.removeUser("u1");
+        snapshot.writeIfDirty();
+
+        EntitlementSnapshot reloaded = new EntitlementSnapshot(directory, 60_000);
+        reloaded.load();
+        assertNull(reloaded.takeFresh("u1", EntitlementSnapshot.KIND_SUBSCRIPTIONS));
+        assertNotNull(reloaded.takeFresh("u2", EntitlementSnapshot.KIND_SUBSCRIPTIONS));
+    }
+
+    @Test
+    public void deleteFileClearsEverything() {
+        EntitlementSnapshot snapshot = new EntitlementSnapshot(directory, 60_000);
+        snapshot.put("u1", EntitlementSnapshot.KIND_SUBSCRIPTIONS, "{}");
+        snapshot.writeIfDirty();
+        snapshot.deleteFile();
+
+        EntitlementSnapshot reloaded = new EntitlementSnapshot(directory, 60_000);
+        reloaded.load();
+        assertNull(reloaded.takeFresh("u1", EntitlementSnapshot.KIND_SUBSCRIPTIONS));
+    }
+
+    @Test
+    public void sharedSnapshotAnswersOnlyOnceAcrossClients() {
+        EntitlementSnapshot saved = new EntitlementSnapshot(directory, 60_000);
+        saved.put("u1", EntitlementSnapshot.KIND_SUBSCRIPTIONS, "{\"subscription\":[{\"status\":\"active\"}]}");
+        saved.writeIfDirty();
+
+        EntitlementSnapshot snapshot = new EntitlementSnapshot(directory, 60_000);
+        snapshot.loadAsync().join();
+        Web2WaveClient first = client(snapshot);
+        assertTrue(first.hasActiveSubscription("u1"));
+        first.close();
+
+        Web2WaveClient second = client(snapshot);
+        assertFalse(second.hasActiveSubscription("u1"));
+        second.close();
+    }
+
+    private static Web2WaveClient client(EntitlementSnapshot snapshot) {
+        return Web2WaveClient.builder("key")
+                .transport(FakeTransport.of(request ->
+                        Web2WaveResponse.of(200, "{\"subscription\":[{\"status\":\"canceled\"}]}")))
+                .retryPolicy(RetryPolicy.none())
+                .circuitBreakerPolicy(null)
+                .entitlementSnapshot(snapshot)
+                .build();
+    }
+}
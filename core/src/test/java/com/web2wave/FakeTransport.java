@@ -0,0 +1,35 @@
+package com.web2wave;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+// In-memory transport for tests: every call is answered by the handler, and cancel is a no-op.
+final class FakeTransport {
+
+    interface Handler {
+        Web2WaveResponse handle(Web2WaveRequest request) throws IOException;
+    }
+
+    private FakeTransport() {
+    }
+
+    static Web2WaveTransport of(Handler handler) {
+        return request -> new Web2WaveTransport.Call() {
+            @Override
+            public Web2WaveResponse execute() throws IOException {
+                return handler.handle(request);
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+    }
+
+    static Web2WaveResponse response(int code, Map<String, String> headers, String body) {
+        return new Web2WaveResponse(code, headers,
+                new ByteArrayInputStream(body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0]));
+    }
+}
@@ -0,0 +1,130 @@
+package com.web2wave;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class HttpUrlConnectionTransportTest {
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/gzip", exchange -> {
+            byte[] body = gzip("{\"result\":\"1\"}");
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/echo", exchange -> {
+            byte[] body = readAll(exchange.getRequestBody());
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/error", exchange -> {
+            byte[] body = "{\"message\":\"nope\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(503, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2_000);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void decodesGzipBodies() throws IOException {
+        HttpUrlConnectionTransport transport = new HttpUrlConnectionTransport();
+        try (Web2WaveResponse response = transport.newCall(get("/gzip")).execute()) {
+            assertEquals(200, response.getCode());
+            assertEquals("{\"result\":\"1\"}", new String(readAll(response.getBody()), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void sendsBodyForPut() throws IOException {
+        HttpUrlConnectionTransport transport = new HttpUrlConnectionTransport();
+        byte[] body = "{\"a\":1}".getBytes(StandardCharsets.UTF_8);
+        Web2WaveRequest request = new Web2WaveRequest("PUT", baseUrl + "/echo",
+                Collections.singletonMap("Content-Type", "application/json"), body);
+        try (Web2WaveResponse response = transport.newCall(request).execute()) {
+            assertEquals("{\"a\":1}", new String(readAll(response.getBody()), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void exposesErrorBody() throws IOException {
+        HttpUrlConnectionTransport transport = new HttpUrlConnectionTransport();
+        try (Web2WaveResponse response = transport.newCall(get("/error")).execute()) {
+            assertEquals(503, response.getCode());
+            assertEquals("{\"message\":\"nope\"}", new String(readAll(response.getBody()), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void readTimeoutFails() throws IOException {
+        HttpUrlConnectionTransport transport = new HttpUrlConnectionTransport(1_000, 200);
+        transport.newCall(get("/slow")).execute().close();
+    }
+
+    @Test(expected = IOException.class)
+    public void canceledCallFails() throws IOException {
+        Web2WaveTransport.Call call = new HttpUrlConnectionTransport().newCall(get("/gzip"));
+        call.cancel();
+        call.execute();
+    }
+
+    private Web2WaveRequest get(String path) {
+        return new Web2WaveRequest("GET", baseUrl + path, null, null);
+    }
+
+    private static byte[] gzip(String value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,72 @@
+package com.web2wave;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JsonViewTest {
+
+    private static final String NESTED = "{\"a\": {\"b\": [1, [2, \"x\\\"y\\u0041\"], {\"c\": null}]},"
+            + " \"flag\": true, \"n\": -1.5e2, \"a\": {\"dup\": 1}, \"list\": [[], {}]}";
+
+    @Test
+    public void viewsMatchEagerParse() throws IOException {
+        Object eager = JsonStreamReader.of(NESTED).readValue();
+        Object lazy = JsonStreamReader.of(NESTED).readLazyValue();
+
+        assertTrue(lazy instanceof JsonView.ObjectView);
+        assertEquals(eager, lazy);
+        assertEquals(eager.hashCode(), lazy.hashCode());
+        assertEquals(eager.toString(), lazy.toString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void convertsNestedArraysAndCachesChildren() throws IOException {
+        String json = "{\"outer\": [[1, 2], [\"a\", {\"k\": \"v\"}]]}";
+        Map<String, Object> map = (Map<String, Object>) JsonStreamReader.of(json).readLazyValue();
+
+        List<Object> outer = (List<Object>) map.get("outer");
+        assertEquals(2, outer.size());
+        List<Object> second = (List<Object>) outer.get(1);
+        assertEquals("v", ((Map<String, Object>) second.get(1)).get("k"));
+        assertSame(outer, map.get("outer"));
+        assertSame(second, outer.get(1));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    @SuppressWarnings("unchecked")
+    public void viewsAreReadOnly() throws IOException {
+        ((Map<String, Object>) JsonStreamReader.of("{\"a\":1}").readLazyValue()).put("b", 2);
+    }
+
+    @Test
+    public void rawValueSpansBufferRefills() throws IOException {
+        StringBuilder json = new StringBuilder("{\"subscription\":[{\"status\":\"active\",\"meta\":{\"items\":[");
+        for (int i = 0; i < 500; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(i).append(",\"name\":\"item ").append(i).append("\"}");
+        }
+        json.append("]}}]}");
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+
+        SubscriptionStatus status = SubscriptionStatus.read(JsonStreamReader.of(new ByteArrayInputStream(bytes)));
+        assertTrue(status.hasActiveSubscription());
+        Object meta = status.getSubscriptions().get(0).get("meta");
+        assertTrue(meta instanceof JsonView.ObjectView);
+        List<?> items = (List<?>) ((Map<?, ?>) meta).get("items");
+        assertEquals(500, items.size());
+        assertEquals("item 499", ((Map<?, ?>) items.get(499)).get("name"));
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedNestedContentFailsUpFront() throws IOException {
+        SubscriptionStatus.read(JsonStreamReader.of("{\"subscription\":[{\"status\":\"active\",\"meta\":{\"a\" 1}}]}"));
+    }
+}
@@ -0,0 +1,139 @@
+package com.web2wave;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Pushes virtual users through a Web2WaveClient and reports throughput, latency percentiles and
+// resource usage. Each virtual user is a thread issuing calls back to back, with no think time.
+class LoadDriver {
+
+    interface Scenario {
+        // Returns false when the call failed.
+        boolean call(Web2WaveClient client, int virtualUser, int iteration);
+    }
+
+    static final Scenario READ_MOSTLY = (client, user, iteration) -> {
+        String userID = "vu" + user;
+        if (iteration % 10 == 9) {
+            Result<Boolean> result = client.updateUserProperty(userID, "last_seen", Integer.toString(iteration));
+            return result.isSuccess() && Boolean.TRUE.equals(result.getValue());
+        }
+        if (iteration % 2 == 0) {
+            return client.getSubscriptionStatus(userID) != null;
+        }
+        return client.getUserProperties(userID) != null;
+    };
+
+    static final class Report {
+        final int virtualUsers;
+        final long calls;
+        final long failures;
+        final long elapsedNanos;
+        final LatencySnapshot latency;
+        final int peakThreads;
+
+        Report(int virtualUsers, long calls, long failures, long elapsedNanos, LatencySnapshot latency, int peakThreads) {
+            this.virtualUsers = virtualUsers;
+            this.calls = calls;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+            this.peakThreads = peakThreads;
+        }
+
+        double getThroughputPerSecond() {
+            return calls * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d VUs, %d calls, %d failed, %.0f calls/s, p50=%.1fms p99=%.1fms max=%.1fms, peak threads=%d",
+                    virtualUsers, calls, failures, getThroughputPerSecond(),
+                    latency.getPercentileMicros(50) / 1000.0, latency.getPercentileMicros(99) / 1000.0,
+                    latency.getMaxMicros() / 1000.0, peakThreads);
+        }
+    }
+
+    static Report run(Web2WaveClient client, int virtualUsers, int callsPerUser, Scenario scenario)
+            throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        AtomicLong failures = new AtomicLong();
+        AtomicInteger peakThreads = new AtomicInteger();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(virtualUsers);
+
+        List<Thread> users = new ArrayList<>(virtualUsers);
+        for (int u = 0; u < virtualUsers; u++) {
+            int user = u;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < callsPerUser; i++) {
+                        long begin = System.nanoTime();
+                        boolean ok;
+                        try {
+                            ok = scenario.call(client, user, i);
+                        } catch (RuntimeException e) {
+                            ok = false;
+                        }
+                        histogram.recordNanos(System.nanoTime() - begin);
+                        if (!ok) failures.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "load-vu-" + u);
+            thread.setDaemon(true);
+            users.add(thread);
+            thread.start();
+        }
+
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peakThreads.accumulateAndGet(threads.getThreadCount(), Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "load-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        sampler.interrupt();
+
+        return new Report(virtualUsers, (long) virtualUsers * callsPerUser, failures.get(), elapsed,
+                histogram.snapshot(), peakThreads.get());
+    }
+
+    // Manual runs: java ... com.web2wave.LoadDriver <virtualUsers> <callsPerUser> <medianLatencyMs> <errorRate>
+    public static void main(String[] args) throws Exception {
+        int virtualUsers = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int callsPerUser = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        long medianMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        double errorRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.01;
+
+        try (StubWeb2WaveServer server = new StubWeb2WaveServer()) {
+            server.latency(StubWeb2WaveServer.Latency.logNormal(medianMillis, 0.5)).errors(errorRate, 503);
+            Web2WaveClient client = Web2WaveClient.builder("load-test").baseUrl(server.getBaseUrl()).build();
+            Report report = run(client, virtualUsers, callsPerUser, READ_MOSTLY);
+            client.close();
+            System.out.println(report);
+            System.out.println("server: " + server.getRequestCount() + " requests, " + server.getFaultCount()
+                    + " injected faults, " + server.getConnectionCount() + " connections");
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.web2wave;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LoadTest {
+
+    private StubWeb2WaveServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubWeb2WaveServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private Web2WaveClient client(RetryPolicy retryPolicy) {
+        return Web2WaveClient.builder("load-test")
+                .baseUrl(server.getBaseUrl())
+                // Truncated and dropped responses surface as read timeouts on a kept-alive socket.
+                .transport(new HttpUrlConnectionTransport(1_000, 250))
+                .retryPolicy(retryPolicy)
+                .circuitBreakerPolicy(null)
+                .build();
+    }
+
+    @Test
+    public void concurrentUsersReuseConnections() throws Exception {
+        server.latency(StubWeb2WaveServer.Latency.uniform(1, 5));
+        Web2WaveClient client = client(RetryPolicy.none());
+        LoadDriver.Report report = LoadDriver.run(client, 16, 25, LoadDriver.READ_MOSTLY);
+        client.close();
+
+        assertEquals(0, report.failures);
+        assertEquals(400, server.getRequestCount());
+        assertTrue("keep-alive should bound connections: " + server.getConnectionCount(),
+                server.getConnectionCount() <= 64);
+    }
+
+    @Test
+    public void retriesAbsorbInjectedFaults() throws Exception {
+        server.errors(0.1, 503).truncatedBodies(0.05).droppedConnections(0.05);
+        Web2WaveClient client = client(new RetryPolicy(5, 1, 10, 100));
+        LoadDriver.Report report = LoadDriver.run(client, 8, 25,
+                (c, user, iteration) -> c.getSubscriptionStatus("vu" + user + "-" + iteration) != null);
+        client.close();
+
+        assertTrue(server.getFaultCount() > 0);
+        // Five attempts against ~20% faults leaves well under 1% of lookups failing.
+        assertTrue(report.toString(), report.failures <= 4);
+    }
+}
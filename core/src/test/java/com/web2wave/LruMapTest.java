@@ -0,0 +1,52 @@
+package com.web2wave;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LruMapTest {
+
+    @Test
+    public void evictsEntriesNotReadSinceOlderWrites() {
+        LruMap<String, Integer> map = new LruMap<>(32);
+        for (int i = 0; i < 32; i++) map.put("k" + i, i);
+        for (int i = 0; i < 16; i++) map.get("k" + i);
+        map.put("new", 32);
+
+        // Over capacity by one, so one entry plus a batch of 32 / 16 = 2 go.
+        assertEquals(30, map.size());
+        for (int i = 0; i < 16; i++) assertEquals(Integer.valueOf(i), map.get("k" + i));
+        assertEquals(Integer.valueOf(32), map.get("new"));
+        assertNull(map.get("k16"));
+    }
+
+    @Test
+    public void staysBoundedUnderConcurrentReadsAndWrites() throws InterruptedException {
+        LruMap<Integer, Integer> map = new LruMap<>(100);
+        AtomicInteger mismatches = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    int key = random.nextInt(1_000);
+                    if (random.nextInt(4) == 0) {
+                        map.put(key, key);
+                    } else {
+                        Integer value = map.get(key);
+                        if (value != null && value != key) mismatches.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        assertEquals(0, mismatches.get());
+        assertTrue(map.size() <= 100);
+    }
+}
@@ -0,0 +1,51 @@
+package com.web2wave;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void histogramBucketsStayWithinRelativeError() {
+        for (long micros : new long[]{0, 15, 16, 17, 100, 1_000, 123_456, 9_999_999}) {
+            long upper = LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(micros));
+            assertTrue(upper >= micros);
+            assertTrue(upper - micros <= Math.max(1, micros / 16));
+        }
+    }
+
+    @Test
+    public void snapshotReportsPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.recordNanos(i * 1_000_000L);
+        }
+        LatencySnapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(100_000, snapshot.getMaxMicros());
+        long p50 = snapshot.getPercentileMicros(50);
+        assertTrue(p50 >= 50_000 && p50 <= 53_200);
+        assertEquals(100_000, snapshot.getPercentileMicros(100));
+
+        histogram.recordNanos(1_000_000L);
+        assertEquals(100, snapshot.getCount());
+    }
+
+    @Test
+    public void listenerReceivesEveryRecordedRequest() {
+        List<RequestMetrics> received = new ArrayList<>();
+        Web2WaveMetrics metrics = new Web2WaveMetrics();
+        metrics.record(Web2WaveEndpoint.SUBSCRIPTIONS, "GET", 200, 1, 2, 3_000, 10, 1, null);
+        metrics.setListener(received::add);
+        metrics.record(Web2WaveEndpoint.SUBSCRIPTIONS, "GET", 503, 1, 2, 5_000, 0, 0, null);
+
+        assertEquals(1, received.size());
+        assertEquals(503, received.get(0).getStatusCode());
+        assertEquals(2, metrics.snapshot(Web2WaveEndpoint.SUBSCRIPTIONS).getCount());
+        assertEquals(0, metrics.snapshot(Web2WaveEndpoint.CHARGE).getCount());
+    }
+}
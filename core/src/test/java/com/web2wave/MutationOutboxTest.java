@@ -0,0 +1,169 @@
+package com.web2wave;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MutationOutboxTest {
+
+    private File directory;
+    private ScheduledExecutorService scheduler;
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+    private volatile MutationOutbox.Outcome nextOutcome = MutationOutbox.Outcome.ACCEPTED;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("web2wave-outbox").toFile();
+        scheduler = Web2WaveExecutors.newScheduler();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    private MutationOutbox open() throws IOException {
+        MutationOutbox outbox = new MutationOutbox(directory, entry -> {
+            sent.add(entry.body);
+            return nextOutcome;
+        }, Runnable::run, scheduler, 3);
+        outbox.open();
+        return outbox;
+    }
+
+    @Test
+    public void acceptedMutationCompletesFuture() throws Exception {
+        MutationOutbox outbox = open();
+        CompletableFuture<Result<Boolean>> future = outbox.enqueue(MutationOutbox.OP_CHARGE, "u1", "PUT",
+                "https://example.test/charge", "{\"price_id\":\"1\"}", "success");
+        assertTrue(future.get(5, TimeUnit.SECONDS).getValue());
+        assertEquals(0, outbox.getDepth());
+        assertEquals(1, outbox.getAcceptedCount());
+    }
+
+    @Test
+    public void pendingMutationsSurviveReopenInOrder() throws Exception {
+        nextOutcome = MutationOutbox.Outcome.RETRY;
+        MutationOutbox outbox = open();
+        outbox.enqueue(MutationOutbox.OP_PROPERTY, "u1", "POST", "https://example.test/p", "first", "result");
+        outbox.enqueue(MutationOutbox.OP_PROPERTY, "u1", "POST", "https://example.test/p", "second", "result");
+        assertEquals(2, outbox.getDepth());
+        outbox.close();
+
+        sent.clear();
+        nextOutcome = MutationOutbox.Outcome.ACCEPTED;
+        MutationOutbox reopened = open();
+        assertEquals(2, reopened.getDepth());
+        reopened.drain();
+        assertEquals(0, reopened.getDepth());
+        assertEquals("first", sent.get(0));
+        assertEquals("second", sent.get(1));
+    }
+
+    @Test
+    public void retriesAreBounded() throws Exception {
+        nextOutcome = MutationOutbox.Outcome.RETRY;
+        MutationOutbox outbox = open();
+        CompletableFuture<Result<Boolean>> future = outbox.enqueue(MutationOutbox.OP_CANCEL, "sub_1", "PUT",
+                "https://example.test/cancel", "{}", "success");
+        outbox.drain();
+        outbox.drain();
+        assertTrue(future.get(5, TimeUnit.SECONDS).isFailure());
+        assertEquals(3, sent.size());
+        assertEquals(1, outbox.getDroppedCount());
+    }
+
+    @Test
+    public void attemptCountsSurviveReopen() throws Exception {
+        nextOutcome = MutationOutbox.Outcome.RETRY;
+        MutationOutbox outbox = open();
+        outbox.enqueue(MutationOutbox.OP_CHARGE, "u1", "PUT", "https://example.test/charge", "{}", "success");
+        outbox.drain();
+        assertEquals(2, sent.size());
+        outbox.close();
+
+        // Two of the three attempts were used before the restart, so one is left.
+        MutationOutbox reopened = open();
+        reopened.drain();
+        assertEquals(3, sent.size());
+        assertEquals(0, reopened.getDepth());
+        assertEquals(1, reopened.getDroppedCount());
+    }
+
+    @Test
+    public void compactionKeepsOnlyPendingEntries() throws Exception {
+        MutationOutbox outbox = open();
+        for (int i = 0; i < 100; i++) {
+            outbox.enqueue(MutationOutbox.OP_PROPERTY, "u1", "POST", "https://example.test/p", "v" + i, "result");
+        }
+        outbox.close();
+        long size = new File(directory, "web2wave_outbox.log").length();
+        assertTrue("log should be compacted, was " + size, size < 100 * 100);
+        assertEquals(0, open().getDepth());
+    }
+
+    @Test
+    public void blockingSendIsQueuedWhenOffline() throws Exception {
+        nextOutcome = MutationOutbox.Outcome.RETRY;
+        MutationOutbox outbox = open();
+        Result<Boolean> result = outbox.send(MutationOutbox.OP_CHARGE, "u1", "PUT",
+                "https://example.test/charge", "charge", "success");
+        assertTrue(result.isFailure());
+        assertEquals(1, outbox.getDepth());
+        outbox.close();
+
+        nextOutcome = MutationOutbox.Outcome.ACCEPTED;
+        MutationOutbox reopened = open();
+        reopened.drain();
+        assertEquals(0, reopened.getDepth());
+        assertEquals(Arrays.asList("charge", "charge"), sent);
+    }
+
+    @Test
+    public void completionAfterCloseStillCompletesFuture() throws Exception {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            MutationOutbox outbox = new MutationOutbox(directory, entry -> {
+                sending.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return MutationOutbox.Outcome.ACCEPTED;
+            }, executor, scheduler, 3);
+            outbox.open();
+            CompletableFuture<Result<Boolean>> future = outbox.enqueue(MutationOutbox.OP_CHARGE, "u1", "PUT",
+                    "https://example.test/charge", "{}", "success");
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+            outbox.close();
+            release.countDown();
+            assertTrue(future.get(5, TimeUnit.SECONDS).getValue());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.web2wave;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PropertyStoreTest {
+
+    private final AtomicInteger reads = new AtomicInteger();
+    private final AtomicInteger writes = new AtomicInteger();
+    private volatile String writeResult = "1";
+
+    private final Web2WaveTransport transport = request -> new Web2WaveTransport.Call() {
+        @Override
+        public Web2WaveResponse execute() {
+            String body;
+            if ("GET".equals(request.getMethod())) {
+                reads.incrementAndGet();
+                body = "{\"properties\":[{\"property\":\"theme\",\"value\":\"dark\"},{\"property\":\"plan\",\"value\":\"pro\"}]}";
+            } else {
+                writes.incrementAndGet();
+                body = "{\"result\":\"" + writeResult + "\"}";
+            }
+            return new Web2WaveResponse(200, null, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private Web2WaveClient client() {
+        return Web2WaveClient.builder("key")
+                .transport(transport)
+                .retryPolicy(RetryPolicy.none())
+                .circuitBreakerPolicy(null)
+                .conditionalRequests(0)
+                .propertyStore(60_000, 10)
+                .build();
+    }
+
+    @Test
+    public void readsSeeOwnWritesWithoutRefetching() {
+        Web2WaveClient client = client();
+        assertEquals("dark", client.getUserProperties("u1").get("theme"));
+        assertEquals(1, reads.get());
+
+        assertTrue(client.updateUserProperty("u1", "theme", "light").getValue());
+        assertTrue(client.setRevenuecatProfileID("u1", "rc_1").getValue());
+
+        assertEquals("light", client.getUserProperty("u1", "theme"));
+        assertEquals("rc_1", client.getUserProperty("u1", "revenuecat_profile_id"));
+        assertEquals("pro", client.fetchUserProperties("u1").get("plan"));
+        assertEquals(1, reads.get());
+        assertEquals(2, writes.get());
+        assertEquals(3, client.getPropertyStoreHits());
+        assertEquals(1, client.getPropertyStoreMisses());
+        client.close();
+    }
+
+    @Test
+    public void writesBeforeAnyReadAnswerOnlyTheirOwnKeys() {
+        Web2WaveClient client = client();
+        client.updateUserProperty("u1", "theme", "light");
+
+        assertEquals("light", client.getUserProperty("u1", "theme"));
+        assertEquals(0, reads.get());
+
+        // The full list is unknown, so it is fetched; later single-key reads come from it.
+        assertEquals("pro", client.getUserProperty("u1", "plan"));
+        assertEquals(1, reads.get());
+        assertEquals("dark", client.getUserProperty("u1", "theme"));
+        assertEquals(1, reads.get());
+        client.close();
+    }
+
+    @Test
+    public void rejectedWriteDropsTheUser() {
+        Web2WaveClient client = client();
+        client.getUserProperties("u1");
+        writeResult = "0";
+        assertFalse(client.updateUserProperty("u1", "theme", "light").getValue());
+
+        assertEquals("dark", client.getUserProperty("u1", "theme"));
+        assertEquals(2, reads.get());
+        client.close();
+    }
+
+    @Test
+    public void staleReadDoesNotUndoWrite() {
+        PropertyStore store = new PropertyStore(60_000, 10);
+        long generation = store.generation();
+        store.apply("u1", Collections.singletonMap("theme", "light"));
+
+        Map<String, String> fetched = new HashMap<>();
+        fetched.put("theme", "dark");
+        assertFalse(store.putIfUnchanged("u1", new UserProperties(fetched), generation));
+        assertEquals("light", store.get("u1", "theme").value.get("theme"));
+        assertNull(store.get("u1", null));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedUsers() throws Exception {
+        PropertyStore store = new PropertyStore(60_000, 2);
+        store.put("u1", new UserProperties(new HashMap<>()), System.currentTimeMillis());
+        Thread.sleep(1);
+        store.put("u2", new UserProperties(new HashMap<>()), System.currentTimeMillis());
+        Thread.sleep(1);
+        store.get("u1", null);
+        store.put("u3", new UserProperties(new HashMap<>()), System.currentTimeMillis());
+
+        assertEquals(2, store.size());
+        assertNotNull(store.get("u1", null));
+        assertNull(store.get("u2", null));
+    }
+
+    @Test
+    public void writeDuringBackgroundRefreshIsKept() throws Exception {
+        Map<String, String> server = new ConcurrentHashMap<>();
+        server.put("theme", "dark");
+        AtomicInteger gets = new AtomicInteger();
+        CountDownLatch refreshStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Web2WaveClient client = Web2WaveClient.builder("key")
+                .transport(FakeTransport.of(request -> {
+                    if (!"GET".equals(request.getMethod())) {
+                        server.put("theme", "light");
+                        return Web2WaveResponse.of(200, "{\"result\":\"1\"}");
+                    }
+                    // The body is read before blocking, so the refresh answers with the pre-write value.
+                    String body = "{\"properties\":[{\"property\":\"theme\",\"value\":\"" + server.get("theme") + "\"}]}";
+                    if (gets.incrementAndGet() == 2) {
+                        refreshStarted.countDown();
+                        try {
+                            release.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return Web2WaveResponse.of(200, body);
+                }))
+                .retryPolicy(RetryPolicy.none())
+                .circuitBreakerPolicy(null)
+                .conditionalRequests(0)
+                .propertyStore(0, 10)
+                .requestLane(RequestPriority.NORMAL, 1, 16)
+                .build();
+        try {
+            assertEquals("dark", client.getUserProperty("u1", "theme"));
+            // Expired at once, so this read starts the slow background refresh.
+            client.getUserProperty("u1", "theme");
+            assertTrue(refreshStarted.await(5, TimeUnit.SECONDS));
+            assertTrue(client.updateUserProperty("u1", "theme", "light").getValue());
+            release.countDown();
+
+            // Queued on the single NORMAL thread behind the refresh, so it sees what the refresh left.
+            assertEquals("light", client.fetchUserPropertiesAsync("u1").get(5, TimeUnit.SECONDS).get("theme"));
+        } finally {
+            release.countDown();
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.web2wave;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PropertyWriteBehindQueueTest {
+
+    private final List<Map<String, String>> writes = Collections.synchronizedList(new ArrayList<>());
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = Web2WaveExecutors.newScheduler();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private PropertyWriteBehindQueue queue(long delayMillis, int maxPending) {
+        return new PropertyWriteBehindQueue((userID, properties) -> {
+            writes.add(properties);
+            return Result.success(true);
+        }, Runnable::run, scheduler, delayMillis, maxPending);
+    }
+
+    @Test
+    public void repeatedWritesAreMerged() throws Exception {
+        PropertyWriteBehindQueue queue = queue(60_000, 10);
+        CompletableFuture<Result<Boolean>> first = queue.enqueue("u1", "theme", "light");
+        CompletableFuture<Result<Boolean>> second = queue.enqueue("u1", "theme", "dark");
+        queue.enqueue("u1", "lang", "en");
+        assertEquals(1, queue.getMergedCount());
+        assertFalse(first.isDone());
+
+        queue.flush().get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, writes.size());
+        assertEquals("dark", writes.get(0).get("theme"));
+        assertEquals("en", writes.get(0).get("lang"));
+        assertTrue(first.get().getValue());
+        assertTrue(second.get().getValue());
+    }
+
+    @Test
+    public void flushesWhenThresholdReached() {
+        PropertyWriteBehindQueue queue = queue(60_000, 2);
+        queue.enqueue("u1", "a", "1");
+        assertTrue(writes.isEmpty());
+        queue.enqueue("u1", "b", "2");
+        assertEquals(1, writes.size());
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    public void flushesOnTimer() throws Exception {
+        PropertyWriteBehindQueue queue = queue(20, 10);
+        queue.enqueue("u1", "a", "1").get(5, TimeUnit.SECONDS);
+        assertEquals(1, writes.size());
+    }
+}
@@ -0,0 +1,91 @@
+package com.web2wave;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RequestSchedulerTest {
+
+    private final ExecutorService executor = Web2WaveExecutors.newDefaultExecutor(3);
+    private final RequestScheduler scheduler = new RequestScheduler(executor, new int[]{1, 1, 1}, new int[]{4, 4, 2});
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        executor.shutdownNow();
+    }
+
+    private Runnable blocked(CountDownLatch started) {
+        return () -> {
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException ignored) {
+            }
+        };
+    }
+
+    @Test
+    public void interactiveRunsWhileBackgroundIsBacklogged() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.execute(RequestPriority.BACKGROUND, blocked(started));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.execute(RequestPriority.BACKGROUND, () -> { });
+        scheduler.execute(RequestPriority.BACKGROUND, () -> { });
+        assertEquals(2, scheduler.queueDepth(RequestPriority.BACKGROUND));
+
+        CountDownLatch interactive = new CountDownLatch(1);
+        scheduler.execute(RequestPriority.INTERACTIVE, interactive::countDown);
+        assertTrue(interactive.await(5, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.queueWaitSnapshot(RequestPriority.INTERACTIVE).getCount());
+        assertEquals(1, scheduler.queueWaitSnapshot(RequestPriority.BACKGROUND).getCount());
+    }
+
+    @Test
+    public void fullLaneRejectsAndKeyedTasksCoalesce() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.execute(RequestPriority.BACKGROUND, blocked(started));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<String> ran = new CopyOnWriteArrayList<>();
+        assertTrue(scheduler.execute(RequestPriority.BACKGROUND, "snapshot", () -> ran.add("snapshot")));
+        assertFalse(scheduler.execute(RequestPriority.BACKGROUND, "snapshot", () -> ran.add("duplicate")));
+        scheduler.execute(RequestPriority.BACKGROUND, () -> ran.add("write"));
+        try {
+            scheduler.execute(RequestPriority.BACKGROUND, () -> ran.add("overflow"));
+            fail("expected the full lane to reject");
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals(1, scheduler.coalescedCount(RequestPriority.BACKGROUND));
+        assertEquals(1, scheduler.rejectedCount(RequestPriority.BACKGROUND));
+
+        gate.countDown();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (ran.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(2, ran.size());
+        assertEquals("snapshot", ran.get(0));
+        assertEquals("write", ran.get(1));
+        assertEquals(3, scheduler.queueWaitSnapshot(RequestPriority.BACKGROUND).getCount());
+    }
+
+    @Test
+    public void failingTaskDoesNotStallTheLane() throws Exception {
+        scheduler.execute(RequestPriority.NORMAL, () -> {
+            throw new IllegalStateException("boom");
+        });
+        CountDownLatch next = new CountDownLatch(1);
+        scheduler.execute(RequestPriority.NORMAL, next::countDown);
+        assertTrue(next.await(5, TimeUnit.SECONDS));
+    }
+}
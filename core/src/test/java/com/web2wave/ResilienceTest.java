@@ -0,0 +1,168 @@
+package com.web2wave;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ResilienceTest {
+
+    @Test
+    public void breakerOpensAtFailureRateAndRecovers() throws Exception {
+        List<CircuitState> transitions = new ArrayList<>();
+        CircuitBreaker breaker = new CircuitBreaker(Web2WaveEndpoint.SUBSCRIPTIONS,
+                new CircuitBreakerPolicy(0.5, 4, 4, 0),
+                (endpoint, from, to) -> transitions.add(to));
+
+        breaker.onSuccess();
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertEquals(CircuitState.CLOSED, breaker.getState());
+        breaker.onFailure();
+        assertEquals(CircuitState.OPEN, breaker.getState());
+
+        breaker.acquire();
+        assertEquals(CircuitState.HALF_OPEN, breaker.getState());
+        breaker.onSuccess();
+        assertEquals(CircuitState.CLOSED, breaker.getState());
+
+        assertEquals(3, transitions.size());
+        assertEquals(CircuitState.OPEN, transitions.get(0));
+        assertEquals(CircuitState.HALF_OPEN, transitions.get(1));
+        assertEquals(CircuitState.CLOSED, transitions.get(2));
+    }
+
+    @Test(expected = CircuitBreaker.CircuitOpenException.class)
+    public void openBreakerFailsFast() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(Web2WaveEndpoint.PROPERTIES,
+                new CircuitBreakerPolicy(0.5, 2, 2, 60_000), null);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.acquire();
+    }
+
+    @Test
+    public void halfOpenAllowsSingleProbe() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(Web2WaveEndpoint.CHARGE,
+                new CircuitBreakerPolicy(1.0, 1, 1, 0), null);
+        breaker.onFailure();
+        breaker.acquire();
+        try {
+            breaker.acquire();
+            fail("second probe should be rejected");
+        } catch (CircuitBreaker.CircuitOpenException expected) {
+        }
+        breaker.onFailure();
+        assertEquals(CircuitState.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void cancelledProbeReleasesHalfOpenBreaker() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch probeStarted = new CountDownLatch(1);
+        Web2WaveTransport transport = request -> new Web2WaveTransport.Call() {
+            private final CountDownLatch canceled = new CountDownLatch(1);
+
+            @Override
+            public Web2WaveResponse execute() throws IOException {
+                int call = calls.incrementAndGet();
+                if (call == 1) return Web2WaveResponse.of(503, "");
+                if (call == 2) {
+                    probeStarted.countDown();
+                    try {
+                        canceled.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IOException("Canceled");
+                }
+                return Web2WaveResponse.of(200, "{\"subscription\":[]}");
+            }
+
+            @Override
+            public void cancel() {
+                canceled.countDown();
+            }
+        };
+        Web2WaveClient client = new Web2WaveClient.Builder("key")
+                .transport(transport)
+                .retryPolicy(RetryPolicy.none())
+                .circuitBreakerPolicy(new CircuitBreakerPolicy(1.0, 1, 1, 0))
+                .build();
+        try {
+            assertNull(client.fetchSubscriptionStatus("user"));
+            assertEquals(CircuitState.OPEN, client.getCircuitState(Web2WaveEndpoint.SUBSCRIPTIONS));
+
+            CompletableFuture<Map<String, Object>> probe = client.fetchSubscriptionStatusAsync("user");
+            assertTrue(probeStarted.await(5, TimeUnit.SECONDS));
+            assertEquals(CircuitState.HALF_OPEN, client.getCircuitState(Web2WaveEndpoint.SUBSCRIPTIONS));
+            probe.cancel(true);
+
+            // The cancelled probe is neither a success nor a failure, so the next call probes again.
+            long deadline = System.currentTimeMillis() + 5_000;
+            Map<String, Object> status = null;
+            while (status == null && System.currentTimeMillis() < deadline) {
+                status = client.fetchSubscriptionStatus("user");
+                if (status == null) Thread.sleep(10);
+            }
+            assertNotNull(status);
+            assertEquals(CircuitState.CLOSED, client.getCircuitState(Web2WaveEndpoint.SUBSCRIPTIONS));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void backoffStaysWithinCap() {
+        RetryPolicy policy = new RetryPolicy(5, 100, 1_000, 10_000);
+        for (int attempt = 1; attempt <= 10; attempt++) {
+            long delay = policy.backoffMillis(attempt);
+            assertTrue(delay >= 0 && delay <= Math.min(1_000, 100L << (attempt - 1)));
+        }
+    }
+
+    @Test
+    public void parsesRetryAfter() {
+        assertEquals(120_000, RetryPolicy.parseRetryAfter("120"));
+        assertEquals(-1, RetryPolicy.parseRetryAfter(null));
+        assertEquals(-1, RetryPolicy.parseRetryAfter("soon"));
+        assertEquals(0, RetryPolicy.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+
+    @Test
+    public void openBreakerServesLastResponseForLookups() {
+        AtomicInteger calls = new AtomicInteger();
+        List<RequestMetrics> reported = new ArrayList<>();
+        Web2WaveClient client = Web2WaveClient.builder("key")
+                .transport(FakeTransport.of(request -> {
+                    if (calls.incrementAndGet() > 1) return Web2WaveResponse.of(503, "");
+                    return FakeTransport.response(200, Collections.singletonMap("ETag", "\"v1\""),
+                            "{\"subscription\":[{\"status\":\"active\"}]}");
+                }))
+                .retryPolicy(RetryPolicy.none())
+                .circuitBreakerPolicy(new CircuitBreakerPolicy(1.0, 1, 1, 60_000))
+                .metricsListener(reported::add)
+                .build();
+        try {
+            assertTrue(client.hasActiveSubscription("u1"));
+            assertFalse(client.hasActiveSubscription("u1"));
+            assertEquals(CircuitState.OPEN, client.getCircuitState(Web2WaveEndpoint.SUBSCRIPTIONS));
+
+            assertTrue(client.hasActiveSubscription("u1"));
+            assertEquals(2, calls.get());
+            RequestMetrics last = reported.get(reported.size() - 1);
+            assertTrue(last.getError() instanceof CircuitBreaker.CircuitOpenException);
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.web2wave;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ResponseParsingTest {
+
+    @Test
+    public void parsesSubscriptionStatus() throws IOException {
+        SubscriptionStatus status = SubscriptionStatus.read(JsonStreamReader.of(
+                "{\"subscription\":[{\"status\":\"canceled\",\"pay_system_id\":\"sub_1\",\"amount\":9.99},"
+                        + "{\"status\":\"trialing\",\"pay_system_id\":\"sub_2\",\"meta\":{\"tags\":[\"a\",\"b\"]}}],"
+                        + "\"user_id\":42}"));
+
+        assertEquals(2, status.getSubscriptions().size());
+        assertEquals("sub_1", status.getSubscriptions().get(0).getPaySystemId());
+        assertFalse(status.getSubscriptions().get(0).isActive());
+        assertTrue(status.getSubscriptions().get(1).isActive());
+        assertTrue(status.hasActiveSubscription());
+
+        Map<String, Object> map = status.asMap();
+        assertEquals(42, map.get("user_id"));
+        List<?> subscriptions = (List<?>) map.get("subscription");
+        assertEquals(9.99, (Double) ((Map<?, ?>) subscriptions.get(0)).get("amount"), 0.0);
+        Map<?, ?> meta = (Map<?, ?>) ((Map<?, ?>) subscriptions.get(1)).get("meta");
+        assertEquals(2, ((List<?>) meta.get("tags")).size());
+    }
+
+    @Test
+    public void emptySubscriptionListIsInactive() throws IOException {
+        SubscriptionStatus status = SubscriptionStatus.read(JsonStreamReader.of("{\"subscription\":[]}"));
+        assertFalse(status.hasActiveSubscription());
+        assertTrue(status.getSubscriptions().isEmpty());
+    }
+
+    @Test
+    public void parsesUserPropertiesSkippingUnknownFields() throws IOException {
+        UserProperties properties = UserProperties.read(JsonStreamReader.of(
+                "{\"meta\":{\"page\":1,\"items\":[1,2,{\"x\":null}]},\"properties\":["
+                        + "{\"property\":\"theme\",\"value\":\"dark\",\"updated_at\":\"2024-01-01\"},"
+                        + "{\"property\":\"age\",\"value\":31},"
+                        + "{\"property\":\"quote\",\"value\":\"say \\\"hi\\\" \\u00e9\\n\"}]}"));
+
+        assertEquals(3, properties.size());
+        assertEquals("dark", properties.get("theme"));
+        assertEquals("31", properties.get("age"));
+        assertEquals("say \"hi\" \u00e9\n", properties.get("quote"));
+    }
+
+    @Test
+    public void keepsNullAndNestedPropertyValuesAsText() throws IOException {
+        UserProperties properties = UserProperties.read(JsonStreamReader.of(
+                "{\"properties\":[{\"property\":\"nickname\",\"value\":null},"
+                        + "{\"property\":\"tags\",\"value\":[\"a\",\"b\"]},"
+                        + "{\"property\":\"missing\"}]}"));
+
+        assertEquals("null", properties.get("nickname"));
+        assertEquals("[\"a\",\"b\"]", properties.get("tags"));
+        assertEquals("", properties.get("missing"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMalformedJson() throws IOException {
+        UserProperties.read(JsonStreamReader.of("{\"properties\":[{\"property\":\"a\" \"value\":1}]}"));
+    }
+
+    @Test
+    public void readsStringsLongerThanBuffer() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+        UserProperties properties = UserProperties.read(JsonStreamReader.of(
+                "{\"properties\":[{\"property\":\"long\",\"value\":\"" + value + "\"}]}"));
+        assertEquals(value.toString(), properties.get("long"));
+    }
+
+    @Test
+    public void writtenBodiesReadBack() throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("property", "quote");
+        body.put("value", "say \"hi\"\\ \u00e9\n\u0001");
+        body.put("price_id", 42);
+        assertEquals(body, JsonStreamReader.of(JsonWriter.write(body)).readValue());
+    }
+}
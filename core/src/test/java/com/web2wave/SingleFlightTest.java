@@ -0,0 +1,65 @@
+package com.web2wave;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    @Test
+    public void concurrentCallersShareOneLoad() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Future<Object> leader = pool.submit(() -> singleFlight.execute("GET /a", () -> {
+                loads.incrementAndGet();
+                started.countDown();
+                await(release);
+                return "value";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            Future<Object> follower1 = pool.submit(() -> singleFlight.execute("GET /a", () -> "other"));
+            Future<Object> follower2 = pool.submit(() -> singleFlight.execute("GET /a", () -> "other"));
+            while (singleFlight.getCoalescedCount() < 2) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("value", follower1.get(5, TimeUnit.SECONDS));
+            assertEquals("value", follower2.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sequentialCallsLoadAgain() {
+        SingleFlight singleFlight = new SingleFlight();
+        AtomicInteger loads = new AtomicInteger();
+        singleFlight.execute("GET /a", loads::incrementAndGet);
+        singleFlight.execute("GET /a", loads::incrementAndGet);
+        assertEquals(2, loads.get());
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.web2wave;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Localhost stand-in for api.web2wave.com with injectable latency, error statuses, truncated
+// bodies and dropped connections. Faults can be changed while the server is running. Faults and
+// latencies are drawn from one seeded Random, so a run injects the same sequence of faults each
+// time; only which request receives each one depends on thread scheduling.
+class StubWeb2WaveServer implements AutoCloseable {
+
+    interface Latency {
+        long nextMillis(Random random);
+
+        static Latency none() {
+            return random -> 0;
+        }
+
+        static Latency fixed(long millis) {
+            return random -> millis;
+        }
+
+        static Latency uniform(long minMillis, long maxMillis) {
+            return random -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+        }
+
+        // Long-tailed, like real network latency: most requests near the median, a few far above it.
+        static Latency logNormal(long medianMillis, double sigma) {
+            return random -> Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Random random;
+
+    private volatile Latency latency = Latency.none();
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private volatile double truncateRate;
+    private volatile double dropRate;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong faults = new AtomicLong();
+    private final Set<String> connections = ConcurrentHashMap.newKeySet();
+
+    StubWeb2WaveServer() throws IOException {
+        this(42);
+    }
+
+    StubWeb2WaveServer(long seed) throws IOException {
+        random = new Random(seed);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool(new Web2WaveExecutors.NamedThreadFactory("stub-web2wave"));
+        server.setExecutor(executor);
+        server.createContext("/api/user/subscriptions", exchange -> handle(exchange, this::subscriptions));
+        server.createContext("/api/user/properties", exchange -> handle(exchange, this::properties));
+        server.createContext("/api/subscription/cancel", exchange -> handle(exchange, e -> "{\"success\":\"1\"}"));
+        server.createContext("/api/subscription/refund", exchange -> handle(exchange, e -> "{\"success\":\"1\"}"));
+        server.createContext("/api/subscription/user/charge", exchange -> handle(exchange, e -> "{\"success\":\"1\"}"));
+        server.start();
+    }
+
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    StubWeb2WaveServer latency(Latency latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    StubWeb2WaveServer errors(double rate, int status) {
+        this.errorRate = rate;
+        this.errorStatus = status;
+        return this;
+    }
+
+    // Sends the full Content-Length but only half the body before closing.
+    StubWeb2WaveServer truncatedBodies(double rate) {
+        this.truncateRate = rate;
+        return this;
+    }
+
+    // Closes the connection without writing a response.
+    StubWeb2WaveServer droppedConnections(double rate) {
+        this.dropRate = rate;
+        return this;
+    }
+
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    long getFaultCount() {
+        return faults.get();
+    }
+
+    // Distinct client sockets seen, i.e. how many TCP connections the SDK opened.
+    int getConnectionCount() {
+        return connections.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private interface Responder {
+        String respond(HttpExchange exchange) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, Responder responder) throws IOException {
+        requests.incrementAndGet();
+        connections.add(exchange.getRemoteAddress().toString());
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() != -1) {
+                // drain so the connection can be reused
+            }
+        }
+        long delay;
+        double drop;
+        double error;
+        double truncate;
+        // Drawn together so each request consumes the same slice of the seeded sequence.
+        synchronized (random) {
+            delay = latency.nextMillis(random);
+            drop = random.nextDouble();
+            error = random.nextDouble();
+            truncate = random.nextDouble();
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (drop < dropRate) {
+            faults.incrementAndGet();
+            exchange.close();
+            return;
+        }
+        if (error < errorRate) {
+            faults.incrementAndGet();
+            send(exchange, errorStatus, "{\"message\":\"injected\"}", false);
+            return;
+        }
+        boolean truncated = truncate < truncateRate;
+        if (truncated) faults.incrementAndGet();
+        send(exchange, 200, responder.respond(exchange), truncated);
+    }
+
+    private static void send(HttpExchange exchange, int status, String body, boolean truncate) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes, 0, truncate ? bytes.length / 2 : bytes.length);
+        } catch (IOException ignored) {
+            // HttpServer complains about the short write; the client sees the truncated body either way.
+        }
+    }
+
+    private String subscriptions(HttpExchange exchange) {
+        String user = queryParam(exchange, "user");
+        return "{\"subscription\":[{\"status\":\"active\",\"pay_system_id\":\"sub_" + user
+                + "\",\"amount\":9.99,\"currency\":\"usd\"}],\"user_id\":\"" + user + "\"}";
+    }
+
+    private String properties(HttpExchange exchange) {
+        if ("POST".equals(exchange.getRequestMethod())) {
+            return "{\"result\":\"1\"}";
+        }
+        return "{\"properties\":[{\"property\":\"plan\",\"value\":\"premium\"},"
+                + "{\"property\":\"revenuecat_profile_id\",\"value\":\"rc_" + queryParam(exchange, "user") + "\"}]}";
+    }
+
+    private static String queryParam(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return "";
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return pair.substring(eq + 1);
+            }
+        }
+        return "";
+    }
+}
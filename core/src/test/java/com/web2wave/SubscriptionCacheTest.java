@@ -0,0 +1,84 @@
+package com.web2wave;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class SubscriptionCacheTest {
+
+    private static SubscriptionStatus status(String paySystemId) {
+        try {
+            return SubscriptionStatus.read(JsonStreamReader.of(
+                    "{\"subscription\":[{\"status\":\"active\",\"pay_system_id\":\"" + paySystemId + "\"}]}"));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        SubscriptionCache cache = new SubscriptionCache(60_000, 10);
+        assertNull(cache.get("u1"));
+        cache.put("u1", status("sub_1"));
+        assertNotNull(cache.get("u1"));
+        assertNotNull(cache.get("u1"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void staleEntryIsStillServed() {
+        SubscriptionCache cache = new SubscriptionCache(1_000, 10);
+        cache.put("u1", status("sub_1"), System.currentTimeMillis() - 5_000);
+        SubscriptionCache.Entry entry = cache.get("u1");
+        assertNotNull(entry);
+        assertTrue(cache.isExpired(entry));
+        assertTrue(entry.beginRefresh());
+        assertFalse(entry.beginRefresh());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws InterruptedException {
+        SubscriptionCache cache = new SubscriptionCache(60_000, 2);
+        cache.put("u1", status("sub_1"));
+        Thread.sleep(1);
+        cache.put("u2", status("sub_2"));
+        Thread.sleep(1);
+        cache.get("u1");
+        cache.put("u3", status("sub_3"));
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("u1"));
+        assertNull(cache.get("u2"));
+    }
+
+    @Test
+    public void invalidateByPaySystemIdRemovesOnlyMatchingUser() {
+        SubscriptionCache cache = new SubscriptionCache(60_000, 10);
+        cache.put("u1", status("sub_1"));
+        cache.put("u2", status("sub_2"));
+        cache.invalidateByPaySystemId("sub_2");
+        assertNotNull(cache.get("u1"));
+        assertNull(cache.get("u2"));
+    }
+
+    @Test
+    public void invalidateByUnknownPaySystemIdKeepsOtherUsers() {
+        SubscriptionCache cache = new SubscriptionCache(60_000, 10);
+        cache.put("u1", status("sub_1"));
+        long generation = cache.generation();
+        cache.invalidateByPaySystemId("sub_unknown");
+        assertNotNull(cache.get("u1"));
+        assertFalse(cache.putIfUnchanged("u2", status("sub_2"), generation));
+    }
+
+    @Test
+    public void refreshAfterInvalidationIsDiscarded() {
+        SubscriptionCache cache = new SubscriptionCache(60_000, 10);
+        long generation = cache.generation();
+        cache.invalidate("u1");
+        assertFalse(cache.putIfUnchanged("u1", status("sub_1"), generation));
+        assertNull(cache.get("u1"));
+    }
+}
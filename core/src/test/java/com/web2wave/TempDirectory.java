@@ -0,0 +1,24 @@
+package com.web2wave;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+// Scratch directories for tests that persist to disk; delete() removes nested files too.
+final class TempDirectory {
+
+    private TempDirectory() {
+    }
+
+    static File create(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+}
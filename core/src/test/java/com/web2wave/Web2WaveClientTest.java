@@ -0,0 +1,77 @@
+package com.web2wave;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class Web2WaveClientTest {
+
+    private static Web2WaveTransport recording(List<Web2WaveRequest> requests, String body) {
+        return request -> new Web2WaveTransport.Call() {
+            @Override
+            public Web2WaveResponse execute() {
+                requests.add(request);
+                return Web2WaveResponse.of(200, body);
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+    }
+
+    @Test
+    public void clientsKeepTheirOwnKeysAndBaseUrls() throws Exception {
+        List<Web2WaveRequest> first = new CopyOnWriteArrayList<>();
+        List<Web2WaveRequest> second = new CopyOnWriteArrayList<>();
+        String active = "{\"subscription\":[{\"status\":\"active\"}]}";
+        Web2WaveClient a = Web2WaveClient.builder("key-a")
+                .transport(recording(first, active))
+                .build();
+        Web2WaveClient b = Web2WaveClient.builder("key-b")
+                .baseUrl("https://staging.example.com/")
+                .transport(recording(second, "{\"subscription\":[]}"))
+                .build();
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(200);
+        for (int i = 0; i < 100; i++) {
+            String user = "u" + i;
+            pool.execute(() -> {
+                assertTrue(a.hasActiveSubscription(user));
+                done.countDown();
+            });
+            pool.execute(() -> {
+                assertFalse(b.hasActiveSubscription(user));
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+
+        assertEquals(100, first.size());
+        assertEquals(100, second.size());
+        for (Web2WaveRequest request : first) {
+            assertEquals("key-a", request.getHeaders().get("api-key"));
+            assertTrue(request.getUrl().startsWith(Web2WaveClient.DEFAULT_BASE_URL + "/api/"));
+        }
+        for (Web2WaveRequest request : second) {
+            assertEquals("key-b", request.getHeaders().get("api-key"));
+            assertTrue(request.getUrl().startsWith("https://staging.example.com/api/"));
+        }
+        a.close();
+        b.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builderRequiresApiKey() {
+        Web2WaveClient.builder(null);
+    }
+}
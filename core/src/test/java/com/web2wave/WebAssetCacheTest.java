@@ -0,0 +1,226 @@
+package com.web2wave;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WebAssetCacheTest {
+
+    private File directory;
+    private final Map<String, String> cacheControl = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+
+    private final Web2WaveTransport transport = request -> new Web2WaveTransport.Call() {
+        @Override
+        public Web2WaveResponse execute() {
+            String url = request.getUrl();
+            fetches.computeIfAbsent(url, k -> new AtomicInteger()).incrementAndGet();
+            if (url.endsWith("/manifest.json")) {
+                return Web2WaveResponse.of(200, "{\"assets\":[\"app.0a1b2c3d.js\",\"/fonts/inter.woff2\"]}");
+            }
+            if (url.endsWith("/missing.js")) {
+                return Web2WaveResponse.of(404, "");
+            }
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Content-Type", "text/javascript; charset=utf-8");
+            headers.put("Access-Control-Allow-Origin", "https://quiz.example.com");
+            headers.put("Content-Length", "123");
+            String control = cacheControl.get(url);
+            if (control != null) headers.put("Cache-Control", control);
+            return new Web2WaveResponse(200, headers,
+                    new ByteArrayInputStream(("body of " + url).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("web2wave-assets").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    private static String read(WebAssetCache.Asset asset) throws IOException {
+        try (InputStream in = asset.open()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            if (asset.getLength() >= 0) assertEquals(asset.getLength(), out.size());
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void hashedAssetsAreServedFromDiskAcrossInstances() throws IOException {
+        String url = "https://quiz.example.com/assets/main.3f9a2c1b.js";
+        WebAssetCache cache = new WebAssetCache(directory, 1 << 20, transport);
+        WebAssetCache.Asset first = cache.get(url, Collections.<String, String>emptyMap());
+        assertTrue(first.isStored());
+        assertEquals("text/javascript", first.getMimeType());
+        assertEquals("utf-8", first.getCharset());
+        assertEquals("https://quiz.example.com", first.getResponseHeaders().get("access-control-allow-origin"));
+        assertNull(first.getResponseHeaders().get("Content-Length"));
+
+        WebAssetCache reopened = new WebAssetCache(directory, 1 << 20, transport);
+        WebAssetCache.Asset second = reopened.get(url, null);
+        assertEquals("body of " + url, read(second));
+        assertEquals(200, second.getStatusCode());
+        assertEquals("https://quiz.example.com", second.getResponseHeaders().get("Access-Control-Allow-Origin"));
+        assertEquals(1, fetches.get(url).get());
+        assertEquals(1, reopened.getHitCount());
+        assertEquals(second.getLength(), reopened.getBytesSaved());
+    }
+
+    @Test
+    public void honoursCacheControl() throws IOException {
+        String noStore = "https://quiz.example.com/api/config.js";
+        String maxAge = "https://quiz.example.com/fonts/inter.woff2";
+        cacheControl.put(noStore, "no-store");
+        cacheControl.put(maxAge, "public, max-age=3600");
+        WebAssetCache cache = new WebAssetCache(directory, 1 << 20, transport);
+
+        WebAssetCache.Asset passthrough = cache.get(noStore, null);
+        assertFalse(passthrough.isStored());
+        assertEquals("body of " + noStore, read(passthrough));
+        try {
+            passthrough.open();
+            fail("a streamed body can only be opened once");
+        } catch (IOException expected) {
+        }
+        cache.get(noStore, null);
+        assertEquals(2, fetches.get(noStore).get());
+
+        cache.get(maxAge, null);
+        cache.get(maxAge, null);
+        assertEquals(1, fetches.get(maxAge).get());
+        assertEquals(0.25, cache.getHitRate(), 0.01);
+        WebAssetCache.Asset missing = cache.get("https://quiz.example.com/missing.js", null);
+        assertEquals(404, missing.getStatusCode());
+        assertFalse(missing.isStored());
+        missing.close();
+        assertEquals(1, fetches.get("https://quiz.example.com/missing.js").get());
+
+        assertTrue(WebAssetCache.expiresAt("https://x/a.js", "max-age=0", 0) < 0);
+        assertTrue(WebAssetCache.expiresAt("https://x/a.0a1b2c3d.js", "no-cache", 0) < 0);
+        assertEquals(Long.MAX_VALUE, WebAssetCache.expiresAt("https://x/a.js", "max-age=60, immutable", 0));
+        assertTrue(WebAssetCache.expiresAt("https://x/report-20240101-x.js", null, 0) < 0);
+    }
+
+    @Test
+    public void leavesNonAssetRequestsToTheWebView() {
+        WebAssetCache cache = new WebAssetCache(directory, 1 << 20, transport);
+        assertNull(cache.get("https://quiz.example.com/api/offer?user=1", null));
+        assertNull(cache.get("https://quiz.example.com/checkout", null));
+        assertTrue(fetches.isEmpty());
+        assertEquals(0, cache.getMissCount());
+
+        assertTrue(WebAssetCache.isStaticAsset("https://cdn.example.com/chunk-0a1b2c3d4e.bundle"));
+        assertTrue(WebAssetCache.isStaticAsset("https://cdn.example.com/fonts/Inter.WOFF2?v=3"));
+        assertFalse(WebAssetCache.isStaticAsset("https://cdn.example.com/report-20240101-x"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBeyondMaxBytes() {
+        WebAssetCache cache = new WebAssetCache(directory, 500, transport);
+        String a = "https://cdn.example.com/a.0000000a.js";
+        String b = "https://cdn.example.com/b.0000000b.js";
+        String c = "https://cdn.example.com/c.0000000c.js";
+        cache.get(a, null);
+        cache.get(b, null);
+        cache.get(a, null);
+        cache.get(c, null);
+
+        assertTrue(cache.getSizeBytes() <= 500);
+        assertEquals(2, cache.getEntryCount());
+        cache.get(a, null);
+        assertEquals(1, fetches.get(a).get());
+        cache.get(b, null);
+        assertEquals(2, fetches.get(b).get());
+    }
+
+    @Test
+    public void prefetchesManifestAssets() throws IOException {
+        cacheControl.put("https://quiz.example.com/fonts/inter.woff2", "max-age=600");
+        WebAssetCache cache = new WebAssetCache(directory, 1 << 20, transport);
+
+        assertEquals(2, (int) cache.prefetchAsync("https://quiz.example.com/funnel/manifest.json").join());
+        assertEquals(0, cache.prefetch("https://quiz.example.com/funnel/manifest.json"));
+        assertNotNull(cache.get("https://quiz.example.com/funnel/app.0a1b2c3d.js", null));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+
+        try {
+            cache.prefetchAsync("https://quiz.example.com/funnel/missing.js").join();
+            fail("a manifest that cannot be fetched fails the prefetch");
+        } catch (CompletionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+
+        cache.close();
+        assertTrue(cache.prefetchAsync("https://quiz.example.com/funnel/manifest.json").isCompletedExceptionally());
+        assertNotNull(cache.get("https://quiz.example.com/funnel/app.0a1b2c3d.js", null));
+    }
+
+    @Test
+    public void expiredAssetStaysReadableUntilReleased() throws Exception {
+        String url = "https://quiz.example.com/fonts/inter.woff2";
+        AtomicInteger version = new AtomicInteger();
+        Web2WaveTransport versioned = request -> new Web2WaveTransport.Call() {
+            @Override
+            public Web2WaveResponse execute() {
+                Map<String, String> headers = new HashMap<>();
+                headers.put("Cache-Control", "max-age=1");
+                String body = version.incrementAndGet() == 1 ? "first" : "second, longer version";
+                return new Web2WaveResponse(200, headers, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+        WebAssetCache cache = new WebAssetCache(directory, 1 << 20, versioned);
+        WebAssetCache.Asset unopened = cache.get(url, null);
+        InputStream reading = cache.get(url, null).open();
+        Thread.sleep(1_100);
+
+        // Expired, so this replaces the entry while both earlier readers still hold the old file.
+        WebAssetCache.Asset replaced = cache.get(url, null);
+        assertEquals("second, longer version", read(replaced));
+        assertEquals("first", read(unopened));
+        reading.close();
+
+        String[] names = directory.list();
+        assertEquals(1, names.length);
+        assertTrue(names[0].endsWith(".asset"));
+        assertEquals(0, cache.getFailureCount());
+    }
+}
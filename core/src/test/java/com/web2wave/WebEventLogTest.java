@@ -0,0 +1,131 @@
+package com.web2wave;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WebEventLogTest {
+
+    private File directory;
+    private final List<WebEventLog> logs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TempDirectory.create("web2wave-events");
+    }
+
+    @After
+    public void tearDown() {
+        for (WebEventLog log : logs) log.close();
+        TempDirectory.delete(directory);
+    }
+
+    private WebEventLog open(long maxBytes) {
+        // A long interval so only explicit flushes, terminal events and drains hit the disk.
+        WebEventLog log = new WebEventLog(directory, maxBytes, 60_000);
+        logs.add(log);
+        return log;
+    }
+
+    private static String event(String name, int step) {
+        return "{\"event\":\"" + name + "\",\"data\":{\"step\":" + step + "}}";
+    }
+
+    @Test
+    public void manyAppendsShareOneSync() {
+        WebEventLog log = open(64 * 1024);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(log.append(event("Step viewed", i)));
+        }
+        assertEquals(0, log.getSyncCount());
+
+        List<WebEventLog.RecordedEvent> events = log.drainEvents(30);
+        assertEquals(30, events.size());
+        assertEquals("Step viewed", events.get(0).getName());
+        assertEquals(0L, ((Number) events.get(0).getData().get("step")).longValue());
+        assertEquals(29, events.get(29).getSequence());
+        assertEquals(70, log.getEventCount());
+        // File creation, the batch and the drain's header update.
+        assertTrue(log.getSyncCount() <= 3);
+    }
+
+    @Test
+    public void eventsSurviveReopening() {
+        WebEventLog log = open(64 * 1024);
+        for (int i = 0; i < 5; i++) log.append(event("Step viewed", i));
+        log.flush();
+        log.drainEvents(2);
+        log.append(event("Quiz finished", 5));
+        log.close();
+
+        WebEventLog reopened = open(64 * 1024);
+        assertEquals(4, reopened.getEventCount());
+        List<WebEventLog.RecordedEvent> events = reopened.drainEvents(10);
+        assertEquals(4, events.size());
+        assertEquals(2, events.get(0).getSequence());
+        assertEquals("Quiz finished", events.get(3).getName());
+
+        reopened.append(event("Step viewed", 6));
+        assertEquals(6, reopened.drainEvents(10).get(0).getSequence());
+    }
+
+    @Test
+    public void fullRingOverwritesOldestAcrossTheWrap() {
+        WebEventLog log = open(WebEventLog.MIN_MAX_BYTES);
+        for (int i = 0; i < 400; i++) {
+            log.append(event("Step viewed", i));
+            if (i % 7 == 0) log.flush();
+        }
+        log.flush();
+        assertTrue(log.getDroppedCount() > 0);
+
+        List<WebEventLog.RecordedEvent> events = log.drainEvents(1_000);
+        assertEquals(400 - log.getDroppedCount(), events.size());
+        for (int i = 1; i < events.size(); i++) {
+            assertEquals(events.get(i - 1).getSequence() + 1, events.get(i).getSequence());
+        }
+        assertEquals(399L, ((Number) events.get(events.size() - 1).getData().get("step")).longValue());
+        assertEquals(0, log.getEventCount());
+    }
+
+    @Test
+    public void tornRecordIsDiscardedOnLoad() throws IOException {
+        WebEventLog log = open(64 * 1024);
+        for (int i = 0; i < 3; i++) log.append(event("Step viewed", i));
+        log.close();
+
+        // Damage the last byte of the third record, as a crash mid-write would.
+        int recordSize = 24 + event("Step viewed", 0).getBytes(StandardCharsets.UTF_8).length;
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, WebEventLog.FILE_NAME), "rw")) {
+            file.seek(40 + 3L * recordSize - 1);
+            file.write('x');
+        }
+
+        WebEventLog reopened = open(64 * 1024);
+        assertEquals(2, reopened.getEventCount());
+        reopened.append(event("Step viewed", 3));
+        List<WebEventLog.RecordedEvent> events = reopened.drainEvents(10);
+        assertEquals(3, events.size());
+        assertEquals(3L, ((Number) events.get(2).getData().get("step")).longValue());
+    }
+
+    @Test
+    public void rejectedBatchStaysInTheLog() {
+        WebEventLog log = open(64 * 1024);
+        for (int i = 0; i < 10; i++) log.append(event("Step viewed", i));
+
+        assertEquals(0, log.drainEvents(4, batch -> false));
+        assertEquals(10, log.getEventCount());
+        assertEquals(4, log.drainEvents(4, batch -> batch.size() == 4));
+        assertEquals(4, log.drainEvents(100).get(0).getSequence());
+    }
+}
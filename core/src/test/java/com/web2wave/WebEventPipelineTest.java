@@ -0,0 +1,201 @@
+package com.web2wave;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WebEventPipelineTest {
+
+    private static final class RecordingListener implements Web2WaveWebListener {
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+        final CountDownLatch entered = new CountDownLatch(1);
+        volatile CountDownLatch gate;
+        volatile Map<String, Object> lastData;
+
+        @Override
+        public void onQuizFinished(Map<String, Object> data) {
+            events.add("finished");
+            lastData = data;
+        }
+
+        @Override
+        public void onClose(Map<String, Object> data) {
+            events.add("close");
+            closed.countDown();
+        }
+
+        @Override
+        public void onEvent(String event, Map<String, Object> data) {
+            entered.countDown();
+            CountDownLatch gate = this.gate;
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+            events.add(event);
+        }
+    }
+
+    private static String event(String name) {
+        return "{\"event\":\"" + name + "\",\"data\":{\"step\":1,\"answers\":[\"a\",[\"b\"]]}}";
+    }
+
+    @Test
+    public void deliversInOrderInBatches() throws Exception {
+        AtomicInteger dispatches = new AtomicInteger();
+        Executor executor = command -> {
+            dispatches.incrementAndGet();
+            command.run();
+        };
+        WebEventPipeline pipeline = new WebEventPipeline(executor, 100, 8, WebEventPipeline.OverflowPolicy.BLOCK);
+        RecordingListener listener = new RecordingListener();
+        listener.gate = new CountDownLatch(1);
+        pipeline.setListener(listener);
+
+        for (int i = 0; i < 40; i++) {
+            pipeline.offer(event("e" + i));
+        }
+        pipeline.offer("not json");
+        pipeline.offer(event(WebEventPipeline.EVENT_QUIZ_FINISHED));
+        pipeline.offer(event(WebEventPipeline.EVENT_CLOSE_WEB_VIEW));
+        listener.gate.countDown();
+
+        assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+        assertEquals(42, listener.events.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals("e" + i, listener.events.get(i));
+        }
+        assertEquals("finished", listener.events.get(40));
+        assertEquals(1L, ((Number) listener.lastData.get("step")).longValue());
+        assertTrue("events should be batched: " + dispatches.get(), dispatches.get() < 42);
+        pipeline.close();
+    }
+
+    @Test
+    public void dropsOrdinaryEventsButNeverTerminalOnes() throws Exception {
+        WebEventPipeline pipeline = new WebEventPipeline(null, 4, 4, WebEventPipeline.OverflowPolicy.DROP_NEWEST);
+        RecordingListener listener = new RecordingListener();
+        listener.gate = new CountDownLatch(1);
+        pipeline.setListener(listener);
+
+        // The first event occupies the worker, which then blocks inside the listener.
+        pipeline.offer(event("first"));
+        assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(pipeline.offer(event("filler")));
+        }
+        for (int i = 0; i < 20; i++) {
+            pipeline.offer(event("extra"));
+        }
+        pipeline.offer(event(WebEventPipeline.EVENT_QUIZ_FINISHED));
+        pipeline.offer(event(WebEventPipeline.EVENT_CLOSE_WEB_VIEW));
+        listener.gate.countDown();
+
+        assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+        assertEquals(20, pipeline.getDroppedCount());
+        assertTrue(listener.events.contains("finished"));
+        assertFalse(listener.events.contains("extra"));
+        pipeline.close();
+    }
+
+    @Test
+    public void dropOldestKeepsLatestEvents() throws Exception {
+        WebEventPipeline pipeline = new WebEventPipeline(null, 2, 1, WebEventPipeline.OverflowPolicy.DROP_OLDEST);
+        RecordingListener listener = new RecordingListener();
+        listener.gate = new CountDownLatch(1);
+        pipeline.setListener(listener);
+
+        pipeline.offer(event("first"));
+        assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(pipeline.offer(event("e" + i)));
+        }
+        pipeline.offer(event(WebEventPipeline.EVENT_CLOSE_WEB_VIEW));
+        listener.gate.countDown();
+
+        assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+        assertEquals("e9", listener.events.get(listener.events.size() - 2));
+        assertFalse(listener.events.contains("e0"));
+        pipeline.close();
+    }
+
+    @Test
+    public void holdsEventsUntilAListenerIsSet() throws Exception {
+        WebEventPipeline pipeline = new WebEventPipeline(null, 2, 8, WebEventPipeline.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            pipeline.offer(event("e" + i));
+        }
+        pipeline.offer(event(WebEventPipeline.EVENT_QUIZ_FINISHED));
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (pipeline.getDroppedCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        RecordingListener listener = new RecordingListener();
+        pipeline.setListener(listener);
+        pipeline.offer(event(WebEventPipeline.EVENT_CLOSE_WEB_VIEW));
+
+        assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+        assertEquals(3, pipeline.getDroppedCount());
+        assertEquals(Arrays.asList("e3", "e4", "finished", "close"), listener.events);
+        pipeline.close();
+    }
+
+    @Test
+    public void keepsOrderWhenListenerIsSetWhilePosting() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            WebEventPipeline pipeline = new WebEventPipeline(null, 1_000, 4, WebEventPipeline.OverflowPolicy.BLOCK);
+            RecordingListener listener = new RecordingListener();
+            List<String> threads = new CopyOnWriteArrayList<>();
+            CountDownLatch halfway = new CountDownLatch(1);
+            Thread poster = new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    pipeline.offer(event("e" + i));
+                    if (i == 100) halfway.countDown();
+                }
+                pipeline.offer(event(WebEventPipeline.EVENT_CLOSE_WEB_VIEW));
+            });
+            poster.start();
+            assertTrue(halfway.await(5, TimeUnit.SECONDS));
+            pipeline.setListener(new Web2WaveWebListener() {
+                @Override
+                public void onQuizFinished(Map<String, Object> data) {
+                }
+
+                @Override
+                public void onClose(Map<String, Object> data) {
+                    listener.onClose(data);
+                }
+
+                @Override
+                public void onEvent(String event, Map<String, Object> data) {
+                    threads.add(Thread.currentThread().getName());
+                    listener.onEvent(event, data);
+                }
+            });
+
+            assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+            poster.join();
+            assertEquals(201, listener.events.size());
+            for (int i = 0; i < 200; i++) {
+                assertEquals("e" + i, listener.events.get(i));
+            }
+            for (String thread : threads) {
+                assertEquals("web2wave-bridge", thread);
+            }
+            pipeline.close();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.web2wave;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+class MainThreadExecutor implements Executor {
+
+    private static volatile Handler mainHandler;
+
+    @Override
+    public void execute(Runnable command) {
+        Handler handler = mainHandler;
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+            mainHandler = handler;
+        }
+        handler.post(command);
+    }
+}
@@ -1,36 +0,0 @@
-package com.web2wave;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-
-public class Utils {
-    static Map<String, Object> jsonToMap(JSONObject jsonObject) throws JSONException {
-        Map<String, Object> map = new HashMap<>();
-        Iterator<String> keys = jsonObject.keys();
-        while (keys.hasNext()) {
-            String key = keys.next();
-            Object value = jsonObject.get(key);
-            if (value instanceof JSONObject) value = jsonToMap((JSONObject) value);
-            if (value instanceof JSONArray) value = jsonToList((JSONArray) value);
-            map.put(key, value);
-        }
-        return map;
-    }
-
-    static List<Object> jsonToList(JSONArray jsonArray) throws JSONException {
-        List<Object> list = new ArrayList<>();
-        for (int i = 0; i < jsonArray.length(); i++) {
-            Object value = jsonArray.get(i);
-            if (value instanceof JSONObject) value = jsonToMap((JSONObject) value);
-            list.add(value);
-        }
-        return list;
-    }
-}
@@ -1,315 +1,586 @@
 package com.web2wave;
 
-import static com.web2wave.Utils.jsonToMap;
-
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
 import android.webkit.URLUtil;
 
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentManager;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.util.*;
-
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+// Android entry point: the REST client lives in the core module, this adds main-thread
+// callbacks and the paywall web view.
 public class Web2Wave {
 
-    private static final String BASE_URL = "https://api.web2wave.com";
-
-    private static final String PROFILE_ID_REVENUECAT = "revenuecat_profile_id";
-    private static final String PROFILE_ID_ADAPTY = "adapty_profile_id";
-    private static final String PROFILE_ID_QONVERSION = "qonversion_profile_id";
-
-    private static final String API_SUBSCRIPTIONS = "api/user/subscriptions";
-    private static final String API_USER_PROPERTIES = "api/user/properties";
-    private static final String API_SUBSCRIPTION_CANCEL = "api/subscription/cancel";
-    private static final String API_SUBSCRIPTION_REFUND = "api/subscription/refund";
-    private static final String API_SUBSCRIPTION_CHARGE = "api/subscription/user/charge";
-
-    private static final String KEY_USER = "user";
-    private static final String KEY_USER_ID = "user_id";
-    private static final String KEY_PRICE_ID = "price_id";
-    private static final String KEY_COMMENT = "comment";
-    private static final String KEY_SUBSCRIPTION = "subscription";
-    private static final String KEY_PROPERTIES = "properties";
-    private static final String KEY_PROPERTY = "property";
-    private static final String KEY_VALUE = "value";
-    private static final String KEY_STATUS = "status";
-    private static final String KEY_RESULT = "result";
-    private static final String KEY_PAY_SYSTEM = "pay_system_id";
-    private static final String KEY_INVOICE_ID = "invoice_id";
-
-    private static final String VALUE_ACTIVE = "active";
-    private static final String VALUE_TRIAL = "trialing";
-
-    private static final String METHOD_TYPE_POST = "POST";
-    private static final String METHOD_TYPE_GET = "GET";
-    private static final String METHOD_TYPE_PUT = "PUT";
-
-    private static Web2Wave instance;
+    private volatile Web2WaveClient client;
+    // Set by the configuration setters; the client is rebuilt once, on its next use.
+    private volatile boolean stale;
+    private static volatile WebAssetCache webAssetCache;
+    private static volatile WebEventLog webEventLog;
+    private static volatile boolean webEventsOnMainThread = true;
+    private static volatile int webEventCapacity = WebEventPipeline.DEFAULT_CAPACITY;
+    private static volatile WebEventPipeline.OverflowPolicy webEventOverflowPolicy = WebEventPipeline.OverflowPolicy.DROP_OLDEST;
+
+    // Settings are kept here so the immutable client can be rebuilt after they change.
     private String apiKey;
+    private Web2WaveTransport transport;
+    private ExecutorService executor;
+    private long cacheTtlMillis;
+    private int cacheMaxEntries;
+    private long propertyTtlMillis;
+    private int propertyMaxEntries;
+    // Shared by every client the facade builds, so rebuilds neither reread it nor repeat its answers.
+    private EntitlementSnapshot entitlementSnapshot;
+    private long writeBehindDelayMillis;
+    private int writeBehindMaxPending;
+    private File outboxDirectory;
+    private int outboxMaxAttempts;
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+    private CircuitBreakerPolicy circuitBreakerPolicy = CircuitBreakerPolicy.defaults();
+    private CircuitBreakerListener circuitBreakerListener;
+    private boolean metricsEnabled;
+    private Web2WaveMetricsListener metricsListener;
+    // -1 keeps the client default.
+    private int conditionalMaxEntries = -1;
+    // Lanes missing here keep the client defaults; values are {maxConcurrency, queueCapacity}.
+    private final Map<RequestPriority, int[]> requestLanes = new EnumMap<>(RequestPriority.class);
+    // Observers are re-registered on every rebuilt client.
+    private final Map<String, List<EntitlementListener>> entitlementObservers = new LinkedHashMap<>();
+    private boolean appInBackground;
+    private Application lifecycleApplication;
 
     private Web2Wave() {
     }
 
-    public static synchronized Web2Wave getInstance() {
-        if (instance == null) {
-            instance = new Web2Wave();
-        }
-        return instance;
+    private static final class Holder {
+        static final Web2Wave INSTANCE = new Web2Wave();
     }
 
-    public void initWith(String apiKey) {
-        this.apiKey = apiKey;
+    public static Web2Wave getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public Web2WaveClient getClient() {
+        return client();
     }
 
-    private String buildUrl(String path, Map<String, String> queryParams) {
-        StringBuilder url = new StringBuilder(BASE_URL).append("/").append(path);
-        if (queryParams != null && !queryParams.isEmpty()) {
-            url.append("?");
-            for (Map.Entry<String, String> entry : queryParams.entrySet()) {
-                url.append(entry.getKey()).append("=").append(entry.getValue()).append("&");
+    private Web2WaveClient client() {
+        Web2WaveClient current = client;
+        if (current != null && !stale) return current;
+        synchronized (this) {
+            if (apiKey == null) {
+                throw new IllegalStateException("You have to initialize apiKey before use");
             }
-            url.setLength(url.length() - 1);
+            if (client == null || stale) rebuild();
+            return client;
         }
-        return url.toString();
     }
 
-    public Map<String, Object> fetchSubscriptionStatus(String userID) {
-        checkApiKey();
-        String url = buildUrl(API_SUBSCRIPTIONS, Collections.singletonMap(KEY_USER, userID));
-        String response = makeRequest(url, "GET", null);
-        if (response != null) {
-            try {
-                return jsonToMap(new JSONObject(response));
-            } catch (JSONException e) {
-                e.printStackTrace();
+    private void configChanged() {
+        stale = true;
+    }
+
+    // Calls racing with a rebuild may still land on the previous client, which sends its queued
+    // writes in the background before shutting down.
+    private void rebuild() {
+        stale = false;
+        Web2WaveClient previous = client;
+        if (previous != null) {
+            previous.closeAsync();
+            client = null;
+        }
+
+        Web2WaveClient.Builder builder = Web2WaveClient.builder(apiKey)
+                .callbackExecutor(new MainThreadExecutor())
+                .retryPolicy(retryPolicy)
+                .circuitBreakerPolicy(circuitBreakerPolicy)
+                .circuitBreakerListener(circuitBreakerListener);
+        if (metricsEnabled) builder.metricsListener(metricsListener);
+        if (transport != null) builder.transport(transport);
+        if (executor != null) builder.executor(executor);
+        if (cacheMaxEntries > 0) builder.subscriptionCache(cacheTtlMillis, cacheMaxEntries);
+        if (propertyMaxEntries > 0) builder.propertyStore(propertyTtlMillis, propertyMaxEntries);
+        if (entitlementSnapshot != null) builder.entitlementSnapshot(entitlementSnapshot);
+        if (writeBehindMaxPending > 0) builder.propertyWriteBehind(writeBehindDelayMillis, writeBehindMaxPending);
+        if (outboxDirectory != null) builder.outbox(outboxDirectory, outboxMaxAttempts);
+        if (conditionalMaxEntries >= 0) builder.conditionalRequests(conditionalMaxEntries);
+        for (Map.Entry<RequestPriority, int[]> lane : requestLanes.entrySet()) {
+            builder.requestLane(lane.getKey(), lane.getValue()[0], lane.getValue()[1]);
+        }
+        Web2WaveClient next = builder.build();
+        next.setEntitlementPollingPaused(appInBackground);
+        for (Map.Entry<String, List<EntitlementListener>> entry : entitlementObservers.entrySet()) {
+            for (EntitlementListener listener : entry.getValue()) {
+                next.observeEntitlement(entry.getKey(), listener);
             }
         }
-        return null;
+        client = next;
     }
 
-    public boolean hasActiveSubscription(String userID) {
-        Map<String, Object> status = fetchSubscriptionStatus(userID);
-        if (status == null || !status.containsKey(KEY_SUBSCRIPTION)) return false;
-        Object subscriptions = status.get(KEY_SUBSCRIPTION);
-        if (subscriptions instanceof List<?>) {
-            for (Object sub : (List<?>) subscriptions) {
-                if (sub instanceof Map) {
-                    String value = (String) ((Map<?, ?>) sub).get(KEY_STATUS);
-                    if (VALUE_ACTIVE.equals(value) || VALUE_TRIAL.equals(value)) {
-                        return true;
-                    }
-                }
-            }
+    public synchronized void initWith(String apiKey) {
+        this.apiKey = apiKey;
+        if (entitlementSnapshot != null) entitlementSnapshot.loadAsync();
+        configChanged();
+    }
+
+    public synchronized boolean isInitialized() {
+        return apiKey != null;
+    }
+
+    public synchronized void enableEntitlementSnapshot(File directory, long maxAgeMillis) {
+        if (maxAgeMillis <= 0) {
+            throw new IllegalArgumentException("maxAgeMillis must be > 0");
         }
-        return false;
+        entitlementSnapshot = new EntitlementSnapshot(directory, maxAgeMillis);
+        if (apiKey != null) entitlementSnapshot.loadAsync();
+        configChanged();
     }
 
-    public List<Map<String, Object>> fetchSubscriptions(String userID) {
-        Map<String, Object> response = fetchSubscriptionStatus(userID);
-        if (response != null && response.containsKey(KEY_SUBSCRIPTION)) {
-            Object subscriptions = response.get(KEY_SUBSCRIPTION);
-            if (subscriptions instanceof List<?>) {
-                return (List<Map<String, Object>>) subscriptions;
-            }
+    public void clearEntitlementSnapshot(String userID) {
+        client().clearEntitlementSnapshot(userID);
+    }
+
+    public void clearEntitlementSnapshot() {
+        client().clearEntitlementSnapshot();
+    }
+
+    public synchronized void enableSubscriptionCache(long ttlMillis, int maxEntries) {
+        if (ttlMillis < 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be >= 0 and maxEntries > 0");
         }
-        return Collections.emptyList();
+        cacheTtlMillis = ttlMillis;
+        cacheMaxEntries = maxEntries;
+        configChanged();
     }
 
+    public synchronized void disableSubscriptionCache() {
+        cacheMaxEntries = 0;
+        configChanged();
+    }
 
-    public Result<Boolean> cancelSubscription(String paySystemId, String comment) {
-        checkApiKey();
-        try {
-            String url = buildUrl(API_SUBSCRIPTION_CANCEL, null);
-            Map<String, String> bodyMap = new HashMap<>();
-            bodyMap.put(KEY_PAY_SYSTEM, paySystemId);
+    public synchronized void enablePropertyStore(long ttlMillis, int maxEntries) {
+        if (ttlMillis < 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be >= 0 and maxEntries > 0");
+        }
+        propertyTtlMillis = ttlMillis;
+        propertyMaxEntries = maxEntries;
+        configChanged();
+    }
 
-            if (comment != null && !comment.isBlank()) {
-                bodyMap.put(KEY_COMMENT, comment);
-            }
+    public synchronized void disablePropertyStore() {
+        propertyMaxEntries = 0;
+        configChanged();
+    }
 
-            String body = new JSONObject(bodyMap).toString();
-            String response = makeRequest(url, METHOD_TYPE_PUT, body);
-            JSONObject json = response != null ? new JSONObject(response) : null;
+    public void invalidateUserProperties(String userID) {
+        client().invalidateUserProperties(userID);
+    }
 
-            if (json != null && "1".equals(json.optString("success"))) {
-                return Result.success(true);
-            } else {
-                return Result.failure(new Exception(json != null ? json.optString("message", "Unknown error") : "Empty response"));
-            }
+    public long getPropertyStoreHits() {
+        return client().getPropertyStoreHits();
+    }
+
+    public long getPropertyStoreMisses() {
+        return client().getPropertyStoreMisses();
+    }
+
+    public void invalidateSubscriptionCache(String userID) {
+        client().invalidateSubscriptionCache(userID);
+    }
+
+    public long getSubscriptionCacheHits() {
+        return client().getSubscriptionCacheHits();
+    }
+
+    public long getSubscriptionCacheMisses() {
+        return client().getSubscriptionCacheMisses();
+    }
 
-        } catch (Exception e) {
-            return Result.failure(e);
+    public synchronized void setTransport(Web2WaveTransport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("transport must not be null");
         }
+        this.transport = transport;
+        configChanged();
     }
 
-    public Result<Boolean> chargeUser(String web2waveUserId, int priceId) {
-        checkApiKey();
-        try {
-            String url = buildUrl(API_SUBSCRIPTION_CHARGE, null);
+    public long getCoalescedRequestCount() {
+        return client().getCoalescedRequestCount();
+    }
 
-            Map<String, String> bodyMap = new HashMap<>();
-            bodyMap.put(KEY_USER_ID, web2waveUserId);
-            bodyMap.put(KEY_PRICE_ID, Integer.toString(priceId));
+    public synchronized void setConditionalRequests(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must be >= 0");
+        }
+        conditionalMaxEntries = maxEntries;
+        configChanged();
+    }
 
-            String body = new JSONObject(bodyMap).toString();
-            String response = makeRequest(url, METHOD_TYPE_PUT, body);
-            JSONObject json = response != null ? new JSONObject(response) : null;
+    public long getNotModifiedCount() {
+        return client().getNotModifiedCount();
+    }
 
-            if (json != null && "1".equals(json.optString("success"))) {
-                return Result.success(true);
-            } else {
-                return Result.failure(new Exception(json != null ? json.optString("message", "Unknown error") : "Empty response"));
-            }
+    public long getParsedBytesSaved() {
+        return client().getParsedBytesSaved();
+    }
 
-        } catch (Exception e) {
-            return Result.failure(e);
+    public synchronized void setRequestLane(RequestPriority priority, int maxConcurrency, int queueCapacity) {
+        if (priority == null) {
+            throw new IllegalArgumentException("priority must not be null");
+        }
+        if (maxConcurrency <= 0 || queueCapacity < 0) {
+            throw new IllegalArgumentException("maxConcurrency must be > 0 and queueCapacity >= 0");
         }
+        requestLanes.put(priority, new int[]{maxConcurrency, queueCapacity});
+        configChanged();
     }
 
-    public Result<Boolean> refundSubscription(String paySystemId, String invoiceId, String comment) {
-        checkApiKey();
-        try {
-            String url = buildUrl(API_SUBSCRIPTION_REFUND, null);
+    public LatencySnapshot getQueueWaitSnapshot(RequestPriority priority) {
+        return client().getQueueWaitSnapshot(priority);
+    }
 
-            Map<String, String> bodyMap = new HashMap<>();
-            bodyMap.put(KEY_PAY_SYSTEM, paySystemId);
-            bodyMap.put(KEY_INVOICE_ID, invoiceId);
+    public long getRejectedTaskCount(RequestPriority priority) {
+        return client().getRejectedTaskCount(priority);
+    }
 
-            if (comment != null && !comment.isBlank()) {
-                bodyMap.put(KEY_COMMENT, comment);
-            }
+    public long getCoalescedTaskCount(RequestPriority priority) {
+        return client().getCoalescedTaskCount(priority);
+    }
 
-            String body = new JSONObject(bodyMap).toString();
-            String response = makeRequest(url, METHOD_TYPE_PUT, body);
-            JSONObject json = response != null ? new JSONObject(response) : null;
+    public int getQueuedTaskCount(RequestPriority priority) {
+        return client().getQueuedTaskCount(priority);
+    }
 
-            if (json != null && "1".equals(json.optString("success"))) {
-                return Result.success(true);
-            } else {
-                return Result.failure(new Exception(json != null ? json.optString("message", "Unknown error") : "Empty response"));
-            }
+    // Listeners are called on the main thread with the current status once known, then only when
+    // the user's subscriptions or their statuses change.
+    public synchronized void observeEntitlement(String userID, EntitlementListener listener) {
+        if (userID == null || listener == null) {
+            throw new IllegalArgumentException("userID and listener must not be null");
+        }
+        List<EntitlementListener> listeners = entitlementObservers.get(userID);
+        if (listeners == null) {
+            listeners = new ArrayList<>();
+            entitlementObservers.put(userID, listeners);
+        }
+        if (!listeners.contains(listener)) listeners.add(listener);
+        Web2WaveClient current = client;
+        // A rebuild registers every listener in the map, this one included.
+        if (current == null || stale) client();
+        else current.observeEntitlement(userID, listener);
+    }
 
-        } catch (Exception e) {
-            return Result.failure(e);
+    public synchronized void stopObservingEntitlement(String userID, EntitlementListener listener) {
+        List<EntitlementListener> listeners = entitlementObservers.get(userID);
+        if (listeners != null) {
+            listeners.remove(listener);
+            if (listeners.isEmpty()) entitlementObservers.remove(userID);
         }
+        Web2WaveClient current = client;
+        if (current != null) current.stopObservingEntitlement(userID, listener);
     }
 
+    public void boostEntitlementPolling() {
+        client().boostEntitlementPolling();
+    }
 
-    public Map<String, String> fetchUserProperties(String userID) {
-        checkApiKey();
-        String url = buildUrl(API_USER_PROPERTIES, Collections.singletonMap(KEY_USER, userID));
-        String response = makeRequest(url, METHOD_TYPE_GET, null);
-        if (response != null) {
-            try {
-                JSONObject json = new JSONObject(response);
-                JSONArray propertiesArray = json.optJSONArray(KEY_PROPERTIES);
-                Map<String, String> result = new HashMap<>();
-                if (propertiesArray != null) {
-                    for (int i = 0; i < propertiesArray.length(); i++) {
-                        JSONObject property = propertiesArray.getJSONObject(i);
-                        String key = property.optString(KEY_PROPERTY, "");
-                        String value = property.optString(KEY_VALUE, "");
-                        result.put(key, value);
-                    }
-                }
-                return result;
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
-        }
-        return null;
+    // Pauses entitlement polling while no activity is started and resumes it when one is.
+    public synchronized void trackAppVisibility(@NonNull Application application) {
+        if (lifecycleApplication != null) return;
+        lifecycleApplication = application;
+        application.registerActivityLifecycleCallbacks(new VisibilityTracker());
     }
 
-    public Result<Boolean> updateUserProperty(String userID, String property, String value) {
-        checkApiKey();
-        String url = buildUrl(API_USER_PROPERTIES, Collections.singletonMap(KEY_USER, userID));
-        JSONObject body = new JSONObject();
+    private synchronized void setAppInBackground(boolean inBackground) {
+        appInBackground = inBackground;
+        Web2WaveClient current = client;
+        if (current != null) current.setEntitlementPollingPaused(inBackground);
+    }
 
-        try {
-            body.put(KEY_PROPERTY, property);
-            body.put(KEY_VALUE, value);
-        } catch (JSONException e) {
-            return Result.failure(e);
-        }
-
-        String response = makeRequest(url, METHOD_TYPE_POST, body.toString());
-        if (response != null) {
-            try {
-                JSONObject jsonResponse = new JSONObject(response);
-                Boolean isSuccessful = jsonResponse.optString(KEY_RESULT, "").equals("1");
-                return Result.success(isSuccessful);
-            } catch (JSONException e) {
-                return Result.failure(e);
-            }
+    public synchronized void setExecutor(ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
         }
-        return Result.failure(new Exception("Failed to update properties"));
+        this.executor = executor;
+        configChanged();
     }
 
-    public Result<Boolean> setRevenuecatProfileID(String appUserID, String revenueCatProfileID) {
-        return updateUserProperty(appUserID, PROFILE_ID_REVENUECAT, revenueCatProfileID);
+    public CompletableFuture<Map<String, Object>> fetchSubscriptionStatusAsync(String userID) {
+        return client().fetchSubscriptionStatusAsync(userID);
     }
 
-    public Result<Boolean> setAdaptyProfileID(String appUserID, String adaptyProfileID) {
-        return updateUserProperty(appUserID, PROFILE_ID_ADAPTY, adaptyProfileID);
+    public void fetchSubscriptionStatusAsync(String userID, Web2WaveCallback<Map<String, Object>> callback) {
+        client().fetchSubscriptionStatusAsync(userID, callback);
     }
 
-    public Result<Boolean> setQonversionProfileID(String appUserID, String qonversionProfileID) {
-        return updateUserProperty(appUserID, PROFILE_ID_QONVERSION, qonversionProfileID);
+    public CompletableFuture<List<Map<String, Object>>> fetchSubscriptionsAsync(String userID) {
+        return client().fetchSubscriptionsAsync(userID);
     }
 
-    private void checkApiKey() {
-        if (apiKey == null) {
-            throw new IllegalStateException("You have to initialize apiKey before use");
-        }
+    public void fetchSubscriptionsAsync(String userID, Web2WaveCallback<List<Map<String, Object>>> callback) {
+        client().fetchSubscriptionsAsync(userID, callback);
+    }
+
+    public CompletableFuture<Boolean> hasActiveSubscriptionAsync(String userID) {
+        return client().hasActiveSubscriptionAsync(userID);
+    }
+
+    public void hasActiveSubscriptionAsync(String userID, Web2WaveCallback<Boolean> callback) {
+        client().hasActiveSubscriptionAsync(userID, callback);
+    }
+
+    public CompletableFuture<Map<String, String>> fetchUserPropertiesAsync(String userID) {
+        return client().fetchUserPropertiesAsync(userID);
+    }
+
+    public void fetchUserPropertiesAsync(String userID, Web2WaveCallback<Map<String, String>> callback) {
+        client().fetchUserPropertiesAsync(userID, callback);
+    }
+
+    public CompletableFuture<Result<Boolean>> updateUserPropertyAsync(String userID, String property, String value) {
+        return client().updateUserPropertyAsync(userID, property, value);
+    }
+
+    public void updateUserPropertyAsync(String userID, String property, String value, Web2WaveCallback<Result<Boolean>> callback) {
+        client().updateUserPropertyAsync(userID, property, value, callback);
+    }
+
+    public CompletableFuture<Result<Boolean>> updateUserPropertiesAsync(String userID, Map<String, String> properties) {
+        return client().updateUserPropertiesAsync(userID, properties);
+    }
+
+    public void updateUserPropertiesAsync(String userID, Map<String, String> properties, Web2WaveCallback<Result<Boolean>> callback) {
+        client().updateUserPropertiesAsync(userID, properties, callback);
+    }
+
+    public CompletableFuture<Result<Boolean>> cancelSubscriptionAsync(String paySystemId, String comment) {
+        return client().cancelSubscriptionAsync(paySystemId, comment);
     }
 
-    private String makeRequest(String url, String method, String body) {
+    public void cancelSubscriptionAsync(String paySystemId, String comment, Web2WaveCallback<Result<Boolean>> callback) {
+        client().cancelSubscriptionAsync(paySystemId, comment, callback);
+    }
+
+    public CompletableFuture<Result<Boolean>> refundSubscriptionAsync(String paySystemId, String invoiceId, String comment) {
+        return client().refundSubscriptionAsync(paySystemId, invoiceId, comment);
+    }
+
+    public void refundSubscriptionAsync(String paySystemId, String invoiceId, String comment, Web2WaveCallback<Result<Boolean>> callback) {
+        client().refundSubscriptionAsync(paySystemId, invoiceId, comment, callback);
+    }
+
+    public CompletableFuture<Result<Boolean>> chargeUserAsync(String web2waveUserId, int priceId) {
+        return client().chargeUserAsync(web2waveUserId, priceId);
+    }
+
+    public void chargeUserAsync(String web2waveUserId, int priceId, Web2WaveCallback<Result<Boolean>> callback) {
+        client().chargeUserAsync(web2waveUserId, priceId, callback);
+    }
+
+    public synchronized void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy != null ? retryPolicy : RetryPolicy.none();
+        configChanged();
+    }
+
+    public synchronized void setCircuitBreakerPolicy(CircuitBreakerPolicy policy) {
+        circuitBreakerPolicy = policy;
+        configChanged();
+    }
+
+    public synchronized void setCircuitBreakerListener(CircuitBreakerListener listener) {
+        circuitBreakerListener = listener;
+        configChanged();
+    }
+
+    public synchronized void setMetricsListener(Web2WaveMetricsListener listener) {
+        metricsEnabled = true;
+        metricsListener = listener;
+        configChanged();
+    }
+
+    public synchronized void enableMetrics() {
+        metricsEnabled = true;
+        configChanged();
+    }
+
+    public synchronized void disableMetrics() {
+        metricsEnabled = false;
+        metricsListener = null;
+        configChanged();
+    }
+
+    public LatencySnapshot getLatencySnapshot(Web2WaveEndpoint endpoint) {
+        return client().getLatencySnapshot(endpoint);
+    }
+
+    public CircuitState getCircuitState(Web2WaveEndpoint endpoint) {
+        return client().getCircuitState(endpoint);
+    }
+
+    public synchronized void enableOutbox(File directory, int maxAttempts) throws IOException {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be > 0");
+        }
+        File previousDirectory = outboxDirectory;
+        int previousMaxAttempts = outboxMaxAttempts;
+        outboxDirectory = directory;
+        outboxMaxAttempts = maxAttempts;
+        if (apiKey == null) {
+            configChanged();
+            return;
+        }
+        // Built now rather than on next use so an unreadable outbox is reported to this caller.
         try {
-            HttpURLConnection connection = getHttpURLConnection(url, method, body);
-            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                }
-                reader.close();
-                return response.toString();
-            } else {
-                System.err.println("Unexpected response code: " + connection.getResponseCode());
-            }
-        } catch (Exception e) {
-            System.err.println("Request failed: " + e.getMessage());
+            rebuild();
+        } catch (UncheckedIOException e) {
+            outboxDirectory = previousDirectory;
+            outboxMaxAttempts = previousMaxAttempts;
+            configChanged();
+            throw e.getCause();
         }
-        return null;
     }
 
-    private HttpURLConnection getHttpURLConnection(String url, String method, String body) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-        connection.setRequestMethod(method);
-        connection.setRequestProperty("api-key", apiKey);
-        connection.setRequestProperty("Cache-Control", "no-cache");
-        connection.setRequestProperty("Pragma", "no-cache");
+    public synchronized void disableOutbox() {
+        outboxDirectory = null;
+        configChanged();
+    }
 
-        if ("POST".equals(method)) {
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setDoOutput(true);
-            try (OutputStream os = connection.getOutputStream()) {
-                byte[] input = body.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
-            }
+    public int getOutboxDepth() {
+        return client().getOutboxDepth();
+    }
+
+    public long getOutboxReplayLatencyMillis() {
+        return client().getOutboxReplayLatencyMillis();
+    }
+
+    public SubscriptionStatus getSubscriptionStatus(String userID) {
+        return client().getSubscriptionStatus(userID);
+    }
+
+    public Map<String, Object> fetchSubscriptionStatus(String userID) {
+        return client().fetchSubscriptionStatus(userID);
+    }
+
+    public boolean hasActiveSubscription(String userID) {
+        return client().hasActiveSubscription(userID);
+    }
+
+    public List<Subscription> getSubscriptions(String userID) {
+        return client().getSubscriptions(userID);
+    }
+
+    public List<Map<String, Object>> fetchSubscriptions(String userID) {
+        return client().fetchSubscriptions(userID);
+    }
+
+    public BulkLookupReport fetchSubscriptionStatuses(Collection<String> userIDs, BulkLookupListener listener) {
+        return client().fetchSubscriptionStatuses(userIDs, listener);
+    }
+
+    public BulkLookupReport fetchSubscriptionStatuses(Collection<String> userIDs, int maxConcurrency,
+                                                      double maxRequestsPerSecond, BulkLookupListener listener) {
+        return client().fetchSubscriptionStatuses(userIDs, maxConcurrency, maxRequestsPerSecond, listener);
+    }
+
+    public CompletableFuture<BulkLookupReport> fetchSubscriptionStatusesAsync(Collection<String> userIDs, int maxConcurrency,
+                                                                              double maxRequestsPerSecond, BulkLookupListener listener) {
+        return client().fetchSubscriptionStatusesAsync(userIDs, maxConcurrency, maxRequestsPerSecond, listener);
+    }
+
+    public Result<Boolean> cancelSubscription(String paySystemId, String comment) {
+        return client().cancelSubscription(paySystemId, comment);
+    }
+
+    public Result<Boolean> chargeUser(String web2waveUserId, int priceId) {
+        return client().chargeUser(web2waveUserId, priceId);
+    }
+
+    public Result<Boolean> refundSubscription(String paySystemId, String invoiceId, String comment) {
+        return client().refundSubscription(paySystemId, invoiceId, comment);
+    }
+
+    public UserProperties getUserProperties(String userID) {
+        return client().getUserProperties(userID);
+    }
+
+    public Map<String, String> fetchUserProperties(String userID) {
+        return client().fetchUserProperties(userID);
+    }
+
+    public String getUserProperty(String userID, String property) {
+        return client().getUserProperty(userID, property);
+    }
+
+    public Result<Boolean> updateUserProperty(String userID, String property, String value) {
+        return client().updateUserProperty(userID, property, value);
+    }
+
+    public Result<Boolean> updateUserProperties(String userID, Map<String, String> properties) {
+        return client().updateUserProperties(userID, properties);
+    }
+
+    public synchronized void enablePropertyWriteBehind(long delayMillis, int maxPending) {
+        if (delayMillis < 0 || maxPending <= 0) {
+            throw new IllegalArgumentException("delayMillis must be >= 0 and maxPending > 0");
         }
-        return connection;
+        writeBehindDelayMillis = delayMillis;
+        writeBehindMaxPending = maxPending;
+        configChanged();
+    }
+
+    public synchronized void disablePropertyWriteBehind() {
+        writeBehindMaxPending = 0;
+        configChanged();
+    }
+
+    public CompletableFuture<Result<Boolean>> enqueueUserProperty(String userID, String property, String value) {
+        return client().enqueueUserProperty(userID, property, value);
+    }
+
+    public CompletableFuture<Void> flush() {
+        return client().flush();
+    }
+
+    public long getMergedPropertyWriteCount() {
+        return client().getMergedPropertyWriteCount();
+    }
+
+    public Result<Boolean> setRevenuecatProfileID(String appUserID, String revenueCatProfileID) {
+        return client().setRevenuecatProfileID(appUserID, revenueCatProfileID);
+    }
+
+    public Result<Boolean> setAdaptyProfileID(String appUserID, String adaptyProfileID) {
+        return client().setAdaptyProfileID(appUserID, adaptyProfileID);
+    }
+
+    public Result<Boolean> setQonversionProfileID(String appUserID, String qonversionProfileID) {
+        return client().setQonversionProfileID(appUserID, qonversionProfileID);
+    }
+
+    public CompletableFuture<Result<Boolean>> setRevenuecatProfileIDAsync(String appUserID, String revenueCatProfileID) {
+        return client().setRevenuecatProfileIDAsync(appUserID, revenueCatProfileID);
+    }
+
+    public CompletableFuture<Result<Boolean>> setAdaptyProfileIDAsync(String appUserID, String adaptyProfileID) {
+        return client().setAdaptyProfileIDAsync(appUserID, adaptyProfileID);
     }
 
+    public CompletableFuture<Result<Boolean>> setQonversionProfileIDAsync(String appUserID, String qonversionProfileID) {
+        return client().setQonversionProfileIDAsync(appUserID, qonversionProfileID);
+    }
 
     public static void showWebView(
             @NonNull FragmentManager fragmentManager,
@@ -319,7 +590,7 @@ public class Web2Wave {
             int bottomOffset,
             int backgroundColor
     ) {
-        if (Web2Wave.getInstance().apiKey == null) {
+        if (!Web2Wave.getInstance().isInitialized()) {
             throw new IllegalStateException("You must initialize apiKey before use");
         }
 
@@ -327,18 +598,172 @@ public class Web2Wave {
             throw new IllegalArgumentException("You must provide valid url");
         }
 
-        Web2WaveDialog dialog = Web2WaveDialog.create(url, listener, topOffset, bottomOffset, backgroundColor);
+        Web2WaveDialog dialog = Web2WaveDialog.create(url, new EntitlementBoostingListener(listener),
+                topOffset, bottomOffset, backgroundColor);
         dialog.show(fragmentManager, "web2wave_tag");
     }
 
+    public static void prewarm(@NonNull Context context, @NonNull String url) {
+        prewarm(context, url, 0, 0);
+    }
+
+    // Creates the WebView and starts loading the page ahead of showWebView. The offsets must match
+    // the ones later passed to showWebView, otherwise the dialog builds a fresh WebView.
+    public static void prewarm(@NonNull Context context, @NonNull String url, int topOffset, int bottomOffset) {
+        if (!URLUtil.isValidUrl(url)) {
+            throw new IllegalArgumentException("You must provide valid url");
+        }
+        WebViewPrewarmer.getInstance().prewarm(context, Web2WaveDialog.prepareUrl(url, topOffset, bottomOffset));
+    }
+
+    public static void releasePrewarmed() {
+        WebViewPrewarmer.getInstance().release();
+    }
+
+    // Caches hashed and cacheable static assets of funnel pages under the app cache directory.
+    public static synchronized void enableWebAssetCache(@NonNull Context context, long maxBytes) {
+        WebAssetCache previous = webAssetCache;
+        webAssetCache = new WebAssetCache(new File(context.getCacheDir(), "web2wave_assets"), maxBytes);
+        if (previous != null) previous.close();
+    }
+
+    // Cached assets stay on disk and are picked up again by the next enableWebAssetCache.
+    public static synchronized void disableWebAssetCache() {
+        WebAssetCache previous = webAssetCache;
+        webAssetCache = null;
+        if (previous != null) previous.close();
+    }
+
+    public static WebAssetCache getWebAssetCache() {
+        return webAssetCache;
+    }
+
+    public static CompletableFuture<Integer> prefetchWebAssets(@NonNull String manifestUrl) {
+        WebAssetCache cache = webAssetCache;
+        if (cache == null) {
+            throw new IllegalStateException("You must enable the web asset cache before prefetching");
+        }
+        return cache.prefetchAsync(manifestUrl);
+    }
+
+    // Records every event the page posts to a ring file of at most maxBytes in the app's files
+    // directory, so events survive the process being killed. Use drainEvents to upload them.
+    public static synchronized void enableWebEventLog(@NonNull Context context, long maxBytes) {
+        WebEventLog previous = webEventLog;
+        webEventLog = new WebEventLog(new File(context.getApplicationContext().getFilesDir(), "web2wave_events"), maxBytes);
+        if (previous != null) previous.close();
+    }
+
+    // Recorded events stay on disk and are picked up again by the next enableWebEventLog.
+    public static synchronized void disableWebEventLog() {
+        WebEventLog previous = webEventLog;
+        webEventLog = null;
+        if (previous != null) previous.close();
+    }
+
+    public static WebEventLog getWebEventLog() {
+        return webEventLog;
+    }
+
+    // Removes and returns up to maxBatch of the oldest recorded events. Does disk I/O.
+    public static List<WebEventLog.RecordedEvent> drainEvents(int maxBatch) {
+        WebEventLog log = webEventLog;
+        if (log == null) {
+            throw new IllegalStateException("You must enable the web event log before draining events");
+        }
+        return log.drainEvents(maxBatch);
+    }
+
+    // Removes the batch only if the handler returns true, e.g. after a successful upload.
+    public static int drainEvents(int maxBatch, @NonNull WebEventLog.BatchHandler handler) {
+        WebEventLog log = webEventLog;
+        if (log == null) {
+            throw new IllegalStateException("You must enable the web event log before draining events");
+        }
+        return log.drainEvents(maxBatch, handler);
+    }
+
+    // Applies to web views created afterwards. Quiz finished and Close webview are never dropped.
+    public static void configureWebEvents(boolean deliverOnMainThread, int capacity,
+                                          @NonNull WebEventPipeline.OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        webEventsOnMainThread = deliverOnMainThread;
+        webEventCapacity = capacity;
+        webEventOverflowPolicy = overflowPolicy;
+    }
+
+    static WebEventPipeline newWebEventPipeline() {
+        return new WebEventPipeline(webEventsOnMainThread ? new MainThreadExecutor() : null,
+                webEventCapacity, WebEventPipeline.DEFAULT_MAX_BATCH, webEventOverflowPolicy);
+    }
+
     public static void closeWebView(@NonNull FragmentManager fragmentManager) {
         Fragment fragment = fragmentManager.findFragmentByTag("web2wave_tag");
         if (fragment instanceof Web2WaveDialog) {
             ((Web2WaveDialog) fragment).dismissAllowingStateLoss();
         }
     }
-}
 
+    // Lifecycle callbacks run on the main thread, so the started count needs no locking.
+    private final class VisibilityTracker implements Application.ActivityLifecycleCallbacks {
+        private int started;
 
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+            if (started++ == 0) setAppInBackground(false);
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
 
+        @Override
+        public void onActivityStopped(Activity activity) {
+            if (started > 0 && --started == 0) setAppInBackground(true);
+        }
 
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+
+    // A finished quiz usually means a purchase is about to show up, so observers poll fast for a while.
+    private static final class EntitlementBoostingListener implements Web2WaveWebListener {
+        private final Web2WaveWebListener delegate;
+
+        EntitlementBoostingListener(Web2WaveWebListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onQuizFinished(Map<String, Object> data) {
+            Web2WaveClient current = getInstance().client;
+            if (current != null) current.boostEntitlementPolling();
+            delegate.onQuizFinished(data);
+        }
+
+        @Override
+        public void onClose(Map<String, Object> data) {
+            delegate.onClose(data);
+        }
+
+        @Override
+        public void onEvent(String event, Map<String, Object> data) {
+            delegate.onEvent(event, data);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.web2wave;
+
+import android.webkit.JavascriptInterface;
+
+// Exposed to the page as window.Android. Messages are only queued here so the page's script is
+// never held up by parsing or by the listener; see WebEventPipeline. The listener is swappable so
+// a prewarmed WebView can be handed to whichever dialog ends up showing it.
+class Web2WaveBridge {
+
+    static final String NAME = "Android";
+
+    private final WebEventPipeline pipeline = Web2Wave.newWebEventPipeline();
+
+    Web2WaveWebListener getListener() {
+        return pipeline.getListener();
+    }
+
+    void setListener(Web2WaveWebListener listener) {
+        pipeline.setListener(listener);
+    }
+
+    void close() {
+        pipeline.close();
+        WebEventLog log = Web2Wave.getWebEventLog();
+        if (log != null) log.requestFlush();
+    }
+
+    @JavascriptInterface
+    public void postMessage(String message) {
+        // Recorded before the pipeline so events it drops on overflow are still kept.
+        WebEventLog log = Web2Wave.getWebEventLog();
+        if (log != null) log.append(message);
+        pipeline.offer(message);
+    }
+}
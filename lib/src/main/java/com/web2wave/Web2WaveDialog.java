@@ -6,30 +6,26 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.webkit.*;
+import android.webkit.WebChromeClient;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.DialogFragment;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.util.Map;
-
 public class Web2WaveDialog extends DialogFragment {
 
     private static final String URL_KEY = "url_key";
     private static final String TOP_OFFSET_KEY = "top_offset";
     private static final String BOTTOM_OFFSET_KEY = "bottom_offset";
     private static final String BACKGROUND_COLOR_KEY = "background_color";
-    private static final String EVENT_QUIZ_FINISHED = "Quiz finished";
-    private static final String EVENT_CLOSE_WEB_VIEW = "Close webview";
 
-    private Web2WaveWebListener listener;
+    private Web2WaveBridge bridge = new Web2WaveBridge();
+    private WebViewPrewarmer.Prewarmed prewarmed;
 
     public void setListener(Web2WaveWebListener listener) {
-        this.listener = listener;
+        bridge.setListener(listener);
     }
 
     public static Web2WaveDialog create(String url, Web2WaveWebListener listener, int topOffset, int bottomOffset, int backgroundColor) {
@@ -55,10 +51,18 @@ public class Web2WaveDialog extends DialogFragment {
     public View onCreateView(@NonNull LayoutInflater inflater,
                              @Nullable ViewGroup container,
                              @Nullable Bundle savedInstanceState) {
+        Bundle args = getArguments();
+        if (args != null && args.getString(URL_KEY) != null) {
+            String preparedUrl = prepareUrl(args.getString(URL_KEY),
+                    args.getInt(TOP_OFFSET_KEY, 0), args.getInt(BOTTOM_OFFSET_KEY, 0));
+            prewarmed = WebViewPrewarmer.getInstance().take(preparedUrl, requireContext());
+            if (prewarmed != null) {
+                return prewarmed.webView;
+            }
+        }
         return inflater.inflate(R.layout.fragment_web_view, container, false);
     }
 
-    @SuppressLint("SetJavaScriptEnabled")
     @Override
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
@@ -79,11 +83,25 @@ public class Web2WaveDialog extends DialogFragment {
 
 
         WebView webView = (WebView) view;
+        webView.setBackgroundColor(backgroundColor);
 
-        webView.setWebViewClient(new WebViewClient());
-        webView.setWebChromeClient(new WebChromeClient());
+        if (prewarmed != null) {
+            // Already configured and loading; setting the listener also delivers the events the
+            // page posted while it was prewarmed.
+            prewarmed.bridge.setListener(bridge.getListener());
+            bridge.close();
+            bridge = prewarmed.bridge;
+            return;
+        }
 
-        webView.setBackgroundColor(backgroundColor);
+        configure(webView, bridge);
+        webView.loadUrl(prepareUrl(url, topOffset, bottomOffset));
+    }
+
+    @SuppressLint("SetJavaScriptEnabled")
+    static void configure(WebView webView, Web2WaveBridge bridge) {
+        webView.setWebViewClient(new Web2WaveWebViewClient());
+        webView.setWebChromeClient(new WebChromeClient());
 
         WebSettings settings = webView.getSettings();
         settings.setJavaScriptEnabled(true);
@@ -91,23 +109,10 @@ public class Web2WaveDialog extends DialogFragment {
 
         WebView.setWebContentsDebuggingEnabled(true);
 
-        webView.addJavascriptInterface(new Object() {
-            @JavascriptInterface
-            public void postMessage(String message) {
-                try {
-                    JSONObject json = new JSONObject(message);
-                    handleJsEvent(json);
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-            }
-        }, "Android");
-
-        String newUrl = prepareUrl(url, topOffset, bottomOffset);
-        webView.loadUrl(newUrl);
+        webView.addJavascriptInterface(bridge, Web2WaveBridge.NAME);
     }
 
-    private String prepareUrl(String url, int topOffset, int bottomOffset) {
+    static String prepareUrl(String url, int topOffset, int bottomOffset) {
         return Uri.parse(url)
                 .buildUpon()
                 .appendQueryParameter("webview_android", "1")
@@ -117,28 +122,10 @@ public class Web2WaveDialog extends DialogFragment {
                 .toString();
     }
 
-    private void handleJsEvent(JSONObject json) throws JSONException {
-        String event = json.optString("event");
-        JSONObject dataJson = json.optJSONObject("data");
-        Map<String, Object> data = dataJson != null ? Utils.jsonToMap(dataJson) : null;
-
-        if (event.isEmpty()) return;
-
-        switch (event) {
-            case EVENT_QUIZ_FINISHED:
-                if (listener != null) listener.onQuizFinished(data);
-                break;
-            case EVENT_CLOSE_WEB_VIEW:
-                if (listener != null) listener.onClose(data);
-                break;
-            default:
-                if (listener != null) listener.onEvent(event, data);
-        }
-    }
-
     @Override
     public void onDestroy() {
         super.onDestroy();
-        listener = null;
+        bridge.setListener(null);
+        bridge.close();
     }
 }
@@ -0,0 +1,55 @@
+package com.web2wave;
+
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import java.io.IOException;
+
+// Serves sub-resources from the web asset cache when one is enabled. The page document itself is
+// always loaded by the WebView so funnel changes show up immediately.
+class Web2WaveWebViewClient extends WebViewClient {
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        WebAssetCache cache = Web2Wave.getWebAssetCache();
+        if (cache == null || request.isForMainFrame() || !"GET".equalsIgnoreCase(request.getMethod())) {
+            return null;
+        }
+        String scheme = request.getUrl().getScheme();
+        if (!"https".equalsIgnoreCase(scheme) && !"http".equalsIgnoreCase(scheme)) {
+            return null;
+        }
+
+        WebAssetCache.Asset asset = cache.get(request.getUrl().toString(), request.getRequestHeaders());
+        if (asset == null) return null;
+        int status = asset.getStatusCode();
+        if (status >= 300 && status < 400) {
+            // WebResourceResponse cannot carry a redirect; let the WebView follow it itself.
+            asset.close();
+            return null;
+        }
+        try {
+            return new WebResourceResponse(asset.getMimeType(), asset.getCharset(), status, reasonPhrase(status),
+                    asset.getResponseHeaders(), asset.open());
+        } catch (IOException e) {
+            System.err.println("Failed to open cached web asset: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // WebResourceResponse requires a non-empty phrase, and the transport does not report one.
+    private static String reasonPhrase(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 204: return "No Content";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            default: return status < 400 ? "OK" : "Error";
+        }
+    }
+}
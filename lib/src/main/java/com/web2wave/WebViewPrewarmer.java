@@ -0,0 +1,127 @@
+package com.web2wave;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.content.res.Configuration;
+import android.os.Looper;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+
+// Holds one WebView that has already started loading the paywall, so showWebView can adopt it
+// instead of paying for WebView init and page load while the user waits. All state is touched on
+// the main thread only.
+final class WebViewPrewarmer implements ComponentCallbacks2 {
+
+    static final class Prewarmed {
+        final WebView webView;
+        final Web2WaveBridge bridge;
+
+        Prewarmed(WebView webView, Web2WaveBridge bridge) {
+            this.webView = webView;
+            this.bridge = bridge;
+        }
+    }
+
+    private static final WebViewPrewarmer INSTANCE = new WebViewPrewarmer();
+
+    private final MainThreadExecutor mainThread = new MainThreadExecutor();
+    private boolean callbacksRegistered;
+
+    private WebView webView;
+    private MutableContextWrapper context;
+    private Web2WaveBridge bridge;
+    private String url;
+
+    private WebViewPrewarmer() {
+    }
+
+    static WebViewPrewarmer getInstance() {
+        return INSTANCE;
+    }
+
+    void prewarm(Context context, String preparedUrl) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mainThread.execute(() -> prewarm(context, preparedUrl));
+            return;
+        }
+        if (webView != null && preparedUrl.equals(url)) return;
+        release();
+
+        Context application = context.getApplicationContext();
+        if (!callbacksRegistered) {
+            application.registerComponentCallbacks(this);
+            callbacksRegistered = true;
+        }
+
+        // The wrapper lets the WebView be created before there is an activity to attach it to.
+        MutableContextWrapper wrapper = new MutableContextWrapper(application);
+        WebView view = new WebView(wrapper);
+        // No listener yet: the bridge's pipeline holds what the page posts until the dialog that
+        // adopts the view sets one.
+        Web2WaveBridge viewBridge = new Web2WaveBridge();
+        Web2WaveDialog.configure(view, viewBridge);
+        view.loadUrl(preparedUrl);
+
+        this.webView = view;
+        this.context = wrapper;
+        this.bridge = viewBridge;
+        this.url = preparedUrl;
+    }
+
+    // Returns the prewarmed WebView if it was loaded for the same URL, rebound to the host
+    // context. The pool is empty afterwards; the caller owns the WebView.
+    Prewarmed take(String preparedUrl, Context host) {
+        if (webView == null || !preparedUrl.equals(url)) return null;
+
+        Prewarmed prewarmed = new Prewarmed(webView, bridge);
+        context.setBaseContext(host);
+        ViewParent parent = webView.getParent();
+        if (parent instanceof ViewGroup) {
+            ((ViewGroup) parent).removeView(webView);
+        }
+        webView.setLayoutParams(new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+
+        webView = null;
+        context = null;
+        bridge = null;
+        url = null;
+        return prewarmed;
+    }
+
+    void release() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mainThread.execute(this::release);
+            return;
+        }
+        if (webView == null) return;
+        webView.stopLoading();
+        webView.destroy();
+        bridge.close();
+        webView = null;
+        context = null;
+        bridge = null;
+        url = null;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // UI_HIDDEN only means the app went to the background; keep the page for when it returns.
+        if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) {
+            release();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        release();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+}